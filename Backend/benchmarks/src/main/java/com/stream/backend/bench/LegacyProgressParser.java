@@ -0,0 +1,193 @@
+package com.stream.backend.bench;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Bản sao đường parse cũ của FfmpegServiceImpl.readProgress (BufferedReader.readLine,
+ * parseStatsLineInto/extract*After, split("=", 2), field boxed, String.format cho size)
+ * để làm baseline so sánh với FfmpegProgressParser.
+ */
+final class LegacyProgressParser {
+
+    static final class LegacyStat {
+        Long frame;
+        Double fps;
+        Double q;
+        String size;
+        String bitrate;
+        String time;
+        String speed;
+        Long outTimeMs;
+        Long updatedAt;
+    }
+
+    private LegacyProgressParser() {
+    }
+
+    /** Parse toàn bộ output, gọi sink với bản clone sau mỗi block (như statMap.put cũ) */
+    static long parse(byte[] output, Consumer<LegacyStat> sink) throws IOException {
+        LegacyStat stat = new LegacyStat();
+        long blocks = 0;
+        BufferedReader br = new BufferedReader(
+                new InputStreamReader(new ByteArrayInputStream(output), StandardCharsets.UTF_8), 8192);
+
+        String line;
+        while ((line = br.readLine()) != null) {
+            if (line.contains("frame=") && line.contains("fps=")) {
+                parseStatsLineInto(stat, line);
+                stat.updatedAt = System.currentTimeMillis();
+                sink.accept(cloneStat(stat));
+                continue;
+            }
+
+            if (!line.contains("="))
+                continue;
+
+            String[] kv = line.split("=", 2);
+            if (kv.length != 2)
+                continue;
+
+            String key = kv[0].trim();
+            String val = kv[1].trim();
+
+            switch (key) {
+                case "frame" -> stat.frame = parseLong(val);
+                case "stream_0_0_fps" -> stat.fps = parseDouble(val);
+                case "stream_0_0_q" -> stat.q = parseDouble(val);
+                case "bitrate" -> stat.bitrate = val;
+                case "speed" -> stat.speed = val;
+                case "out_time" -> stat.time = val;
+                case "total_size" -> stat.size = humanBytes(parseLong(val));
+                case "out_time_us" -> stat.outTimeMs = parseLong(val) / 1000L;
+                case "out_time_ms" -> stat.outTimeMs = parseLong(val) / 1000L;
+                case "progress" -> {
+                    if ((stat.fps == null || stat.fps == 0.0)
+                            && stat.frame != null && stat.outTimeMs != null && stat.outTimeMs > 0) {
+                        stat.fps = stat.frame / (stat.outTimeMs / 1000.0);
+                    }
+                    stat.updatedAt = System.currentTimeMillis();
+                    blocks++;
+                    sink.accept(cloneStat(stat));
+                }
+                default -> {
+                }
+            }
+        }
+        return blocks;
+    }
+
+    private static void parseStatsLineInto(LegacyStat stat, String line) {
+        try {
+            Long frame = extractLongAfter(line, "frame=");
+            if (frame != null)
+                stat.frame = frame;
+
+            Double fps = extractDoubleAfter(line, "fps=");
+            if (fps != null)
+                stat.fps = fps;
+
+            Double q = extractDoubleAfter(line, "q=");
+            if (q != null)
+                stat.q = q;
+
+            String bitrate = extractTokenAfter(line, "bitrate=");
+            if (bitrate != null)
+                stat.bitrate = bitrate;
+
+            String speed = extractTokenAfter(line, "speed=");
+            if (speed != null)
+                stat.speed = speed;
+
+            String time = extractTokenAfter(line, "time=");
+            if (time != null)
+                stat.time = time;
+
+            String size = extractTokenAfter(line, "size=");
+            if (size != null)
+                stat.size = size;
+
+        } catch (Exception ignored) {
+        }
+    }
+
+    private static String extractTokenAfter(String line, String key) {
+        int i = line.indexOf(key);
+        if (i < 0)
+            return null;
+        String tail = line.substring(i + key.length()).trim();
+        if (tail.isEmpty())
+            return null;
+        int sp = tail.indexOf(' ');
+        return (sp < 0) ? tail : tail.substring(0, sp).trim();
+    }
+
+    private static Long extractLongAfter(String line, String key) {
+        String t = extractTokenAfter(line, key);
+        if (t == null)
+            return null;
+        try {
+            return Long.parseLong(t.trim());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static Double extractDoubleAfter(String line, String key) {
+        String t = extractTokenAfter(line, key);
+        if (t == null)
+            return null;
+        try {
+            return Double.parseDouble(t.trim());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static LegacyStat cloneStat(LegacyStat s) {
+        LegacyStat c = new LegacyStat();
+        c.frame = s.frame;
+        c.fps = s.fps;
+        c.q = s.q;
+        c.size = s.size;
+        c.bitrate = s.bitrate;
+        c.time = s.time;
+        c.speed = s.speed;
+        c.outTimeMs = s.outTimeMs;
+        c.updatedAt = s.updatedAt;
+        return c;
+    }
+
+    private static String humanBytes(long bytes) {
+        if (bytes < 1024)
+            return bytes + "B";
+        double kib = bytes / 1024.0;
+        if (kib < 1024)
+            return String.format(java.util.Locale.US, "%.0fKiB", kib);
+        double mib = kib / 1024.0;
+        if (mib < 1024)
+            return String.format(java.util.Locale.US, "%.1fMiB", mib);
+        double gib = mib / 1024.0;
+        return String.format(java.util.Locale.US, "%.2fGiB", gib);
+    }
+
+    private static long parseLong(String v) {
+        try {
+            return Long.parseLong(v.trim());
+        } catch (Exception e) {
+            return 0L;
+        }
+    }
+
+    private static double parseDouble(String v) {
+        try {
+            return Double.parseDouble(v.trim());
+        } catch (Exception e) {
+            return 0.0;
+        }
+    }
+}
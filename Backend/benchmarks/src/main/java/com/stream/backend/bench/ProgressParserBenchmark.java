@@ -0,0 +1,70 @@
+package com.stream.backend.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.stream.backend.entity.FfmpegStat;
+import com.stream.backend.ffmpeg.FfmpegProgressParser;
+
+/**
+ * So sánh parser progress mới (byte-level, field primitive) với đường parse cũ
+ * trên cùng 1 output FFmpeg (-progress pipe:1 lẫn dòng stats của stderr, 300 block).
+ *
+ * Nên chạy kèm profiler GC để thấy lượng rác mỗi lần parse:
+ * java -jar target/benchmarks.jar ProgressParserBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProgressParserBenchmark {
+
+    /** Kích thước chunk mô phỏng 1 lần read() từ pipe */
+    private static final int CHUNK = 8192;
+
+    private byte[] output;
+
+    @Setup
+    public void load() throws IOException {
+        try (InputStream in = ProgressParserBenchmark.class.getResourceAsStream("/ffmpeg-progress-sample.txt")) {
+            if (in == null) {
+                throw new IllegalStateException("ffmpeg-progress-sample.txt not found on classpath");
+            }
+            output = in.readAllBytes();
+        }
+    }
+
+    @Benchmark
+    public long legacyStringParser(Blackhole bh) throws IOException {
+        return LegacyProgressParser.parse(output, bh::consume);
+    }
+
+    @Benchmark
+    public long byteParser(Blackhole bh) {
+        FfmpegProgressParser parser = new FfmpegProgressParser(new FfmpegProgressParser.Listener() {
+            @Override
+            public void onProgress(FfmpegStat stat) {
+                bh.consume(stat);
+            }
+        });
+        for (int off = 0; off < output.length; off += CHUNK) {
+            parser.feed(output, off, Math.min(CHUNK, output.length - off));
+        }
+        return parser.blocks();
+    }
+}
@@ -1,6 +1,7 @@
 package com.stream.backend.controller;
 
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 
 import org.springframework.http.HttpStatus;
@@ -9,7 +10,14 @@ import org.springframework.web.bind.annotation.*;
 
 import com.stream.backend.entity.StreamSession;
 import com.stream.backend.service.StreamSessionService;
+import com.stream.backend.ffmpeg.EncodeBenchmarkService;
+import com.stream.backend.ffmpeg.EncodeCapacityManager;
+import com.stream.backend.ffmpeg.FfmpegCpuBudget;
+import com.stream.backend.ffmpeg.FfmpegLogBuffer;
+import com.stream.backend.service.DownloadManagerService;
 import com.stream.backend.service.FfmpegService;
+import com.stream.backend.service.StreamStartJob;
+import com.stream.backend.service.StreamStartJobService;
 
 @RestController
 @RequestMapping("/api/stream-sessions")
@@ -18,10 +26,27 @@ public class StreamSessionController {
 
     private final StreamSessionService streamSessionService;
     private final FfmpegService ffmpegService;
-
-    public StreamSessionController(StreamSessionService streamSessionService, FfmpegService ffmpegService) {
+    private final StreamStartJobService streamStartJobService;
+    private final EncodeCapacityManager encodeCapacityManager;
+    private final EncodeBenchmarkService encodeBenchmarkService;
+    private final FfmpegCpuBudget ffmpegCpuBudget;
+    private final DownloadManagerService downloadManager;
+
+    public StreamSessionController(
+            StreamSessionService streamSessionService,
+            FfmpegService ffmpegService,
+            StreamStartJobService streamStartJobService,
+            EncodeCapacityManager encodeCapacityManager,
+            EncodeBenchmarkService encodeBenchmarkService,
+            FfmpegCpuBudget ffmpegCpuBudget,
+            DownloadManagerService downloadManager) {
         this.streamSessionService = streamSessionService;
         this.ffmpegService = ffmpegService;
+        this.streamStartJobService = streamStartJobService;
+        this.encodeCapacityManager = encodeCapacityManager;
+        this.encodeBenchmarkService = encodeBenchmarkService;
+        this.ffmpegCpuBudget = ffmpegCpuBudget;
+        this.downloadManager = downloadManager;
     }
 
     @GetMapping("")
@@ -98,25 +123,90 @@ public class StreamSessionController {
         Map<String, Object> response = new HashMap<>();
         response.put("streamKey", streamKey);
         response.put("stat", ffmpegService.getLatestStat(streamKey));
+        response.put("timeToFirstFrameMs", ffmpegService.getTimeToFirstFrameMs(streamKey));
+        response.put("cpu", ffmpegCpuBudget.get(streamKey));
+        return ResponseEntity.ok(response);
+    }
+
+    /** Log FFmpeg gần nhất của stream (ring buffer trong bộ nhớ, bản đầy đủ ở logs/ffmpeg) */
+    @GetMapping("/ffmpeg-log/{streamKey}")
+    public ResponseEntity<Map<String, Object>> getFfmpegLog(
+            @PathVariable("streamKey") String streamKey,
+            @RequestParam(defaultValue = "100") int lines) {
+        Map<String, Object> response = new HashMap<>();
+        if (!FfmpegLogBuffer.isValidKey(streamKey)) {
+            response.put("message", "streamKey không hợp lệ");
+            return ResponseEntity.badRequest().body(response);
+        }
+        response.put("message", "Log fetched successfully");
+        response.put("streamKey", streamKey);
+        response.put("lines", ffmpegService.getLogTail(streamKey, Math.min(Math.max(lines, 1), 1000)));
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Stream Ngay: không chờ FFmpeg start xong, trả 202 + jobId ngay.
+     * FE hỏi trạng thái qua GET /start-jobs/{jobId}.
+     */
     @PostMapping("/start/{streamId}")
     public ResponseEntity<Map<String, Object>> startStreamSession(@PathVariable("streamId") Integer streamId) {
         Map<String, Object> response = new HashMap<>();
         try {
-            StreamSession started = streamSessionService.startSessionForStream(streamId);
+            StreamStartJob job = streamStartJobService.submit(streamId);
 
-            response.put("message", "StreamSession started successfully");
-            response.put("streamSession", started);
+            response.put("message", "StreamSession start queued");
+            response.put("jobId", job.getJobId());
+            response.put("job", job);
 
-            return ResponseEntity.ok(response);
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+        } catch (RejectedExecutionException ex) {
+            response.put("message", "Hệ thống đang bận, vui lòng thử lại sau.");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(response);
         } catch (RuntimeException ex) {
             response.put("message", ex.getMessage());
             return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
         }
     }
 
+    @GetMapping("/start-jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getStartJob(@PathVariable("jobId") String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        return streamStartJobService.getJob(jobId)
+                .map(job -> {
+                    response.put("message", "Start job fetched successfully");
+                    response.put("job", job);
+                    return ResponseEntity.ok(response);
+                })
+                .orElseGet(() -> {
+                    response.put("message", "Start job not found: " + jobId);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+                });
+    }
+
+    /** Các lần tải video vào kho đang chạy / xếp hàng / vừa xong (bytes, tốc độ, ETA) */
+    @GetMapping("/downloads")
+    public ResponseEntity<Map<String, Object>> getDownloads() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Downloads fetched successfully");
+        response.put("downloads", downloadManager.listJobs());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/downloads/{jobId}")
+    public ResponseEntity<Map<String, Object>> getDownload(@PathVariable("jobId") String jobId) {
+        Map<String, Object> response = new HashMap<>();
+        return downloadManager.getJob(jobId)
+                .map(job -> {
+                    response.put("message", "Download fetched successfully");
+                    response.put("download", job);
+                    return ResponseEntity.ok(response);
+                })
+                .orElseGet(() -> {
+                    response.put("message", "Download not found: " + jobId);
+                    return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+                });
+    }
+
     @PostMapping("/{streamSessionId}")
     public ResponseEntity<Map<String, Object>> stopStreamSession(
             @PathVariable("streamSessionId") Integer streamSessionId) {
@@ -156,12 +246,45 @@ public class StreamSessionController {
     @GetMapping("/admin/stats")
     public ResponseEntity<Map<String, Object>> getAdminStats() {
         Map<String, Object> stats = streamSessionService.getAdminStats();
+        stats.put("capacity", encodeCapacityManager.snapshot());
+        stats.put("benchmark", encodeBenchmarkService.getLastResult());
         Map<String, Object> response = new HashMap<>();
         response.put("message", "Stats fetched successfully");
         response.put("stats", stats);
         return ResponseEntity.ok(response);
     }
 
+    /** Slot encode/copy hiện tại của máy (để admin biết còn bật thêm encode được không) */
+    @GetMapping("/admin/capacity")
+    public ResponseEntity<Map<String, Object>> getCapacity() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Capacity fetched successfully");
+        response.put("capacity", encodeCapacityManager.snapshot());
+        response.put("cpu", ffmpegCpuBudget.snapshot());
+        return ResponseEntity.ok(response);
+    }
+
+    @GetMapping("/admin/benchmark")
+    public ResponseEntity<Map<String, Object>> getBenchmark() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Benchmark fetched successfully");
+        response.put("running", encodeBenchmarkService.isRunning());
+        response.put("benchmark", encodeBenchmarkService.getLastResult());
+        return ResponseEntity.ok(response);
+    }
+
+    /** Chạy benchmark encode (nền, ~vài chục giây); xem kết quả qua GET /admin/benchmark */
+    @PostMapping("/admin/benchmark")
+    public ResponseEntity<Map<String, Object>> runBenchmark() {
+        Map<String, Object> response = new HashMap<>();
+        if (encodeBenchmarkService.runAsync() == null) {
+            response.put("message", "Benchmark is already running");
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(response);
+        }
+        response.put("message", "Benchmark started");
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(response);
+    }
+
     @GetMapping("/list")
     public ResponseEntity<Map<String, Object>> getAllStreamSessionsList(
             @RequestParam(required = false) Integer userId,
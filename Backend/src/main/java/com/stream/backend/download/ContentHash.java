@@ -0,0 +1,60 @@
+package com.stream.backend.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/** SHA-256 cho kho video (đọc qua direct ByteBuffer, không copy lên heap) */
+public final class ContentHash {
+
+    private static final int BUFFER_BYTES = 1024 * 1024;
+
+    private ContentHash() {
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public static String hex(MessageDigest digest) {
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /** SHA-256 của chuỗi (UTF-8), VD đặt tên file tạm theo URL */
+    public static String sha256(String text) {
+        MessageDigest digest = newDigest();
+        digest.update(text.getBytes(StandardCharsets.UTF_8));
+        return hex(digest);
+    }
+
+    public static String sha256(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return sha256(channel);
+        }
+    }
+
+    /** Hash toàn bộ channel theo đọc vị trí (không đổi position của channel) */
+    public static String sha256(FileChannel channel) throws IOException {
+        MessageDigest digest = newDigest();
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        long pos = 0;
+        int n;
+        while ((n = channel.read(buf, pos)) > 0) {
+            pos += n;
+            buf.flip();
+            digest.update(buf);
+            buf.clear();
+        }
+        return hex(digest);
+    }
+}
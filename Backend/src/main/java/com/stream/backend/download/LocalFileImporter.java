@@ -0,0 +1,111 @@
+package com.stream.backend.download;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đưa file video local / NAS vào thư mục video mà không copy qua heap:
+ *
+ * - Cùng filesystem → hard link (không tốn thêm dung lượng, không đọc dữ liệu).
+ * - Khác filesystem hoặc không hỗ trợ link (FAT, một số share SMB) → FileChannel.transferTo,
+ *   kernel copy thẳng giữa 2 file (sendfile / copy_file_range), không qua byte[].
+ *
+ * File đích được tạo dưới tên tạm rồi rename, FFmpeg không bao giờ thấy file dở.
+ */
+@Slf4j
+@Component
+public class LocalFileImporter {
+
+    public enum Method {
+        /** Nguồn đã là file đích */
+        NONE,
+        LINK,
+        TRANSFER
+    }
+
+    public record Result(Path path, Method method, long bytes, long elapsedMs) {
+    }
+
+    /** Mỗi lần transferTo tối đa bấy nhiêu byte (1 số OS giới hạn ~2GB / lần) */
+    private static final long TRANSFER_CHUNK = 64L * 1024 * 1024;
+
+    @Value("${stream.import.hardLink:true}")
+    private boolean hardLink = true;
+
+    public Result importFile(Path source, Path dest) throws IOException {
+        long begin = System.nanoTime();
+        if (!Files.isRegularFile(source)) {
+            throw new IOException("Source is not a file: " + source);
+        }
+        if (Files.exists(dest) && Files.isSameFile(source, dest)) {
+            return new Result(dest, Method.NONE, Files.size(dest), 0);
+        }
+
+        Path dir = dest.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(dest.getFileName() + ".import");
+        Files.deleteIfExists(tmp);
+
+        Method method = Method.TRANSFER;
+        if (hardLink && sameStore(source, dir)) {
+            try {
+                Files.createLink(tmp, source);
+                method = Method.LINK;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.info("[IMPORT] Hard link not possible for {} ({}), copying", source, e.getMessage());
+                Files.deleteIfExists(tmp);
+            }
+        }
+        if (method == Method.TRANSFER) {
+            transfer(source, tmp);
+        }
+        Files.move(tmp, dest, StandardCopyOption.REPLACE_EXISTING);
+
+        long bytes = Files.size(dest);
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        log.info("[IMPORT] {} → {} via {} ({} MB in {} ms)", source, dest, method, bytes / (1024 * 1024), ms);
+        return new Result(dest, method, bytes, ms);
+    }
+
+    private static void transfer(Path source, Path target) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long pos = 0;
+            while (pos < size) {
+                long n = in.transferTo(pos, Math.min(TRANSFER_CHUNK, size - pos), out);
+                if (n <= 0 && in.size() <= pos) {
+                    break; // file nguồn bị cắt ngắn giữa chừng
+                }
+                pos += n;
+            }
+            out.force(false);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private static boolean sameStore(Path a, Path dir) {
+        try {
+            FileStore sa = Files.getFileStore(a);
+            FileStore sb = Files.getFileStore(dir);
+            return Objects.equals(sa, sb);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
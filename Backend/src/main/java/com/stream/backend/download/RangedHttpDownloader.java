@@ -0,0 +1,487 @@
+package com.stream.backend.download;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tải file HTTP lớn bằng nhiều kết nối song song (Range), ghi thẳng vào file đã cấp
+ * sẵn dung lượng qua FileChannel.write(buf, position).
+ *
+ * - Probe bằng GET "Range: bytes=0-0": 206 + Content-Range → chia N đoạn; 200 → 1 luồng.
+ * - Tiến độ từng đoạn lưu ở file sidecar "{dest}.part.json"; lỗi mạng / backend khởi động lại
+ *   thì lần tải sau tiếp tục từ chỗ dở (nếu ETag / Last-Modified / dung lượng không đổi).
+ * - Mỗi đoạn tự retry có backoff; hết lượt thì ném IOException, sidecar vẫn giữ để resume.
+ */
+@Slf4j
+@Component
+public class RangedHttpDownloader {
+
+    private static final Pattern CONTENT_RANGE_TOTAL = Pattern.compile("bytes\\s+\\d+-\\d+/(\\d+)");
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36";
+
+    /** Tiến độ (gọi từ thread tải, nên xử lý nhanh) */
+    public interface Listener {
+        void onProgress(long bytesDone, long totalBytes, double bytesPerSecond);
+    }
+
+    /** Kết quả 1 lần tải (sha256 của file đích, dạng hex) */
+    public record Result(long bytes, long elapsedMs, double bytesPerSecond, int segments, long resumedBytes,
+            String sha256) {
+    }
+
+    /** Trạng thái lưu trong sidecar */
+    public record SegmentState(long start, long end, long done) {
+    }
+
+    public record State(String url, long total, String etag, String lastModified, List<SegmentState> segments) {
+    }
+
+    @Value("${stream.download.segments:4}")
+    private int segments = 4;
+
+    /** Cùng giá trị với DownloadManagerService: số lần tải chạy song song */
+    @Value("${stream.download.maxConcurrent:2}")
+    private int maxConcurrent = 2;
+
+    @Value("${stream.download.minSegmentBytes:8388608}")
+    private long minSegmentBytes = 8L * 1024 * 1024;
+
+    @Value("${stream.download.bufferBytes:262144}")
+    private int bufferBytes = 256 * 1024;
+
+    @Value("${stream.download.connectTimeoutMs:15000}")
+    private int connectTimeoutMs = 15_000;
+
+    @Value("${stream.download.readTimeoutMs:60000}")
+    private int readTimeoutMs = 60_000;
+
+    @Value("${stream.download.maxRetries:5}")
+    private int maxRetries = 5;
+
+    @Value("${stream.download.stateSaveIntervalMs:2000}")
+    private long stateSaveIntervalMs = 2000;
+
+    private final ObjectMapper objectMapper;
+    private ExecutorService pool;
+
+    public RangedHttpDownloader(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Pool đoạn có giới hạn: segments × maxConcurrent thread, đoạn dư xếp hàng chờ
+     * (gọi tải nhiều hơn maxConcurrent thì chỉ chậm lại, không bung thread không giới hạn).
+     */
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, segments) * Math.max(1, maxConcurrent);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread t = new Thread(r, "Download-Segment-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        pool = executor;
+    }
+
+    public Result download(String url, File dest) throws IOException {
+        return download(url, dest, null);
+    }
+
+    public Result download(String url, File dest, Listener listener) throws IOException {
+        return download(url, dest, listener, 0);
+    }
+
+    /**
+     * @param maxBytesPerSecond giới hạn băng thông cho cả lần tải (chia chung giữa các đoạn), 0 = không giới hạn
+     */
+    public Result download(String url, File dest, Listener listener, long maxBytesPerSecond) throws IOException {
+        Throttle throttle = new Throttle(maxBytesPerSecond);
+        File part = new File(dest.getPath() + ".part");
+        File sidecar = new File(dest.getPath() + ".part.json");
+        File dir = dest.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists()) {
+            dir.mkdirs();
+        }
+
+        Probe probe = probe(url);
+        long begin = System.nanoTime();
+
+        if (!probe.rangeSupported || probe.total <= 0) {
+            log.info("[DOWNLOAD] {} does not support Range, using single stream", url);
+            MessageDigest digest = ContentHash.newDigest();
+            long bytes = downloadSingle(url, part, listener, begin, digest, throttle);
+            Files.move(part.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            sidecar.delete();
+            return result(bytes, begin, 1, 0, ContentHash.hex(digest));
+        }
+
+        State state = loadState(sidecar, part, url, probe);
+        long resumed = state.segments().stream().mapToLong(SegmentState::done).sum();
+        if (resumed > 0) {
+            log.info("[DOWNLOAD] Resuming {} at {} / {} bytes", dest.getName(), resumed, state.total());
+        }
+
+        List<SegmentState> plan = state.segments();
+        List<AtomicLong> done = new ArrayList<>(plan.size());
+        for (SegmentState s : plan) {
+            done.add(new AtomicLong(s.done()));
+        }
+
+        String sha256;
+        try (FileChannel channel = FileChannel.open(part.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ)) {
+            if (channel.size() != state.total()) {
+                // Cấp sẵn dung lượng (sparse trên hầu hết filesystem)
+                try (var raf = new java.io.RandomAccessFile(part, "rw")) {
+                    raf.setLength(state.total());
+                }
+            }
+            saveState(sidecar, state, done, channel);
+
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < plan.size(); i++) {
+                SegmentState seg = plan.get(i);
+                AtomicLong d = done.get(i);
+                if (seg.start() + d.get() > seg.end())
+                    continue;
+                futures.add(pool.submit(() -> {
+                    fetchSegment(url, channel, seg, d, throttle);
+                    return null;
+                }));
+            }
+
+            waitAll(futures, channel, sidecar, state, done, listener, begin, resumed);
+            channel.force(false);
+            // Các đoạn về không theo thứ tự nên hash sau khi xong (dữ liệu vẫn nằm trong page cache)
+            sha256 = ContentHash.sha256(channel);
+        }
+
+        Files.move(part.toPath(), dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        sidecar.delete();
+
+        Result r = result(state.total(), begin, plan.size(), resumed, sha256);
+        log.info("[DOWNLOAD] {} done: {} MB in {} ms ({} MB/s, {} segment(s))", dest.getName(),
+                r.bytes() / (1024 * 1024), r.elapsedMs(),
+                String.format("%.1f", r.bytesPerSecond() / (1024 * 1024)), r.segments());
+        return r;
+    }
+
+    /** Dung lượng file trên server (-1 nếu server không báo), dùng để kiểm tra bản đã tải còn đúng */
+    public long remoteSize(String url) throws IOException {
+        return probe(url).total();
+    }
+
+    // ======================== PROBE / STATE ========================
+
+    private record Probe(boolean rangeSupported, long total, String etag, String lastModified) {
+    }
+
+    private Probe probe(String url) throws IOException {
+        HttpURLConnection conn = open(url);
+        conn.setRequestProperty("Range", "bytes=0-0");
+        try {
+            int code = conn.getResponseCode();
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            if (code == HttpURLConnection.HTTP_PARTIAL) {
+                Matcher m = CONTENT_RANGE_TOTAL.matcher(Objects.toString(conn.getHeaderField("Content-Range"), ""));
+                long total = m.find() ? Long.parseLong(m.group(1)) : -1;
+                return new Probe(total > 0, total, etag, lastModified);
+            }
+            if (code >= 400) {
+                throw new IOException("HTTP " + code + " probing " + url);
+            }
+            return new Probe(false, conn.getContentLengthLong(), etag, lastModified);
+        } finally {
+            drainAndClose(conn);
+        }
+    }
+
+    /** Đọc sidecar nếu còn khớp với file trên server, ngược lại lập kế hoạch chia đoạn mới */
+    private State loadState(File sidecar, File part, String url, Probe probe) {
+        if (sidecar.isFile() && part.isFile()) {
+            try {
+                State saved = objectMapper.readValue(sidecar, State.class);
+                // Tên file tạm lấy theo hash URL; vẫn so URL để 2 URL trùng tên không ghi chung 1 file
+                boolean same = Objects.equals(saved.url(), url)
+                        && saved.total() == probe.total()
+                        && Objects.equals(saved.etag(), probe.etag())
+                        && Objects.equals(saved.lastModified(), probe.lastModified());
+                if (same) {
+                    return saved;
+                }
+                log.info("[DOWNLOAD] {} belongs to another URL or the remote file changed, restarting", part.getName());
+            } catch (Exception e) {
+                log.warn("[DOWNLOAD] Cannot read {}: {}", sidecar.getName(), e.getMessage());
+            }
+        }
+        part.delete();
+
+        long total = probe.total();
+        int n = (int) Math.max(1, Math.min(Math.max(1, segments), total / Math.max(1, minSegmentBytes)));
+        long size = (total + n - 1) / n;
+        List<SegmentState> plan = new ArrayList<>(n);
+        for (long start = 0; start < total; start += size) {
+            plan.add(new SegmentState(start, Math.min(total, start + size) - 1, 0));
+        }
+        return new State(url, total, probe.etag(), probe.lastModified(), plan);
+    }
+
+    /**
+     * Ghi tiến độ ra sidecar. Chụp số byte trước rồi force channel: sidecar chỉ ghi nhận byte
+     * đã thực sự xuống đĩa, máy sập thì resume không giữ lại các lỗ toàn số 0.
+     */
+    private void saveState(File sidecar, State state, List<AtomicLong> done, FileChannel channel) {
+        List<SegmentState> segs = new ArrayList<>(state.segments().size());
+        for (int i = 0; i < state.segments().size(); i++) {
+            SegmentState s = state.segments().get(i);
+            segs.add(new SegmentState(s.start(), s.end(), done.get(i).get()));
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            // Không chắc dữ liệu đã xuống đĩa → giữ sidecar cũ
+            log.warn("[DOWNLOAD] Cannot sync {}, keeping previous state: {}", sidecar.getName(), e.getMessage());
+            return;
+        }
+        try {
+            objectMapper.writeValue(sidecar, new State(state.url(), state.total(), state.etag(),
+                    state.lastModified(), segs));
+        } catch (IOException e) {
+            log.warn("[DOWNLOAD] Cannot save {}: {}", sidecar.getName(), e.getMessage());
+        }
+    }
+
+    // ======================== TẢI ========================
+
+    /** Tải 1 đoạn, ghi theo vị trí; lỗi thì retry từ byte đã ghi được */
+    private void fetchSegment(String url, FileChannel channel, SegmentState seg, AtomicLong done, Throttle throttle)
+            throws IOException, InterruptedException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(bufferBytes);
+        int attempt = 0;
+        while (true) {
+            long from = seg.start() + done.get();
+            if (from > seg.end())
+                return;
+
+            HttpURLConnection conn = open(url);
+            conn.setRequestProperty("Range", "bytes=" + from + "-" + seg.end());
+            try {
+                int code = conn.getResponseCode();
+                if (code != HttpURLConnection.HTTP_PARTIAL) {
+                    throw new IOException("HTTP " + code + " for range " + from + "-" + seg.end());
+                }
+                try (InputStream in = conn.getInputStream();
+                        ReadableByteChannel src = Channels.newChannel(in)) {
+                    long pos = from;
+                    while (pos <= seg.end()) {
+                        buf.clear();
+                        long remaining = seg.end() - pos + 1;
+                        if (remaining < buf.capacity()) {
+                            buf.limit((int) remaining);
+                        }
+                        int n = src.read(buf);
+                        if (n < 0) {
+                            throw new IOException("Connection closed at " + pos + " (segment end " + seg.end() + ")");
+                        }
+                        throttle.acquire(n);
+                        buf.flip();
+                        while (buf.hasRemaining()) {
+                            pos += channel.write(buf, pos);
+                        }
+                        done.set(pos - seg.start());
+                    }
+                }
+                return;
+            } catch (IOException e) {
+                if (++attempt > maxRetries) {
+                    throw e;
+                }
+                long delay = Math.min(30_000L, 1000L << Math.min(attempt - 1, 5));
+                log.warn("[DOWNLOAD] Segment {}-{} failed at {} ({}), retry {}/{} in {} ms", seg.start(), seg.end(),
+                        seg.start() + done.get(), e.getMessage(), attempt, maxRetries, delay);
+                Thread.sleep(delay);
+            } finally {
+                conn.disconnect();
+            }
+        }
+    }
+
+    private long downloadSingle(String url, File part, Listener listener, long begin, MessageDigest digest,
+            Throttle throttle) throws IOException {
+        HttpURLConnection conn = open(url);
+        try {
+            int code = conn.getResponseCode();
+            if (code >= 400) {
+                throw new IOException("HTTP " + code + " downloading " + url);
+            }
+            long total = conn.getContentLengthLong();
+            ByteBuffer buf = ByteBuffer.allocateDirect(bufferBytes);
+            long written = 0;
+            long lastReport = 0;
+            try (ReadableByteChannel src = Channels.newChannel(conn.getInputStream());
+                    FileChannel out = FileChannel.open(part.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                int n;
+                while ((n = src.read(buf)) >= 0) {
+                    try {
+                        throttle.acquire(n);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Download interrupted");
+                    }
+                    buf.flip();
+                    buf.mark();
+                    digest.update(buf);
+                    buf.reset();
+                    while (buf.hasRemaining()) {
+                        written += out.write(buf);
+                    }
+                    buf.clear();
+
+                    long now = System.nanoTime();
+                    if (listener != null && now - lastReport > TimeUnit.SECONDS.toNanos(1)) {
+                        listener.onProgress(written, total, rate(written, begin));
+                        lastReport = now;
+                    }
+                }
+            }
+            if (listener != null) {
+                listener.onProgress(written, total, rate(written, begin));
+            }
+            return written;
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    /** Đợi các đoạn xong; trong lúc chờ lưu sidecar + báo tiến độ định kỳ */
+    private void waitAll(List<Future<?>> futures, FileChannel channel, File sidecar, State state, List<AtomicLong> done,
+            Listener listener, long begin, long resumed) throws IOException {
+        try {
+            for (Future<?> f : futures) {
+                while (true) {
+                    try {
+                        f.get(stateSaveIntervalMs, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (java.util.concurrent.TimeoutException e) {
+                        saveState(sidecar, state, done, channel);
+                        if (listener != null) {
+                            long d = done.stream().mapToLong(AtomicLong::get).sum();
+                            listener.onProgress(d, state.total(), rate(d - resumed, begin));
+                        }
+                    }
+                }
+            }
+            if (listener != null) {
+                listener.onProgress(state.total(), state.total(), rate(state.total() - resumed, begin));
+            }
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            saveState(sidecar, state, done, channel);
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException io ? io : new IOException(cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            futures.forEach(f -> f.cancel(true));
+            saveState(sidecar, state, done, channel);
+            Thread.currentThread().interrupt();
+            throw new IOException("Download interrupted", e);
+        }
+    }
+
+    /** Giới hạn tốc độ kiểu "không vượt trước lịch": đọc nhanh hơn bytesPerSecond thì ngủ bù */
+    private static final class Throttle {
+        private final long bytesPerSecond;
+        private final long begin = System.nanoTime();
+        private long bytes;
+
+        Throttle(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        void acquire(int n) throws InterruptedException {
+            if (bytesPerSecond <= 0 || n <= 0)
+                return;
+            long waitNanos;
+            synchronized (this) {
+                bytes += n;
+                long due = begin + (long) (bytes * 1e9 / bytesPerSecond);
+                waitNanos = due - System.nanoTime();
+            }
+            if (waitNanos > 0) {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            }
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+        conn.setRequestProperty("User-Agent", USER_AGENT);
+        conn.setConnectTimeout(connectTimeoutMs);
+        conn.setReadTimeout(readTimeoutMs);
+        conn.setInstanceFollowRedirects(true);
+        return conn;
+    }
+
+    private static void drainAndClose(HttpURLConnection conn) {
+        try (InputStream in = conn.getErrorStream() != null ? conn.getErrorStream() : conn.getInputStream()) {
+            in.readNBytes(64 * 1024);
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static double rate(long bytes, long beginNanos) {
+        double sec = (System.nanoTime() - beginNanos) / 1e9;
+        return sec > 0 ? bytes / sec : 0;
+    }
+
+    private static Result result(long bytes, long beginNanos, int segments, long resumed, String sha256) {
+        long ms = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beginNanos);
+        return new Result(bytes, ms, rate(bytes - resumed, beginNanos), segments, resumed, sha256);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+}
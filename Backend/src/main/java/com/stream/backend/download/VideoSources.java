@@ -0,0 +1,87 @@
+package com.stream.backend.download;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Xử lý danh sách nguồn video (Stream.videoList, mỗi dòng 1 nguồn) dùng chung cho
+ * lúc start FFmpeg, swap video và prefetch, để cùng 1 link luôn ra cùng 1 chuỗi.
+ */
+public final class VideoSources {
+
+    private static final Pattern DRIVE_VIEW = Pattern.compile("https?://drive\\.google\\.com/file/d/([^/]+)/view.*");
+
+    private VideoSources() {
+    }
+
+    /** Chuẩn hóa link Google Drive thành direct download URL */
+    public static String normalize(String raw) {
+        if (raw == null)
+            return null;
+        raw = raw.trim();
+
+        Matcher m = DRIVE_VIEW.matcher(raw);
+        if (m.matches()) {
+            return "https://drive.google.com/uc?export=download&id=" + m.group(1);
+        }
+        return raw;
+    }
+
+    /** Các nguồn đã chuẩn hóa, bỏ dòng trống */
+    public static List<String> split(String videoList) {
+        List<String> out = new ArrayList<>();
+        if (videoList == null || videoList.isBlank())
+            return out;
+        for (String line : videoList.split("\\r?\\n")) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                out.add(normalize(line));
+            }
+        }
+        return out;
+    }
+
+    /** videoList đã chuẩn hóa, nối bằng "\n"; null nếu trống */
+    public static String normalizeList(String videoList) {
+        List<String> sources = split(videoList);
+        return sources.isEmpty() ? null : String.join("\n", sources);
+    }
+
+    public static boolean isRemote(String source) {
+        return source != null && (source.startsWith("http://") || source.startsWith("https://"));
+    }
+
+    /** Dấu vân tay của videoList (đã chuẩn hóa), để biết bản prefetch còn ứng với videoList hiện tại không */
+    public static String fingerprint(String normalizedList) {
+        MessageDigest digest = ContentHash.newDigest();
+        digest.update((normalizedList == null ? "" : normalizedList).getBytes(StandardCharsets.UTF_8));
+        return ContentHash.hex(digest);
+    }
+
+    /**
+     * Nguồn đưa cho FFmpeg: bản local đã prefetch nếu còn khớp videoList và file còn đủ,
+     * ngược lại dùng thẳng videoList (URL).
+     */
+    public static String resolve(String videoList, String effectiveList, String effectiveFingerprint) {
+        String normalized = normalizeList(videoList);
+        if (normalized == null || effectiveList == null || effectiveList.isBlank())
+            return normalized;
+        if (!fingerprint(normalized).equals(effectiveFingerprint))
+            return normalized;
+        List<String> sources = split(normalized);
+        List<String> effective = split(effectiveList);
+        if (sources.size() != effective.size())
+            return normalized;
+        for (int i = 0; i < sources.size(); i++) {
+            // File prefetch (thay cho URL) bị xóa → dùng lại URL
+            if (isRemote(sources.get(i)) && !isRemote(effective.get(i)) && !new File(effective.get(i)).isFile())
+                return normalized;
+        }
+        return effectiveList;
+    }
+}
@@ -1,13 +1,120 @@
 package com.stream.backend.entity;
 
-public class FfmpegStat {
-    public Long frame;
-    public Double fps;
-    public Double q;
-    public String size;
-    public String bitrate;
-    public String time;
-    public String speed;
-    public Long outTimeMs;   
-    public Long updatedAt;
+import java.util.Locale;
+
+/**
+ * Snapshot bất biến của progress FFmpeg (mỗi block -progress tạo tối đa 1 snapshot).
+ * Field lưu dạng primitive; các chuỗi hiển thị cho FE (bitrate, speed, size, time)
+ * chỉ được format khi serialize JSON, không tốn gì trên thread đọc progress.
+ * Giá trị -1 nghĩa là FFmpeg chưa báo (N/A).
+ */
+public final class FfmpegStat {
+
+    private final long frame;
+    private final double fps;
+    private final double q;
+    private final double bitrateKbps;
+    private final double speedRatio;
+    private final long totalSize;
+    private final long outTimeUs;
+    private final long dupFrames;
+    private final long dropFrames;
+    private final long updatedAt;
+
+    public FfmpegStat(long frame, double fps, double q, double bitrateKbps, double speedRatio,
+            long totalSize, long outTimeUs, long dupFrames, long dropFrames, long updatedAt) {
+        this.frame = frame;
+        this.fps = fps;
+        this.q = q;
+        this.bitrateKbps = bitrateKbps;
+        this.speedRatio = speedRatio;
+        this.totalSize = totalSize;
+        this.outTimeUs = outTimeUs;
+        this.dupFrames = dupFrames;
+        this.dropFrames = dropFrames;
+        this.updatedAt = updatedAt;
+    }
+
+    /** Snapshot rỗng lúc process vừa start, để FE không nhận null */
+    public static FfmpegStat empty(long updatedAt) {
+        return new FfmpegStat(-1, -1, -1, -1, -1, -1, -1, -1, -1, updatedAt);
+    }
+
+    public long getFrame() {
+        return frame;
+    }
+
+    public double getFps() {
+        return fps;
+    }
+
+    public double getQ() {
+        return q;
+    }
+
+    public double getBitrateKbps() {
+        return bitrateKbps;
+    }
+
+    public double getSpeedRatio() {
+        return speedRatio;
+    }
+
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    public long getOutTimeUs() {
+        return outTimeUs;
+    }
+
+    public long getOutTimeMs() {
+        return outTimeUs < 0 ? -1 : outTimeUs / 1000L;
+    }
+
+    public long getDupFrames() {
+        return dupFrames;
+    }
+
+    public long getDropFrames() {
+        return dropFrames;
+    }
+
+    public long getUpdatedAt() {
+        return updatedAt;
+    }
+
+    /** VD: "2875.3kbits/s" (giữ format cũ cho FE) */
+    public String getBitrate() {
+        return bitrateKbps < 0 ? null : String.format(Locale.US, "%.1fkbits/s", bitrateKbps);
+    }
+
+    /** VD: "1.01x" */
+    public String getSpeed() {
+        return speedRatio < 0 ? null : String.format(Locale.US, "%.3gx", speedRatio);
+    }
+
+    /** VD: "00:01:05.250000" */
+    public String getTime() {
+        if (outTimeUs < 0)
+            return null;
+        long totalSec = outTimeUs / 1_000_000L;
+        return String.format(Locale.US, "%02d:%02d:%02d.%06d",
+                totalSec / 3600, (totalSec / 60) % 60, totalSec % 60, outTimeUs % 1_000_000L);
+    }
+
+    /** VD: "12.5MiB" */
+    public String getSize() {
+        if (totalSize < 0)
+            return null;
+        if (totalSize < 1024)
+            return totalSize + "B";
+        double kib = totalSize / 1024.0;
+        if (kib < 1024)
+            return String.format(Locale.US, "%.0fKiB", kib);
+        double mib = kib / 1024.0;
+        if (mib < 1024)
+            return String.format(Locale.US, "%.1fMiB", mib);
+        return String.format(Locale.US, "%.2fGiB", mib / 1024.0);
+    }
 }
@@ -2,13 +2,17 @@ package com.stream.backend.entity;
 
 import java.time.LocalDateTime;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import jakarta.persistence.*;
 import lombok.*;
 
 @Entity
-@Table(name = "tblstreamsession")
+@Table(name = "tblstreamsession", indexes = {
+        @Index(name = "idx_ss_status_planned_start", columnList = "status, planned_start_at"),
+        @Index(name = "idx_ss_status_planned_end", columnList = "status, planned_end_at")
+})
 @Getter
 @Setter
 @NoArgsConstructor
@@ -38,8 +42,75 @@ public class StreamSession {
     @Column(name = "last_error_at")
     private LocalDateTime lastErrorAt;
 
+    /** Bản sao stream.timeStart, để query session tới giờ start dùng được index */
+    @Column(name = "planned_start_at")
+    @JsonIgnore
+    private LocalDateTime plannedStartAt;
+
+    /** startedAt (hoặc timeStart) + duration; null nếu chạy vô hạn (duration = -1) */
+    @Column(name = "planned_end_at")
+    @JsonIgnore
+    private LocalDateTime plannedEndAt;
+
+    /**
+     * Mốc (epoch ms, cách nhau dấu phẩy) các lần restart trong cửa sổ của RestartPolicyService.
+     * Chỉ ghi qua StreamSessionRepository.updateRestartState để save() bản session cũ không ghi đè.
+     */
+    @Column(name = "restart_history", length = 1000, insertable = false, updatable = false)
+    @JsonIgnore
+    private String restartHistory;
+
+    /** Chưa tới thời điểm này thì chưa được restart (backoff) */
+    @Column(name = "next_restart_at", insertable = false, updatable = false)
+    @JsonIgnore
+    private LocalDateTime nextRestartAt;
+
+    /** Vị trí đang phát trên playlist (ms), watchdog lưu định kỳ để restart không phát lại từ đầu */
+    @Column(name = "playback_position_ms", insertable = false, updatable = false)
+    @JsonIgnore
+    private Long playbackPositionMs;
+
+    /**
+     * videoList sau khi prefetch: URL được thay bằng file local trong kho video (cùng thứ tự).
+     * Chỉ dùng khi effectiveSourceHash khớp videoList hiện tại; ghi qua updateEffectiveVideoList.
+     */
+    @Column(name = "effective_video_list", columnDefinition = "TEXT", insertable = false, updatable = false)
+    @JsonIgnore
+    private String effectiveVideoList;
+
+    /** VideoSources.fingerprint của videoList lúc prefetch */
+    @Column(name = "effective_source_hash", length = 64, insertable = false, updatable = false)
+    @JsonIgnore
+    private String effectiveSourceHash;
+
+    /**
+     * Optimistic lock: scheduler, watchdog và user có thể cùng sửa 1 session.
+     * DEFAULT 0 để các dòng cũ có version khi ddl-auto thêm cột.
+     */
+    @Version
+    @Column(nullable = false, columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    @JsonIgnore
+    private Long version;
+
     @OneToOne
     @JoinColumn(name = "stream_id", nullable = false, unique = true)
     @JsonIgnoreProperties({ "streamSession" })
     private Stream stream;
+
+    /** Tính lại planned_start_at / planned_end_at từ stream, tự chạy mỗi lần lưu */
+    @PrePersist
+    @PreUpdate
+    public void refreshPlannedTimes() {
+        plannedStartAt = stream != null ? stream.getTimeStart() : null;
+
+        Integer duration = stream != null ? stream.getDuration() : null;
+        plannedEndAt = plannedEndOf(startedAt != null ? startedAt : plannedStartAt, duration);
+    }
+
+    /** Giờ kết thúc dự kiến: base + duration phút (null nếu chạy vô hạn / chưa có giờ) */
+    public static LocalDateTime plannedEndOf(LocalDateTime base, Integer duration) {
+        return (base == null || duration == null || duration == -1)
+                ? null
+                : base.plusMinutes(duration);
+    }
 }
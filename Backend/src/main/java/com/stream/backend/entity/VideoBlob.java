@@ -0,0 +1,51 @@
+package com.stream.backend.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/**
+ * 1 file video trong kho lưu theo nội dung (sha256). Nhiều stream dùng chung 1 blob
+ * qua VideoRef; refCount = số VideoRef, chỉ ghi qua VideoBlobRepository.recountRefs.
+ */
+@Entity
+@Table(name = "tblvideoblob", indexes = {
+        @Index(name = "idx_vb_refcount_changed", columnList = "ref_count, ref_changed_at")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VideoBlob {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(nullable = false, unique = true, length = 64)
+    private String sha256;
+
+    @Column(name = "size_bytes", nullable = false)
+    private Long sizeBytes;
+
+    /** Đường dẫn tuyệt đối, đúng chuỗi được ghi vào Stream.videoList */
+    @Column(nullable = false, unique = true, length = 512)
+    private String path;
+
+    /** URL đã tải ra blob này (null nếu import từ file local) */
+    @Column(name = "source_url", length = 1000)
+    private String sourceUrl;
+
+    @Column(name = "ref_count", nullable = false, insertable = false, updatable = false,
+            columnDefinition = "INT NOT NULL DEFAULT 0")
+    private Integer refCount;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    /** Lần cuối refCount đổi; GC chỉ xóa blob 0 ref đã quá thời gian chờ tính từ mốc này */
+    @Column(name = "ref_changed_at")
+    private LocalDateTime refChangedAt;
+}
@@ -0,0 +1,34 @@
+package com.stream.backend.entity;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.*;
+import lombok.*;
+
+/** Stream đang dùng blob nào (1 dòng cho mỗi cặp stream - blob) */
+@Entity
+@Table(name = "tblvideoref", uniqueConstraints = {
+        @UniqueConstraint(name = "uk_vr_stream_blob", columnNames = { "stream_id", "blob_id" })
+}, indexes = {
+        @Index(name = "idx_vr_blob", columnList = "blob_id")
+})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class VideoRef {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Integer id;
+
+    @Column(name = "stream_id", nullable = false)
+    private Integer streamId;
+
+    @Column(name = "blob_id", nullable = false)
+    private Integer blobId;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+}
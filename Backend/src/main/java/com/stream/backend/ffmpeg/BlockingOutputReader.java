@@ -0,0 +1,66 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Mỗi process 1 thread đọc blocking (platform thread stack nhỏ, hoặc virtual thread
+ * nếu JVM hỗ trợ). Thread chỉ ngủ trong read() nên không tốn CPU lúc idle.
+ */
+public class BlockingOutputReader implements FfmpegOutputReader {
+
+    private final String mode;
+    private final Executor executor;
+    private final AtomicInteger active = new AtomicInteger();
+    private FfmpegReaderMetrics metrics;
+
+    public BlockingOutputReader(String mode, Executor executor) {
+        this.mode = mode;
+        this.executor = executor;
+    }
+
+    public void setMetrics(FfmpegReaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void start(String streamKey, Process process, FfmpegProgressParser parser) {
+        executor.execute(() -> read(streamKey, process, parser));
+    }
+
+    private void read(String streamKey, Process process, FfmpegProgressParser parser) {
+        active.incrementAndGet();
+        byte[] buf = new byte[8192];
+        try (InputStream is = process.getInputStream()) {
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                parser.feed(buf, 0, n);
+                if (metrics != null) {
+                    metrics.recordBacklog(is.available());
+                }
+            }
+        } catch (IOException e) {
+            // Chỉ log nếu process vẫn còn sống (có thể là lỗi thực sự)
+            if (process.isAlive()) {
+                System.err.println("[FFMPEG] IO error reading stream for " + streamKey + ": " + e.getMessage());
+            }
+        } catch (Exception e) {
+            System.err.println("[FFMPEG] Unexpected error reading stream for " + streamKey + ": " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            active.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String mode() {
+        return mode;
+    }
+
+    @Override
+    public int activeReaders() {
+        return active.get();
+    }
+}
@@ -0,0 +1,143 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Bảng PID của các process FFmpeg chạy detached, lưu ra file JSON trong runDir
+ * (cùng chỗ với file output của từng process) để lần khởi động sau nhận lại.
+ *
+ * Bảng gắn với máy đang chạy FFmpeg nên lưu file local, không lưu DB.
+ */
+@Slf4j
+@Component
+public class DetachedProcessRegistry {
+
+    /** 1 process đã launch */
+    public record Entry(
+            String streamKey,
+            long pid,
+            /** ProcessHandle.Info.startInstant (epoch ms), -1 nếu OS không cho biết */
+            long processStartMs,
+            String mode,
+            String outputFile,
+            long startOffsetMs,
+            List<String> command,
+            long launchedAt) {
+    }
+
+    /** Lệch startInstant tối đa vẫn coi là cùng process (chống PID bị tái sử dụng) */
+    private static final long START_TOLERANCE_MS = 2000;
+
+    @Value("${stream.ffmpeg.detached.runDir:ffmpeg-run}")
+    private String runDir;
+
+    private final ObjectMapper objectMapper;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public DetachedProcessRegistry(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @PostConstruct
+    void load() {
+        File f = stateFile();
+        if (!f.isFile())
+            return;
+        try {
+            List<Entry> saved = objectMapper.readValue(f, new TypeReference<List<Entry>>() {
+            });
+            for (Entry e : saved) {
+                entries.put(e.streamKey(), e);
+            }
+            log.info("[DETACHED] Loaded {} process record(s) from {}", entries.size(), f.getAbsolutePath());
+        } catch (Exception e) {
+            log.warn("[DETACHED] Cannot read {}: {}", f.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    /** Thư mục chứa file output của process + file bảng PID */
+    public File runDir() {
+        File dir = new File(runDir);
+        if (!dir.exists()) {
+            dir.mkdirs();
+        }
+        return dir;
+    }
+
+    /** File output (stdout + stderr + progress) cho streamKey */
+    public File outputFile(String streamKey) {
+        return new File(runDir(), "ffmpeg_" + streamKey + ".out");
+    }
+
+    public void register(String streamKey, ProcessHandle handle, String mode, File outputFile,
+            long startOffsetMs, List<String> command) {
+        long startMs = handle.info().startInstant().map(Instant::toEpochMilli).orElse(-1L);
+        entries.put(streamKey, new Entry(streamKey, handle.pid(), startMs, mode,
+                outputFile.getAbsolutePath(), startOffsetMs, command, System.currentTimeMillis()));
+        save();
+    }
+
+    public void remove(String streamKey) {
+        if (streamKey != null && entries.remove(streamKey) != null) {
+            save();
+        }
+    }
+
+    public List<Entry> list() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public Entry get(String streamKey) {
+        return streamKey == null ? null : entries.get(streamKey);
+    }
+
+    /**
+     * Process của entry nếu còn sống và đúng là process đã ghi (so startInstant để
+     * tránh nhận nhầm process khác được cấp lại cùng PID).
+     */
+    public Optional<ProcessHandle> resolve(Entry entry) {
+        return ProcessHandle.of(entry.pid())
+                .filter(ProcessHandle::isAlive)
+                .filter(h -> {
+                    if (entry.processStartMs() < 0)
+                        return true;
+                    return h.info().startInstant()
+                            .map(i -> Math.abs(i.toEpochMilli() - entry.processStartMs()) <= START_TOLERANCE_MS)
+                            .orElse(true);
+                });
+    }
+
+    private synchronized void save() {
+        File f = stateFile();
+        File tmp = new File(f.getPath() + ".tmp");
+        try {
+            objectMapper.writeValue(tmp, list());
+            if (!tmp.renameTo(f)) {
+                // Windows không cho rename đè
+                f.delete();
+                tmp.renameTo(f);
+            }
+        } catch (Exception e) {
+            log.warn("[DETACHED] Cannot save {}: {}", f.getAbsolutePath(), e.getMessage());
+        }
+    }
+
+    private File stateFile() {
+        return new File(runDir(), "processes.json");
+    }
+}
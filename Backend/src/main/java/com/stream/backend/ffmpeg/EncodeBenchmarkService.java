@@ -0,0 +1,261 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.stream.backend.entity.FfmpegStat;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tự đo khả năng encode của máy: chạy đúng profile {@link EncodeProfile} với nguồn
+ * giả lập (lavfi testsrc2 + sine, không cần mạng/file), không dùng -re để đo tốc độ
+ * tối đa. speed = thời lượng media / thời gian thực.
+ *
+ * Benchmark chạy với đúng phần CPU 1 encode được cấp ({@link FfmpegCpuBudget}: -threads,
+ * taskset/nice), nên speed là tốc độ của 1 encode. Mỗi stream encode cần 1.0x realtime
+ * nên số encode đồng thời ≈ speed × (số core dành cho FFmpeg / threads) × headroom.
+ * Copy (remux) gần như không tốn CPU nên chỉ ước lượng theo số core × copyPerCore.
+ *
+ * Kết quả lưu ra file JSON, nạp lại lúc khởi động và áp cho EncodeCapacityManager.
+ */
+@Slf4j
+@Service
+public class EncodeBenchmarkService {
+
+    /** Kết quả 1 lần benchmark */
+    public record Result(
+            String profile,
+            String source,
+            int cores,
+            double mediaSeconds,
+            long wallMs,
+            double speed,
+            long frames,
+            int encodeSlots,
+            int copySlots,
+            long measuredAt) {
+    }
+
+    @Value("${stream.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    @Value("${stream.ffmpeg.benchmark.file:encode-benchmark.json}")
+    private String resultFile;
+
+    @Value("${stream.ffmpeg.benchmark.onStartup:false}")
+    private boolean runOnStartup;
+
+    @Value("${stream.ffmpeg.benchmark.durationSeconds:20}")
+    private int durationSeconds;
+
+    @Value("${stream.ffmpeg.benchmark.source:testsrc2=size=1920x1080:rate=30}")
+    private String source;
+
+    /** Chừa lại phần CPU cho hệ thống / dao động (0..1) */
+    @Value("${stream.ffmpeg.benchmark.headroom:0.75}")
+    private double headroom;
+
+    @Value("${stream.ffmpeg.benchmark.copyPerCore:8}")
+    private int copyPerCore;
+
+    /** Key giả cho phân bổ CPU của lần benchmark */
+    private static final String BENCHMARK_KEY = "__benchmark__";
+
+    private final EncodeCapacityManager capacityManager;
+    private final FfmpegCpuBudget cpuBudget;
+    private final ObjectMapper objectMapper;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile Result lastResult;
+
+    public EncodeBenchmarkService(EncodeCapacityManager capacityManager, FfmpegCpuBudget cpuBudget,
+            ObjectMapper objectMapper) {
+        this.capacityManager = capacityManager;
+        this.cpuBudget = cpuBudget;
+        this.objectMapper = objectMapper;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onStartup() {
+        Result saved = load();
+        if (saved != null) {
+            lastResult = saved;
+            capacityManager.applyMeasuredSlots(saved.encodeSlots(), "benchmark");
+        }
+        if (runOnStartup) {
+            runAsync();
+        }
+    }
+
+    public Result getLastResult() {
+        return lastResult;
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * Chạy benchmark trên thread riêng.
+     *
+     * @return future của lần chạy, hoặc null nếu đang có lần khác chạy
+     */
+    public CompletableFuture<Result> runAsync() {
+        if (!running.compareAndSet(false, true)) {
+            return null;
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Result result = measure();
+                lastResult = result;
+                save(result);
+                capacityManager.applyMeasuredSlots(result.encodeSlots(), "benchmark");
+                return result;
+            } catch (Exception e) {
+                log.error("[BENCHMARK] Encode benchmark failed", e);
+                throw new RuntimeException("ENCODE_BENCHMARK_FAILED: " + e.getMessage(), e);
+            } finally {
+                running.set(false);
+            }
+        }, r -> {
+            Thread t = new Thread(r, "FFmpeg-Benchmark");
+            t.setDaemon(true);
+            t.start();
+        });
+    }
+
+    private Result measure() throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(ffmpegPath);
+        cmd.add("-hide_banner");
+        cmd.add("-f");
+        cmd.add("lavfi");
+        cmd.add("-i");
+        cmd.add(source);
+        cmd.add("-f");
+        cmd.add("lavfi");
+        cmd.add("-i");
+        cmd.add("sine=frequency=1000:sample_rate=44100");
+        cmd.add("-t");
+        cmd.add(String.valueOf(durationSeconds));
+
+        cmd.addAll(EncodeProfile.codecArgs());
+
+        cmd.add("-progress");
+        cmd.add("pipe:1");
+        cmd.add("-nostats");
+
+        // Cùng giới hạn CPU như 1 encode thật
+        FfmpegCpuBudget.Allocation cpu = cpuBudget.allocate(BENCHMARK_KEY, EncodeCapacityManager.MODE_ENCODE);
+        cmd.add("-threads");
+        cmd.add(String.valueOf(cpu.threads()));
+
+        cmd.add("-f");
+        cmd.add("null");
+        cmd.add("-");
+
+        log.info("[BENCHMARK] Running encode benchmark ({}s of {}, threads={})",
+                durationSeconds, source, cpu.threads());
+
+        ProcessBuilder pb = new ProcessBuilder(cpu.wrap(cmd));
+        pb.redirectErrorStream(true);
+
+        FfmpegProgressParser parser = new FfmpegProgressParser(new FfmpegProgressParser.Listener() {
+            @Override
+            public void onProgress(FfmpegStat stat) {
+            }
+        });
+
+        long wallMs;
+        Path out = null;
+        try {
+            // Ghi output ra file thay vì đọc pipe tới EOF: ffmpeg treo thì đọc pipe chặn mãi,
+            // timeout bên dưới không bao giờ tới lượt
+            out = Files.createTempFile("ffmpeg-benchmark", ".out");
+            pb.redirectOutput(out.toFile());
+
+            long begin = System.nanoTime();
+            Process process = pb.start();
+            if (!process.waitFor(durationSeconds * 10L + 30, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                throw new IOException("benchmark timed out");
+            }
+            wallMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+
+            if (process.exitValue() != 0) {
+                throw new IOException("ffmpeg exit code " + process.exitValue());
+            }
+
+            byte[] output = Files.readAllBytes(out);
+            parser.feed(output, 0, output.length);
+        } finally {
+            cpuBudget.release(BENCHMARK_KEY);
+            if (out != null) {
+                try {
+                    Files.deleteIfExists(out);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        FfmpegStat last = parser.lastSnapshot();
+        double mediaSeconds = last != null && last.getOutTimeUs() > 0
+                ? last.getOutTimeUs() / 1_000_000.0
+                : durationSeconds;
+        double speed = wallMs > 0 ? mediaSeconds / (wallMs / 1000.0) : 0;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int parallel = Math.max(1, cpuBudget.usableCores() / Math.max(1, cpu.threads()));
+        int encodeSlots = Math.max(1, (int) Math.floor(speed * parallel * headroom));
+        int copySlots = Math.max(1, cores * copyPerCore);
+
+        Result result = new Result(EncodeProfile.NAME, source, cores, mediaSeconds, wallMs,
+                Math.round(speed * 100) / 100.0, last != null ? last.getFrame() : -1,
+                encodeSlots, copySlots, System.currentTimeMillis());
+
+        log.info("[BENCHMARK] speed={}x → encodeSlots={}, copySlots={} (wall {} ms)",
+                result.speed(), encodeSlots, copySlots, wallMs);
+        return result;
+    }
+
+    private Result load() {
+        File f = new File(resultFile);
+        if (!f.isFile())
+            return null;
+        try {
+            Result r = objectMapper.readValue(f, Result.class);
+            log.info("[BENCHMARK] Loaded previous result: speed={}x, encodeSlots={}", r.speed(), r.encodeSlots());
+            return r;
+        } catch (Exception e) {
+            log.warn("[BENCHMARK] Cannot read {}: {}", f.getAbsolutePath(), e.getMessage());
+            return null;
+        }
+    }
+
+    private void save(Result result) {
+        File f = new File(resultFile);
+        try {
+            File dir = f.getAbsoluteFile().getParentFile();
+            if (dir != null && !dir.exists()) {
+                dir.mkdirs();
+            }
+            objectMapper.writerWithDefaultPrettyPrinter().writeValue(f, result);
+        } catch (Exception e) {
+            log.warn("[BENCHMARK] Cannot save {}: {}", f.getAbsolutePath(), e.getMessage());
+        }
+    }
+}
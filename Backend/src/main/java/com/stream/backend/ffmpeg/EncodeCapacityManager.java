@@ -0,0 +1,187 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Theo dõi process nào đang copy, process nào đang encode (libx264) và giới hạn
+ * số encode chạy đồng thời theo "budget" của máy.
+ *
+ * Hết slot thì lần encode mới chờ tối đa queueWaitMs, sau đó báo
+ * ENCODE_CAPACITY_EXHAUSTED — 1 stream lỗi rõ ràng còn hơn mọi stream trên máy
+ * cùng rớt frame vì CPU quá tải.
+ *
+ * Budget: stream.ffmpeg.encode.maxSlots > 0 thì dùng giá trị đó; = 0 thì tự tính
+ * (mặc định số core / 2, hoặc theo kết quả benchmark nếu có).
+ */
+@Slf4j
+@Component
+public class EncodeCapacityManager {
+
+    public static final String MODE_COPY = "copy";
+    public static final String MODE_ENCODE = "encode";
+
+    @Value("${stream.ffmpeg.encode.maxSlots:0}")
+    private int configuredSlots;
+
+    @Value("${stream.ffmpeg.encode.queueWaitMs:30000}")
+    private long queueWaitMs;
+
+    private final MeterRegistry meterRegistry;
+
+    /** streamKey → copy | encode */
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+
+    /** Các field dưới đây được bảo vệ bởi monitor của this */
+    private int encodeSlots;
+    private String slotSource;
+    private int encodeInUse;
+    private int encodeQueued;
+
+    public EncodeCapacityManager(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        if (configuredSlots > 0) {
+            encodeSlots = configuredSlots;
+            slotSource = "config";
+        } else {
+            encodeSlots = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+            slotSource = "auto";
+        }
+        log.info("[CAPACITY] Encode budget = {} slot(s) ({})", encodeSlots, slotSource);
+
+        Gauge.builder("ffmpeg.encode.slots", this, m -> m.getEncodeSlots()).register(meterRegistry);
+        Gauge.builder("ffmpeg.encode.inuse", this, m -> m.getEncodeInUse()).register(meterRegistry);
+        Gauge.builder("ffmpeg.encode.queued", this, m -> m.getEncodeQueued()).register(meterRegistry);
+        Gauge.builder("ffmpeg.copy.sessions", this, m -> m.getCopySessions()).register(meterRegistry);
+    }
+
+    /**
+     * Cập nhật budget từ kết quả đo (bỏ qua nếu đã cấu hình cứng maxSlots).
+     */
+    public synchronized void applyMeasuredSlots(int slots, String source) {
+        if (configuredSlots > 0 || slots <= 0)
+            return;
+        encodeSlots = slots;
+        slotSource = source;
+        notifyAll();
+        log.info("[CAPACITY] Encode budget updated to {} slot(s) ({})", slots, source);
+    }
+
+    /** Process copy đã start → chỉ ghi nhận, không tốn slot */
+    public void registerCopy(String streamKey) {
+        release(streamKey);
+        sessions.put(streamKey, MODE_COPY);
+    }
+
+    /**
+     * Giữ 1 slot encode cho streamKey (chờ tối đa queueWaitMs).
+     *
+     * @throws RuntimeException ENCODE_CAPACITY_EXHAUSTED nếu hết slot
+     */
+    public void acquireEncode(String streamKey) {
+        release(streamKey);
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueWaitMs);
+        synchronized (this) {
+            encodeQueued++;
+            try {
+                while (encodeInUse >= encodeSlots) {
+                    long remainingMs = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remainingMs <= 0) {
+                        log.warn("[CAPACITY] No encode slot for streamKey={} ({}/{} in use)",
+                                streamKey, encodeInUse, encodeSlots);
+                        throw new RuntimeException("ENCODE_CAPACITY_EXHAUSTED");
+                    }
+                    wait(remainingMs);
+                }
+                encodeInUse++;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("ENCODE_CAPACITY_EXHAUSTED", e);
+            } finally {
+                encodeQueued--;
+            }
+        }
+        sessions.put(streamKey, MODE_ENCODE);
+    }
+
+    /**
+     * Nhận lại process encode đang chạy sẵn (sau khi backend khởi động lại): luôn ghi nhận,
+     * không chờ, vì process đã chiếm CPU rồi — có thể tạm vượt số slot.
+     */
+    public void adoptEncode(String streamKey) {
+        release(streamKey);
+        synchronized (this) {
+            encodeInUse++;
+        }
+        sessions.put(streamKey, MODE_ENCODE);
+    }
+
+    /** Process dừng/chết → trả slot (gọi nhiều lần cũng được) */
+    public void release(String streamKey) {
+        if (streamKey == null)
+            return;
+        String mode = sessions.remove(streamKey);
+        if (MODE_ENCODE.equals(mode)) {
+            synchronized (this) {
+                encodeInUse--;
+                notifyAll();
+            }
+        }
+    }
+
+    public synchronized int getEncodeSlots() {
+        return encodeSlots;
+    }
+
+    public synchronized int getEncodeInUse() {
+        return encodeInUse;
+    }
+
+    public synchronized int getEncodeQueued() {
+        return encodeQueued;
+    }
+
+    public int getCopySessions() {
+        return (int) sessions.values().stream().filter(MODE_COPY::equals).count();
+    }
+
+    /** Dữ liệu cho API /admin/capacity */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        synchronized (this) {
+            m.put("encodeSlots", encodeSlots);
+            m.put("encodeSlotSource", slotSource);
+            m.put("encodeInUse", encodeInUse);
+            m.put("encodeQueued", encodeQueued);
+            m.put("encodeFree", Math.max(0, encodeSlots - encodeInUse));
+        }
+        m.put("copySessions", getCopySessions());
+
+        List<Map<String, String>> list = new ArrayList<>();
+        sessions.forEach((key, mode) -> {
+            Map<String, String> item = new LinkedHashMap<>();
+            item.put("streamKey", key);
+            item.put("mode", mode);
+            list.add(item);
+        });
+        m.put("sessions", list);
+        return m;
+    }
+}
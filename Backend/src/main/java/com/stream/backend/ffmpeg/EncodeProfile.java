@@ -0,0 +1,72 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tham số encode fallback (720p30, libx264 superfast, VBV 3000k, AAC 128k).
+ * Dùng chung cho startEncodeStream và EncodeBenchmarkService để số đo
+ * benchmark đúng với profile chạy thật.
+ */
+public final class EncodeProfile {
+
+    /** Mô tả ngắn, lưu kèm kết quả benchmark */
+    public static final String NAME = "720p30 libx264 superfast 3000k + aac 128k";
+
+    private EncodeProfile() {
+    }
+
+    /** Các tham số video + audio (không gồm input/output) */
+    public static List<String> codecArgs() {
+        List<String> cmd = new ArrayList<>();
+
+        // VIDEO
+        cmd.add("-vf");
+        cmd.add("scale=1280:720:flags=bilinear");
+
+        cmd.add("-c:v");
+        cmd.add("libx264");
+        cmd.add("-preset");
+        cmd.add("superfast");
+        cmd.add("-profile:v");
+        cmd.add("high");
+        cmd.add("-level");
+        cmd.add("4.1");
+        cmd.add("-pix_fmt");
+        cmd.add("yuv420p");
+
+        // GOP 2s
+        cmd.add("-g");
+        cmd.add("60");
+        cmd.add("-keyint_min");
+        cmd.add("60");
+        cmd.add("-sc_threshold");
+        cmd.add("0");
+
+        // VBV
+        cmd.add("-b:v");
+        cmd.add("3000k");
+        cmd.add("-maxrate");
+        cmd.add("3000k");
+        cmd.add("-bufsize");
+        cmd.add("6000k");
+
+        // CFR
+        cmd.add("-r");
+        cmd.add("30");
+        cmd.add("-vsync");
+        cmd.add("cfr");
+
+        // AUDIO
+        cmd.add("-c:a");
+        cmd.add("aac");
+        cmd.add("-b:a");
+        cmd.add("128k");
+        cmd.add("-ar");
+        cmd.add("44100");
+        cmd.add("-ac");
+        cmd.add("2");
+
+        return cmd;
+    }
+}
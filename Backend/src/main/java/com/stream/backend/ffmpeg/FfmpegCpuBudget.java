@@ -0,0 +1,169 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chia CPU cho các process FFmpeg thay vì để libx264 tự bật thread theo mọi core:
+ *
+ * - Giữ lại reservedCores core đầu tiên cho JVM (scheduler, watchdog, web).
+ * - Encode: -threads = threadsPerEncode (0 = tự tính: core còn lại / số slot encode).
+ * - Copy: -threads = threadsPerCopy (remux chỉ cần 1).
+ * - Linux (tùy chọn): ghim process vào 1 nhóm core bằng taskset (xoay vòng trên các
+ *   core không bị giữ lại), hạ ưu tiên bằng nice / ionice.
+ *
+ * Phân bổ được lưu theo streamKey để xem qua API.
+ */
+@Slf4j
+@Component
+public class FfmpegCpuBudget {
+
+    /** Phân bổ cho 1 process */
+    public record Allocation(String mode, int threads, String cpus, Integer nice, String ionice) {
+
+        /** Thêm tiền tố taskset / nice / ionice (nếu có) vào trước lệnh ffmpeg */
+        public List<String> wrap(List<String> cmd) {
+            List<String> out = new ArrayList<>();
+            if (ionice != null) {
+                out.add("ionice");
+                out.add("-c");
+                out.add(ionice.substring(0, ionice.indexOf(':')));
+                out.add("-n");
+                out.add(ionice.substring(ionice.indexOf(':') + 1));
+            }
+            if (nice != null) {
+                out.add("nice");
+                out.add("-n");
+                out.add(String.valueOf(nice));
+            }
+            if (cpus != null) {
+                out.add("taskset");
+                out.add("-c");
+                out.add(cpus);
+            }
+            out.addAll(cmd);
+            return out;
+        }
+    }
+
+    @Value("${stream.ffmpeg.cpu.reservedCores:1}")
+    private int reservedCores;
+
+    @Value("${stream.ffmpeg.cpu.threadsPerEncode:0}")
+    private int threadsPerEncode;
+
+    @Value("${stream.ffmpeg.cpu.threadsPerCopy:1}")
+    private int threadsPerCopy;
+
+    /** Chỉ có tác dụng trên Linux */
+    @Value("${stream.ffmpeg.cpu.affinity:false}")
+    private boolean affinity;
+
+    /** -1 = không dùng nice */
+    @Value("${stream.ffmpeg.cpu.nice:-1}")
+    private int nice;
+
+    /** VD "2:7" (best-effort, mức 7); để trống = không dùng ionice */
+    @Value("${stream.ffmpeg.cpu.ionice:}")
+    private String ionice;
+
+    private final EncodeCapacityManager capacityManager;
+
+    private final Map<String, Allocation> allocations = new ConcurrentHashMap<>();
+
+    private boolean linux;
+    private int totalCores;
+
+    /** Vị trí bắt đầu cho lần ghim core tiếp theo (xoay vòng) */
+    private int nextCpu;
+
+    public FfmpegCpuBudget(EncodeCapacityManager capacityManager) {
+        this.capacityManager = capacityManager;
+    }
+
+    @PostConstruct
+    void init() {
+        linux = System.getProperty("os.name", "").toLowerCase().contains("linux");
+        totalCores = Runtime.getRuntime().availableProcessors();
+        reservedCores = Math.max(0, Math.min(reservedCores, totalCores - 1));
+
+        if (linux && affinity && !new File("/usr/bin/taskset").exists() && !new File("/bin/taskset").exists()) {
+            log.warn("[CPU-BUDGET] taskset not found, CPU affinity disabled");
+            affinity = false;
+        }
+
+        log.info("[CPU-BUDGET] cores={}, reserved={}, affinity={}, nice={}, ionice={}",
+                totalCores, reservedCores, linux && affinity, nice, ionice);
+    }
+
+    /** Số core dành cho FFmpeg */
+    public int usableCores() {
+        return Math.max(1, totalCores - reservedCores);
+    }
+
+    /** Cấp phát cho process sắp start (thay phân bổ cũ của cùng streamKey) */
+    public Allocation allocate(String streamKey, String mode) {
+        int threads = EncodeCapacityManager.MODE_ENCODE.equals(mode)
+                ? encodeThreads()
+                : Math.max(1, threadsPerCopy);
+
+        String cpus = (linux && affinity) ? nextCpuSet(threads) : null;
+        Integer niceLevel = (linux && nice >= 0) ? nice : null;
+        String ioniceLevel = (linux && ionice != null && ionice.contains(":")) ? ionice : null;
+
+        Allocation a = new Allocation(mode, threads, cpus, niceLevel, ioniceLevel);
+        allocations.put(streamKey, a);
+        return a;
+    }
+
+    public void release(String streamKey) {
+        if (streamKey != null) {
+            allocations.remove(streamKey);
+        }
+    }
+
+    public Allocation get(String streamKey) {
+        return streamKey == null ? null : allocations.get(streamKey);
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("totalCores", totalCores);
+        m.put("reservedCores", reservedCores);
+        m.put("threadsPerEncode", encodeThreads());
+        m.put("threadsPerCopy", Math.max(1, threadsPerCopy));
+        m.put("affinity", linux && affinity);
+        m.put("allocations", new LinkedHashMap<>(allocations));
+        return m;
+    }
+
+    private int encodeThreads() {
+        if (threadsPerEncode > 0)
+            return threadsPerEncode;
+        int slots = Math.max(1, capacityManager.getEncodeSlots());
+        return Math.max(1, usableCores() / slots);
+    }
+
+    /** Lấy threads core liên tiếp (xoay vòng) trong dải [reservedCores, totalCores) */
+    private synchronized String nextCpuSet(int threads) {
+        int usable = usableCores();
+        int count = Math.min(threads, usable);
+        List<Integer> cpus = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cpus.add(reservedCores + (nextCpu + i) % usable);
+        }
+        nextCpu = (nextCpu + count) % usable;
+        return cpus.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+}
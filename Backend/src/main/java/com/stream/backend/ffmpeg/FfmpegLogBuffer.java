@@ -0,0 +1,248 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Giữ N dòng log FFmpeg gần nhất cho mỗi streamKey trong ring buffer cấp phát sẵn
+ * (byte[N][lineBytes], không tạo object mỗi dòng), để khi stream chết sau vài giờ vẫn
+ * biết lý do.
+ *
+ * Thread đọc output chỉ copy byte vào ring; 1 thread nền định kỳ ghi các dòng mới ra
+ * file {dir}/{streamKey}.log (xoay vòng .1 .. .maxFiles khi quá maxFileBytes). Dòng bị
+ * ghi đè trước khi kịp flush được đếm là dropped.
+ *
+ * streamKey dùng làm tên file nên chỉ nhận [A-Za-z0-9_-]; stream dừng hẳn thì release để
+ * map không phình theo mọi key từng chạy.
+ */
+@Component
+public class FfmpegLogBuffer {
+
+    private static final Pattern VALID_KEY = Pattern.compile("[A-Za-z0-9_-]+");
+
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS");
+
+    @Value("${stream.ffmpeg.log.lines:200}")
+    private int lines;
+
+    @Value("${stream.ffmpeg.log.lineBytes:512}")
+    private int lineBytes;
+
+    @Value("${stream.ffmpeg.log.dir:logs/ffmpeg}")
+    private String dir;
+
+    @Value("${stream.ffmpeg.log.flushIntervalMs:2000}")
+    private long flushIntervalMs;
+
+    @Value("${stream.ffmpeg.log.maxFileBytes:5242880}")
+    private long maxFileBytes;
+
+    @Value("${stream.ffmpeg.log.maxFiles:3}")
+    private int maxFiles;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+    private ScheduledThreadPoolExecutor flusher;
+
+    /** Ring cho 1 streamKey. seq = tổng số dòng đã ghi; slot = seq % capacity */
+    private static final class Ring {
+        final byte[][] data;
+        final int[] lengths;
+        final long[] times;
+        long seq;
+        long flushedSeq;
+        long dropped;
+
+        Ring(int capacity, int lineBytes) {
+            data = new byte[capacity][lineBytes];
+            lengths = new int[capacity];
+            times = new long[capacity];
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        lines = Math.max(10, lines);
+        lineBytes = Math.max(80, lineBytes);
+        flusher = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "FFmpeg-Log-Flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushAll, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** streamKey an toàn để làm tên file log */
+    public static boolean isValidKey(String streamKey) {
+        return streamKey != null && VALID_KEY.matcher(streamKey).matches();
+    }
+
+    /** Thêm 1 dòng (byte được copy ngay, buffer của caller dùng lại được); key không hợp lệ thì bỏ qua */
+    public void append(String streamKey, byte[] buf, int off, int len) {
+        if (!isValidKey(streamKey))
+            return;
+        Ring ring = rings.computeIfAbsent(streamKey, k -> new Ring(lines, lineBytes));
+        synchronized (ring) {
+            int slot = (int) (ring.seq % ring.data.length);
+            int n = Math.min(len, lineBytes);
+            System.arraycopy(buf, off, ring.data[slot], 0, n);
+            ring.lengths[slot] = n;
+            ring.times[slot] = System.currentTimeMillis();
+            ring.seq++;
+        }
+    }
+
+    public void append(String streamKey, String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        append(streamKey, b, 0, b.length);
+    }
+
+    /** Tối đa max dòng gần nhất (cũ → mới) */
+    public List<String> tail(String streamKey, int max) {
+        Ring ring = streamKey == null ? null : rings.get(streamKey);
+        if (ring == null)
+            return List.of();
+        synchronized (ring) {
+            int count = (int) Math.min(Math.min(ring.seq, ring.data.length), Math.max(0, max));
+            List<String> out = new ArrayList<>(count);
+            for (long s = ring.seq - count; s < ring.seq; s++) {
+                out.add(format(ring, (int) (s % ring.data.length)));
+            }
+            return out;
+        }
+    }
+
+    /** Số dòng bị ghi đè trước khi kịp ghi ra file */
+    public long dropped(String streamKey) {
+        Ring ring = streamKey == null ? null : rings.get(streamKey);
+        if (ring == null)
+            return 0;
+        synchronized (ring) {
+            return ring.dropped;
+        }
+    }
+
+    /** Ghi ngay phần chưa flush (VD: process vừa chết), không block caller */
+    public void flushAsync(String streamKey) {
+        if (flusher != null && !flusher.isShutdown()) {
+            flusher.execute(() -> flush(streamKey));
+        }
+    }
+
+    /**
+     * Stream đã dừng hẳn → bỏ ring khỏi map rồi ghi nốt phần chưa flush trên thread nền.
+     * Lần start sau của key tạo ring mới, file log vẫn ghi tiếp.
+     */
+    public void release(String streamKey) {
+        Ring ring = streamKey == null ? null : rings.remove(streamKey);
+        if (ring == null)
+            return;
+        if (flusher != null && !flusher.isShutdown()) {
+            flusher.execute(() -> flush(streamKey, ring));
+        }
+    }
+
+    private void flushAll() {
+        for (Map.Entry<String, Ring> e : rings.entrySet()) {
+            flush(e.getKey(), e.getValue());
+        }
+    }
+
+    private void flush(String streamKey) {
+        Ring ring = rings.get(streamKey);
+        if (ring != null) {
+            flush(streamKey, ring);
+        }
+    }
+
+    private void flush(String streamKey, Ring ring) {
+
+        // Copy phần chưa flush ra ngoài lock rồi mới ghi file
+        List<String> pending;
+        synchronized (ring) {
+            long from = ring.flushedSeq;
+            long oldest = ring.seq - Math.min(ring.seq, ring.data.length);
+            if (from < oldest) {
+                ring.dropped += oldest - from;
+                from = oldest;
+            }
+            if (from >= ring.seq)
+                return;
+            pending = new ArrayList<>((int) (ring.seq - from));
+            for (long s = from; s < ring.seq; s++) {
+                pending.add(format(ring, (int) (s % ring.data.length)));
+            }
+            ring.flushedSeq = ring.seq;
+        }
+
+        File file = new File(logDir(), streamKey + ".log");
+        try {
+            rotateIfNeeded(file);
+            try (OutputStream os = new FileOutputStream(file, true)) {
+                StringBuilder sb = new StringBuilder();
+                for (String line : pending) {
+                    sb.append(line).append(System.lineSeparator());
+                }
+                os.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            System.err.println("[FFMPEG-LOG] Cannot write " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void rotateIfNeeded(File file) {
+        if (!file.isFile() || file.length() < maxFileBytes)
+            return;
+        File last = new File(file.getPath() + "." + maxFiles);
+        last.delete();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File f = new File(file.getPath() + "." + i);
+            if (f.exists()) {
+                f.renameTo(new File(file.getPath() + "." + (i + 1)));
+            }
+        }
+        if (maxFiles >= 1) {
+            file.renameTo(new File(file.getPath() + ".1"));
+        } else {
+            file.delete();
+        }
+    }
+
+    private File logDir() {
+        File d = new File(dir);
+        if (!d.exists()) {
+            d.mkdirs();
+        }
+        return d;
+    }
+
+    private static String format(Ring ring, int slot) {
+        String ts = LocalDateTime.ofInstant(Instant.ofEpochMilli(ring.times[slot]), ZoneId.systemDefault()).format(TS);
+        return ts + " " + new String(ring.data[slot], 0, ring.lengths[slot], StandardCharsets.UTF_8);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        flushAll();
+        flusher.shutdownNow();
+    }
+}
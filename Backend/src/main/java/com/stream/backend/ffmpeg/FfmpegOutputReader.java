@@ -0,0 +1,20 @@
+package com.stream.backend.ffmpeg;
+
+/**
+ * Chiến lược đọc stdout (progress + log) của các process FFmpeg.
+ * Chọn qua property stream.ffmpeg.reader.mode (xem {@link FfmpegReaderConfig}).
+ */
+public interface FfmpegOutputReader {
+
+    /**
+     * Bắt đầu đọc output của process và đẩy từng chunk byte vào parser cho đến EOF.
+     * Không block caller.
+     */
+    void start(String streamKey, Process process, FfmpegProgressParser parser);
+
+    /** Tên mode thực tế đang chạy (dedicated / virtual / pool) */
+    String mode();
+
+    /** Số process đang được đọc */
+    int activeReaders();
+}
@@ -0,0 +1,114 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * 1 process FFmpeg đang chạy cho 1 streamKey. Có 2 dạng:
+ *
+ * - attached: do JVM này start, stdout đọc qua pipe, dừng bằng lệnh 'q' trên stdin.
+ * - detached: chạy trong session riêng, output ghi ra file; có thể là process do
+ *   JVM trước start rồi được nhận lại qua PID (khi đó không có {@link Process},
+ *   không biết exit code). Dừng bằng SIGTERM (FFmpeg đóng output gọn gàng).
+ */
+public final class FfmpegProcess {
+
+    private final ProcessHandle handle;
+    private final Process process;
+    private final boolean detached;
+    private final String mode;
+
+    private FfmpegProcess(ProcessHandle handle, Process process, boolean detached, String mode) {
+        this.handle = handle;
+        this.process = process;
+        this.detached = detached;
+        this.mode = mode;
+    }
+
+    public static FfmpegProcess started(Process process, boolean detached, String mode) {
+        return new FfmpegProcess(process.toHandle(), process, detached, mode);
+    }
+
+    /** Process do JVM trước start, nhận lại qua PID */
+    public static FfmpegProcess adopted(ProcessHandle handle, String mode) {
+        return new FfmpegProcess(handle, null, true, mode);
+    }
+
+    public long pid() {
+        return handle.pid();
+    }
+
+    public boolean isAlive() {
+        return handle.isAlive();
+    }
+
+    public boolean isDetached() {
+        return detached;
+    }
+
+    public boolean isAdopted() {
+        return process == null;
+    }
+
+    /** copy / encode */
+    public String mode() {
+        return mode;
+    }
+
+    public ProcessHandle handle() {
+        return handle;
+    }
+
+    /** null nếu là process được nhận lại */
+    public Process process() {
+        return process;
+    }
+
+    /** Exit code, -1 nếu không biết (process được nhận lại) hoặc chưa exit */
+    public int exitCode() {
+        if (process == null || process.isAlive())
+            return -1;
+        return process.exitValue();
+    }
+
+    public CompletableFuture<FfmpegProcess> onExit() {
+        return handle.onExit().thenApply(h -> this);
+    }
+
+    /** Yêu cầu FFmpeg dừng gọn (flush output) */
+    public void requestStop() {
+        if (!detached && process != null) {
+            OutputStream os = process.getOutputStream();
+            if (os != null) {
+                try {
+                    os.write("q\n".getBytes(StandardCharsets.UTF_8));
+                    os.flush();
+                    os.close();
+                    return;
+                } catch (IOException e) {
+                    // không gửi được → SIGTERM bên dưới
+                }
+            }
+        }
+        handle.destroy();
+    }
+
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        try {
+            handle.onExit().get(timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (java.util.concurrent.ExecutionException e) {
+            return !handle.isAlive();
+        }
+    }
+
+    public void destroyForcibly() {
+        handle.destroyForcibly();
+    }
+}
@@ -0,0 +1,12 @@
+package com.stream.backend.ffmpeg;
+
+/**
+ * Event bắn ra ngay khi một process FFmpeg đã start thành công tự chết
+ * (crash, mất kết nối RTMP, ...), KHÔNG bắn khi process bị stopStream chủ động.
+ *
+ * @param streamKey stream key của process đã chết
+ * @param exitCode  exit code của FFmpeg
+ * @param diedAt    thời điểm phát hiện (epoch millis)
+ */
+public record FfmpegProcessDiedEvent(String streamKey, int exitCode, long diedAt) {
+}
@@ -0,0 +1,261 @@
+package com.stream.backend.ffmpeg;
+
+import com.stream.backend.entity.FfmpegStat;
+
+/**
+ * Parser key=value cho output "-progress pipe:1" của FFmpeg, làm việc trực tiếp
+ * trên byte (không tạo String, không split/trim/toLowerCase, không boxing).
+ *
+ * Dữ liệu được ghi vào các field primitive tái sử dụng; khi gặp dòng
+ * "progress=continue|end" (hết 1 block) thì chỉ publish {@link FfmpegStat}
+ * mới nếu số liệu thực sự thay đổi so với snapshot trước.
+ *
+ * Các dòng không phải progress (log stderr) được chuyển cho listener dưới dạng
+ * vùng byte của buffer nội bộ, chỉ hợp lệ trong lúc callback chạy.
+ *
+ * Không thread-safe: mỗi process dùng 1 parser riêng, chỉ thread đọc gọi feed().
+ */
+public final class FfmpegProgressParser {
+
+    public interface Listener {
+
+        /** Hết 1 block progress và số liệu có thay đổi */
+        void onProgress(FfmpegStat stat);
+
+        /** Mỗi dòng "progress=..." (kể cả khi số liệu không đổi); end=true với "progress=end" */
+        default void onBlock(boolean end) {
+        }
+
+        /** 1 dòng log (không phải progress) */
+        default void onLogLine(byte[] buf, int off, int len) {
+        }
+    }
+
+    /** Dòng dài hơn sẽ bị cắt (log FFmpeg hiếm khi vượt quá) */
+    public static final int MAX_LINE = 1024;
+
+    private static final byte[] K_FRAME = key("frame");
+    private static final byte[] K_FPS = key("fps");
+    private static final byte[] K_Q = key("stream_0_0_q");
+    private static final byte[] K_BITRATE = key("bitrate");
+    private static final byte[] K_TOTAL_SIZE = key("total_size");
+    private static final byte[] K_OUT_TIME_US = key("out_time_us");
+    private static final byte[] K_OUT_TIME_MS = key("out_time_ms");
+    private static final byte[] K_DUP = key("dup_frames");
+    private static final byte[] K_DROP = key("drop_frames");
+    private static final byte[] K_SPEED = key("speed");
+    private static final byte[] K_PROGRESS = key("progress");
+
+    private final Listener listener;
+    private final byte[] line = new byte[MAX_LINE];
+    private int len;
+
+    // Block hiện tại (-1 = N/A)
+    private long frame = -1;
+    private double fps = -1;
+    private double q = -1;
+    private double bitrateKbps = -1;
+    private double speed = -1;
+    private long totalSize = -1;
+    private long outTimeUs = -1;
+    private long dupFrames = -1;
+    private long dropFrames = -1;
+
+    private long blocks;
+    private FfmpegStat last;
+
+    public FfmpegProgressParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Đẩy 1 đoạn byte đọc được từ stdout của FFmpeg vào parser */
+    public void feed(byte[] buf, int off, int n) {
+        int end = off + n;
+        for (int i = off; i < end; i++) {
+            byte b = buf[i];
+            if (b == '\n' || b == '\r') {
+                if (len > 0) {
+                    onLine();
+                    len = 0;
+                }
+            } else if (len < MAX_LINE) {
+                line[len++] = b;
+            }
+        }
+    }
+
+    /** Số block progress đã nhận */
+    public long blocks() {
+        return blocks;
+    }
+
+    /** Snapshot gần nhất đã publish (null nếu chưa có block nào) */
+    public FfmpegStat lastSnapshot() {
+        return last;
+    }
+
+    private void onLine() {
+        int eq = indexOf(line, len, (byte) '=');
+        if (eq <= 0) {
+            listener.onLogLine(line, 0, len);
+            return;
+        }
+
+        int v = eq + 1;
+        if (keyEquals(K_FRAME, eq)) {
+            // Dòng stats của stderr ("frame=  120 fps= 30 q=-1.0 ...") → bỏ, block progress đã có đủ
+            if (isStatsLine(v)) {
+                return;
+            }
+            frame = parseLong(v);
+        } else if (keyEquals(K_OUT_TIME_US, eq) || keyEquals(K_OUT_TIME_MS, eq)) {
+            // out_time_ms thực chất cũng là micro giây (bug lịch sử của FFmpeg)
+            outTimeUs = parseLong(v);
+        } else if (keyEquals(K_TOTAL_SIZE, eq)) {
+            totalSize = parseLong(v);
+        } else if (keyEquals(K_FPS, eq)) {
+            fps = parseDouble(v);
+        } else if (keyEquals(K_BITRATE, eq)) {
+            bitrateKbps = parseDouble(v);
+        } else if (keyEquals(K_SPEED, eq)) {
+            speed = parseDouble(v);
+        } else if (keyEquals(K_Q, eq)) {
+            q = parseDouble(v);
+        } else if (keyEquals(K_DUP, eq)) {
+            dupFrames = parseLong(v);
+        } else if (keyEquals(K_DROP, eq)) {
+            dropFrames = parseLong(v);
+        } else if (keyEquals(K_PROGRESS, eq)) {
+            boolean end = len - v >= 3 && line[v] == 'e' && line[v + 1] == 'n' && line[v + 2] == 'd';
+            listener.onBlock(end);
+            endOfBlock();
+        } else if (!isProgressKey(eq)) {
+            // Có dấu '=' nhưng không phải key progress (VD: log chứa URL query) → coi là log
+            listener.onLogLine(line, 0, len);
+        }
+    }
+
+    private void endOfBlock() {
+        blocks++;
+        if ((fps <= 0) && frame > 0 && outTimeUs > 0) {
+            fps = frame / (outTimeUs / 1_000_000.0);
+        }
+
+        FfmpegStat prev = last;
+        if (prev != null
+                && prev.getFrame() == frame
+                && prev.getOutTimeUs() == outTimeUs
+                && prev.getTotalSize() == totalSize
+                && prev.getDropFrames() == dropFrames
+                && prev.getDupFrames() == dupFrames) {
+            return;
+        }
+
+        last = new FfmpegStat(frame, fps, q, bitrateKbps, speed, totalSize, outTimeUs,
+                dupFrames, dropFrames, System.currentTimeMillis());
+        listener.onProgress(last);
+    }
+
+    /**
+     * Key progress chỉ gồm [a-z0-9_]; dòng log có '=' thường chứa khoảng trắng,
+     * ':' hoặc chữ hoa trước dấu '='.
+     */
+    private boolean isProgressKey(int eq) {
+        for (int i = 0; i < eq; i++) {
+            byte b = line[i];
+            boolean ok = (b >= 'a' && b <= 'z') || (b >= '0' && b <= '9') || b == '_';
+            if (!ok)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean isStatsLine(int v) {
+        int i = skipSpaces(v);
+        while (i < len && line[i] >= '0' && line[i] <= '9')
+            i++;
+        return i < len;
+    }
+
+    private boolean keyEquals(byte[] key, int eq) {
+        if (key.length != eq)
+            return false;
+        for (int i = 0; i < eq; i++) {
+            if (line[i] != key[i])
+                return false;
+        }
+        return true;
+    }
+
+    private int skipSpaces(int i) {
+        while (i < len && line[i] == ' ')
+            i++;
+        return i;
+    }
+
+    /** Trả về -1 nếu không có số (VD: "N/A") */
+    private long parseLong(int i) {
+        i = skipSpaces(i);
+        boolean neg = false;
+        if (i < len && line[i] == '-') {
+            neg = true;
+            i++;
+        }
+        int start = i;
+        long r = 0;
+        while (i < len) {
+            byte b = line[i];
+            if (b < '0' || b > '9')
+                break;
+            r = r * 10 + (b - '0');
+            i++;
+        }
+        if (i == start)
+            return -1;
+        return neg ? -r : r;
+    }
+
+    /** Đọc số thực dạng "123.45" và dừng ở hậu tố ("kbits/s", "x"); -1 nếu N/A */
+    private double parseDouble(int i) {
+        i = skipSpaces(i);
+        boolean neg = false;
+        if (i < len && line[i] == '-') {
+            neg = true;
+            i++;
+        }
+        int start = i;
+        long intPart = 0;
+        while (i < len && line[i] >= '0' && line[i] <= '9') {
+            intPart = intPart * 10 + (line[i] - '0');
+            i++;
+        }
+        long frac = 0;
+        long scale = 1;
+        if (i < len && line[i] == '.') {
+            i++;
+            while (i < len && line[i] >= '0' && line[i] <= '9') {
+                if (scale < 1_000_000_000L) {
+                    frac = frac * 10 + (line[i] - '0');
+                    scale *= 10;
+                }
+                i++;
+            }
+        }
+        if (i == start)
+            return -1;
+        double r = intPart + (double) frac / scale;
+        return neg ? -r : r;
+    }
+
+    private static int indexOf(byte[] buf, int len, byte b) {
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static byte[] key(String k) {
+        return k.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,91 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chọn cách đọc output FFmpeg theo stream.ffmpeg.reader.mode:
+ * - dedicated: 1 platform thread/process (stack nhỏ, mặc định 256 KB)
+ * - virtual: 1 virtual thread/process (cần JVM 21+, nếu không có thì về dedicated)
+ * - pool: N thread dùng chung, đọc theo chu kỳ stream.ffmpeg.reader.pollIntervalMs
+ * - auto (mặc định): virtual nếu JVM hỗ trợ, ngược lại dedicated
+ */
+@Slf4j
+@Configuration
+public class FfmpegReaderConfig {
+
+    @Bean
+    public FfmpegOutputReader ffmpegOutputReader(
+            MeterRegistry meterRegistry,
+            @Value("${stream.ffmpeg.reader.mode:auto}") String mode,
+            @Value("${stream.ffmpeg.reader.poolSize:4}") int poolSize,
+            @Value("${stream.ffmpeg.reader.pollIntervalMs:250}") long pollIntervalMs,
+            @Value("${stream.ffmpeg.reader.stackSizeKb:256}") long stackSizeKb) {
+
+        String m = mode == null ? "auto" : mode.trim().toLowerCase();
+
+        if ("pool".equals(m)) {
+            ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(
+                    Math.max(1, poolSize), daemonFactory("FFmpeg-Reader-", stackSizeKb));
+            pool.setRemoveOnCancelPolicy(true);
+
+            PooledOutputReader reader = new PooledOutputReader(pool, Math.max(10, pollIntervalMs));
+            reader.setMetrics(new FfmpegReaderMetrics(meterRegistry, reader.mode(), reader::activeReaders));
+            log.info("[FFMPEG-READER] mode=pool, threads={}, pollIntervalMs={}", poolSize, pollIntervalMs);
+            return reader;
+        }
+
+        if ("virtual".equals(m) || "auto".equals(m)) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                BlockingOutputReader reader = new BlockingOutputReader("virtual", virtual);
+                reader.setMetrics(new FfmpegReaderMetrics(meterRegistry, reader.mode(), reader::activeReaders));
+                log.info("[FFMPEG-READER] mode=virtual");
+                return reader;
+            }
+            if ("virtual".equals(m)) {
+                log.warn("[FFMPEG-READER] Virtual threads are not available on Java {}, falling back to dedicated",
+                        Runtime.version().feature());
+            }
+        } else if (!"dedicated".equals(m)) {
+            log.warn("[FFMPEG-READER] Unknown mode '{}', using dedicated", mode);
+        }
+
+        ThreadFactory factory = daemonFactory("FFmpeg-Progress-", stackSizeKb);
+        BlockingOutputReader reader = new BlockingOutputReader("dedicated", r -> factory.newThread(r).start());
+        reader.setMetrics(new FfmpegReaderMetrics(meterRegistry, reader.mode(), reader::activeReaders));
+        log.info("[FFMPEG-READER] mode=dedicated, stackSizeKb={}", stackSizeKb);
+        return reader;
+    }
+
+    /**
+     * Project build với Java 17 nên gọi Executors.newVirtualThreadPerTaskExecutor()
+     * qua reflection; trả về null nếu JVM đang chạy chưa có virtual thread.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory daemonFactory(String prefix, long stackSizeKb) {
+        AtomicInteger seq = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(null, r, prefix + seq.incrementAndGet(), Math.max(64, stackSizeKb) * 1024);
+            t.setDaemon(true); // Daemon thread để không giữ JVM
+            return t;
+        };
+    }
+}
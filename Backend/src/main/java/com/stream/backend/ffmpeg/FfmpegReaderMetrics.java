@@ -0,0 +1,45 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics chung cho mọi mode đọc output FFmpeg (xem qua /actuator/metrics khi đã mở endpoint metrics):
+ * - ffmpeg.reader.active: số process đang được đọc
+ * - ffmpeg.reader.lag: độ trễ giữa lúc lẽ ra phải đọc và lúc thực sự đọc (mode pool)
+ * - ffmpeg.reader.backlog: số byte còn nằm trong pipe lúc đọc (reader có đang đuổi kịp không)
+ */
+public class FfmpegReaderMetrics {
+
+    private final Timer lag;
+    private final DistributionSummary backlog;
+
+    public FfmpegReaderMetrics(MeterRegistry registry, String mode, Supplier<Number> active) {
+        Gauge.builder("ffmpeg.reader.active", active)
+                .tag("mode", mode)
+                .description("FFmpeg processes whose output is being read")
+                .register(registry);
+        this.lag = Timer.builder("ffmpeg.reader.lag")
+                .tag("mode", mode)
+                .description("Delay between a scheduled output read and its execution")
+                .register(registry);
+        this.backlog = DistributionSummary.builder("ffmpeg.reader.backlog")
+                .tag("mode", mode)
+                .baseUnit("bytes")
+                .description("Bytes already waiting in the FFmpeg pipe when a read happens")
+                .register(registry);
+    }
+
+    public void recordLag(long lagMs) {
+        lag.record(Math.max(0, lagMs), TimeUnit.MILLISECONDS);
+    }
+
+    public void recordBacklog(int bytes) {
+        backlog.record(bytes);
+    }
+}
@@ -0,0 +1,126 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.stream.backend.entity.FfmpegStat;
+
+/**
+ * Phát hiện FFmpeg "còn sống nhưng không chạy": out_time không tăng (socket RTMP
+ * treo, disk chậm...) hoặc tốc độ thấp hơn realtime kéo dài (YouTube báo buffering).
+ *
+ * Mỗi lần watchdog kiểm tra, so snapshot progress mới nhất với lần trước:
+ * velocity = Δout_time / Δthời gian thực (1.0 = realtime).
+ *
+ * - STALL_NO_PROGRESS: không có snapshot mới (frame/out_time không đổi) quá noProgressSeconds.
+ * - STALL_SLOW_SPEED: velocity < minSpeed liên tục quá slowSeconds.
+ */
+@Component
+public class FfmpegStallDetector {
+
+    public static final String REASON_NO_PROGRESS = "STALL_NO_PROGRESS";
+    public static final String REASON_SLOW_SPEED = "STALL_SLOW_SPEED";
+
+    private static final class Sample {
+        long wallMs;
+        long outTimeUs;
+        long frame;
+        long slowSinceMs = -1;
+        double velocity = -1;
+    }
+
+    @Value("${stream.watchdog.stall.enabled:true}")
+    private boolean enabled = true;
+
+    @Value("${stream.watchdog.stall.noProgressSeconds:30}")
+    private long noProgressSeconds = 30;
+
+    @Value("${stream.watchdog.stall.minSpeed:0.9}")
+    private double minSpeed = 0.9;
+
+    @Value("${stream.watchdog.stall.slowSeconds:60}")
+    private long slowSeconds = 60;
+
+    private final Map<String, Sample> samples = new ConcurrentHashMap<>();
+
+    public FfmpegStallDetector() {
+    }
+
+    /** Dùng cho test */
+    FfmpegStallDetector(long noProgressSeconds, double minSpeed, long slowSeconds) {
+        this.noProgressSeconds = noProgressSeconds;
+        this.minSpeed = minSpeed;
+        this.slowSeconds = slowSeconds;
+    }
+
+    /**
+     * @return mã lý do (VD "STALL_SLOW_SPEED(0.62x)") nếu stream đang stall, null nếu bình thường
+     */
+    public String check(String streamKey, FfmpegStat stat, long nowMs) {
+        if (!enabled || streamKey == null || stat == null)
+            return null;
+
+        // Snapshot chỉ được publish khi số liệu đổi → updatedAt = lần cuối có tiến triển
+        if (nowMs - stat.getUpdatedAt() >= noProgressSeconds * 1000L) {
+            return REASON_NO_PROGRESS + "(" + (nowMs - stat.getUpdatedAt()) / 1000 + "s)";
+        }
+
+        if (stat.getOutTimeUs() < 0)
+            return null;
+
+        Sample s = samples.get(streamKey);
+        if (s == null) {
+            s = new Sample();
+            s.wallMs = nowMs;
+            s.outTimeUs = stat.getOutTimeUs();
+            s.frame = stat.getFrame();
+            samples.put(streamKey, s);
+            return null;
+        }
+
+        long dWallMs = nowMs - s.wallMs;
+        if (dWallMs <= 0)
+            return null;
+
+        long dOutUs = stat.getOutTimeUs() - s.outTimeUs;
+        if (dOutUs < 0) {
+            // out_time quay về 0 (FFmpeg vừa restart) → lấy mốc mới
+            s.slowSinceMs = -1;
+            dOutUs = 0;
+        }
+        s.velocity = (dOutUs / 1000.0) / dWallMs;
+        s.wallMs = nowMs;
+        s.outTimeUs = stat.getOutTimeUs();
+        s.frame = stat.getFrame();
+
+        if (s.velocity >= minSpeed) {
+            s.slowSinceMs = -1;
+            return null;
+        }
+
+        if (s.slowSinceMs < 0) {
+            s.slowSinceMs = nowMs - dWallMs;
+        }
+        if (nowMs - s.slowSinceMs >= slowSeconds * 1000L) {
+            return String.format(Locale.US, "%s(%.2fx)", REASON_SLOW_SPEED, s.velocity);
+        }
+        return null;
+    }
+
+    /** Velocity đo được ở lần kiểm tra gần nhất (-1 nếu chưa có) */
+    public double lastVelocity(String streamKey) {
+        Sample s = samples.get(streamKey);
+        return s == null ? -1 : s.velocity;
+    }
+
+    /** Process vừa restart/dừng → bỏ mốc cũ */
+    public void reset(String streamKey) {
+        if (streamKey != null) {
+            samples.remove(streamKey);
+        }
+    }
+}
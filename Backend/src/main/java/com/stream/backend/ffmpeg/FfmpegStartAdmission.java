@@ -0,0 +1,190 @@
+package com.stream.backend.ffmpeg;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kiểm soát việc bật FFmpeg khi nhiều lịch trùng giờ tròn (20:00, 21:00...):
+ *
+ * - Tối đa maxStarting process ở trạng thái "đang start" (chưa có block progress đầu tiên).
+ * - Các lần start cách nhau ít nhất minGapMs + jitter ngẫu nhiên (0..jitterMs).
+ * - CPU hệ thống vượt maxCpuLoad thì chờ thêm (tối đa cpuWaitMs) rồi mới cho start.
+ *
+ * Dùng: {@code Ticket t = admission.admit(streamKey); try { ...start... } finally { t.close(); }}
+ * Ticket được trả lại khi start xong (OK hay lỗi).
+ */
+@Slf4j
+@Component
+public class FfmpegStartAdmission {
+
+    @Value("${stream.ffmpeg.admission.maxStarting:4}")
+    private int maxStarting;
+
+    @Value("${stream.ffmpeg.admission.minGapMs:300}")
+    private long minGapMs;
+
+    @Value("${stream.ffmpeg.admission.jitterMs:700}")
+    private long jitterMs;
+
+    /** 0..1, <= 0 để tắt kiểm tra CPU */
+    @Value("${stream.ffmpeg.admission.maxCpuLoad:0.85}")
+    private double maxCpuLoad;
+
+    @Value("${stream.ffmpeg.admission.cpuWaitMs:5000}")
+    private long cpuWaitMs;
+
+    /** Chờ slot quá lâu thì báo lỗi để caller retry */
+    @Value("${stream.ffmpeg.admission.timeoutMs:60000}")
+    private long timeoutMs;
+
+    private final MeterRegistry meterRegistry;
+    private final OperatingSystemMXBean osBean = ManagementFactory.getOperatingSystemMXBean();
+
+    private Semaphore starting;
+
+    /** Thời điểm (nanoTime) sớm nhất lần start kế tiếp được phép bắt đầu */
+    private final AtomicLong nextSlotNanos = new AtomicLong(System.nanoTime());
+
+    private Timer waitTimer;
+
+    public FfmpegStartAdmission(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        starting = new Semaphore(Math.max(1, maxStarting), true);
+        waitTimer = Timer.builder("ffmpeg.start.admission.wait")
+                .description("Time a start waited for admission (slot, stagger, CPU)")
+                .register(meterRegistry);
+        Gauge.builder("ffmpeg.start.inflight", this, a -> a.inFlight())
+                .description("FFmpeg processes currently starting")
+                .register(meterRegistry);
+    }
+
+    public int inFlight() {
+        return Math.max(1, maxStarting) - starting.availablePermits();
+    }
+
+    public final class Ticket implements AutoCloseable {
+
+        private boolean released;
+
+        private Ticket() {
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                starting.release();
+            }
+        }
+    }
+
+    /**
+     * Chờ tới lượt được start.
+     *
+     * @throws RuntimeException FFMPEG_ADMISSION_TIMEOUT nếu chờ quá timeoutMs
+     */
+    public Ticket admit(String streamKey) {
+        long begin = System.nanoTime();
+        try {
+            if (!starting.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new RuntimeException("FFMPEG_ADMISSION_TIMEOUT");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("FFMPEG_ADMISSION_INTERRUPTED", e);
+        }
+
+        Ticket ticket = new Ticket();
+        try {
+            sleepUntil(reserveSlot());
+            waitForCpu(streamKey);
+        } catch (InterruptedException e) {
+            ticket.close();
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("FFMPEG_ADMISSION_INTERRUPTED", e);
+        }
+
+        long waited = System.nanoTime() - begin;
+        waitTimer.record(waited, TimeUnit.NANOSECONDS);
+        if (waited > TimeUnit.SECONDS.toNanos(1)) {
+            log.info("[ADMISSION] streamKey={} admitted after {} ms ({} starting)",
+                    streamKey, TimeUnit.NANOSECONDS.toMillis(waited), inFlight());
+        }
+        return ticket;
+    }
+
+    /**
+     * Lượt start encode: giữ slot encode trước (có thể chờ tới queueWaitMs, hết slot thì
+     * ENCODE_CAPACITY_EXHAUSTED) rồi mới xin lượt start, để encode đang xếp hàng chờ slot
+     * không giữ hết maxStarting chỗ và chặn các lần start copy.
+     */
+    public Ticket admitEncode(String streamKey, EncodeCapacityManager encodeCapacity) {
+        encodeCapacity.acquireEncode(streamKey);
+        try {
+            return admit(streamKey);
+        } catch (RuntimeException e) {
+            encodeCapacity.release(streamKey);
+            throw e;
+        }
+    }
+
+    /** Giữ chỗ 1 mốc thời gian: cách mốc trước >= minGapMs + jitter */
+    private long reserveSlot() {
+        long gap = TimeUnit.MILLISECONDS.toNanos(minGapMs
+                + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0));
+        while (true) {
+            long now = System.nanoTime();
+            long prev = nextSlotNanos.get();
+            long slot = Math.max(now, prev);
+            if (nextSlotNanos.compareAndSet(prev, slot + gap)) {
+                return slot;
+            }
+        }
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long wait = deadlineNanos - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    private void waitForCpu(String streamKey) throws InterruptedException {
+        if (maxCpuLoad <= 0)
+            return;
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(cpuWaitMs);
+        double load = cpuLoad();
+        while (load > maxCpuLoad && System.nanoTime() < deadline) {
+            log.debug("[ADMISSION] CPU load {} > {}, delaying start of streamKey={}", load, maxCpuLoad, streamKey);
+            Thread.sleep(250);
+            load = cpuLoad();
+        }
+    }
+
+    /** Tải CPU toàn hệ thống 0..1; -1 nếu JVM không hỗ trợ */
+    private double cpuLoad() {
+        if (osBean instanceof com.sun.management.OperatingSystemMXBean sunOs) {
+            return sunOs.getCpuLoad();
+        }
+        double avg = osBean.getSystemLoadAverage();
+        return avg < 0 ? -1 : avg / osBean.getAvailableProcessors();
+    }
+}
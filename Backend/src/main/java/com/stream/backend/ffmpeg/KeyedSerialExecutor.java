@@ -0,0 +1,44 @@
+package com.stream.backend.ffmpeg;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Chạy task trên 1 executor dùng chung nhưng tuần tự theo key: các task cùng key
+ * (VD: start/stop cùng streamKey) nối đuôi nhau, khác key thì chạy song song.
+ * Task trước lỗi không chặn task sau.
+ */
+public class KeyedSerialExecutor {
+
+    private final Executor executor;
+    private final Map<String, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    public KeyedSerialExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> task) {
+        AtomicReference<CompletableFuture<T>> holder = new AtomicReference<>();
+
+        tails.compute(key, (k, tail) -> {
+            CompletableFuture<?> prev = tail != null ? tail : CompletableFuture.completedFuture(null);
+            CompletableFuture<T> f = prev.handle((r, e) -> null).thenApplyAsync(ignored -> task.get(), executor);
+            holder.set(f);
+            return f;
+        });
+
+        CompletableFuture<T> next = holder.get();
+        // Dọn key khi không còn task nào chờ phía sau
+        next.whenComplete((r, e) -> tails.remove(key, next));
+        return next;
+    }
+
+    /** Số key đang có task chạy hoặc chờ */
+    public int pendingKeys() {
+        return tails.size();
+    }
+}
@@ -0,0 +1,120 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Lấy thời lượng video bằng ffprobe (format=duration), cache theo đường dẫn +
+ * lastModified (file local) để mỗi lần restart không phải probe lại.
+ */
+@Slf4j
+@Component
+public class MediaDurationProbe {
+
+    private record Entry(long lastModified, long durationMs) {
+    }
+
+    @Value("${stream.ffmpeg.path:ffmpeg}")
+    private String ffmpegPath;
+
+    /** Để trống = cùng thư mục với ffmpeg */
+    @Value("${stream.ffprobe.path:}")
+    private String ffprobePath;
+
+    @Value("${stream.ffprobe.timeoutSeconds:15}")
+    private long timeoutSeconds;
+
+    private final Map<String, Entry> cache = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        if (ffprobePath == null || ffprobePath.isBlank()) {
+            File ff = new File(ffmpegPath);
+            String name = ff.getName().replace("ffmpeg", "ffprobe");
+            ffprobePath = ff.getParent() == null ? name : new File(ff.getParentFile(), name).getPath();
+        }
+    }
+
+    /** Tổng thời lượng playlist (ms), -1 nếu có file không đo được */
+    public long playlistDurationMs(List<String> paths) {
+        long total = 0;
+        for (String p : paths) {
+            long d = durationMs(p);
+            if (d <= 0)
+                return -1;
+            total += d;
+        }
+        return total;
+    }
+
+    /** Thời lượng 1 file / URL (ms), -1 nếu không đo được */
+    public long durationMs(String path) {
+        if (path == null || path.isBlank())
+            return -1;
+
+        File f = new File(path);
+        long lastModified = f.isFile() ? f.lastModified() : 0;
+        Entry cached = cache.get(path);
+        if (cached != null && cached.lastModified() == lastModified) {
+            return cached.durationMs();
+        }
+
+        long d = probe(path);
+        if (d > 0) {
+            cache.put(path, new Entry(lastModified, d));
+        }
+        return d;
+    }
+
+    private long probe(String path) {
+        ProcessBuilder pb = new ProcessBuilder(ffprobePath, "-v", "error",
+                "-show_entries", "format=duration",
+                "-of", "default=noprint_wrappers=1:nokey=1",
+                path);
+        pb.redirectErrorStream(true);
+        Path out = null;
+        try {
+            // Ghi output ra file thay vì đọc pipe: đọc pipe chặn tới khi ffprobe thoát,
+            // ffprobe treo (nguồn HTTP chậm) thì timeout không bao giờ tới lượt
+            out = Files.createTempFile("ffprobe", ".out");
+            pb.redirectOutput(out.toFile());
+            Process process = pb.start();
+            if (!process.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                log.warn("[FFPROBE] Timed out probing {}", path);
+                return -1;
+            }
+            String text = Files.readString(out, StandardCharsets.UTF_8).trim();
+            return Math.round(Double.parseDouble(text.lines().findFirst().orElse("").trim()) * 1000);
+        } catch (NumberFormatException e) {
+            log.warn("[FFPROBE] No duration for {}", path);
+            return -1;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (Exception e) {
+            log.warn("[FFPROBE] Cannot probe {}: {}", path, e.getMessage());
+            return -1;
+        } finally {
+            if (out != null) {
+                try {
+                    Files.deleteIfExists(out);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool cố định N thread phục vụ mọi process: mỗi process được đọc định kỳ,
+ * chỉ đọc số byte đã có sẵn trong pipe (available()) nên không thread nào bị
+ * block bởi 1 stream. FFmpeg ghi progress ~1 lần/giây nên chu kỳ vài trăm ms
+ * là đủ; exit của process vẫn được phát hiện bằng onExit(), không phụ thuộc pool.
+ */
+public class PooledOutputReader implements FfmpegOutputReader {
+
+    private final ScheduledExecutorService pool;
+    private final long intervalMs;
+    private final Map<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
+    private final ThreadLocal<byte[]> buffers = ThreadLocal.withInitial(() -> new byte[8192]);
+    private FfmpegReaderMetrics metrics;
+
+    public PooledOutputReader(ScheduledExecutorService pool, long intervalMs) {
+        this.pool = pool;
+        this.intervalMs = intervalMs;
+    }
+
+    public void setMetrics(FfmpegReaderMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void start(String streamKey, Process process, FfmpegProgressParser parser) {
+        PollTask task = new PollTask(streamKey, process, parser);
+        // Lượt đọc đầu sau intervalMs để future kịp được gán + đưa vào map trước khi task chạy
+        ScheduledFuture<?> future = pool.scheduleWithFixedDelay(task, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        task.future = future;
+
+        ScheduledFuture<?> old = tasks.put(streamKey, future);
+        if (old != null) {
+            old.cancel(false);
+        }
+
+        // Thread này bị trễ quá intervalMs mà task đã kết thúc (future còn null) → tự dọn
+        if (task.finished) {
+            future.cancel(false);
+            tasks.remove(streamKey, future);
+        }
+    }
+
+    @Override
+    public String mode() {
+        return "pool";
+    }
+
+    @Override
+    public int activeReaders() {
+        return tasks.size();
+    }
+
+    private final class PollTask implements Runnable {
+
+        private final String streamKey;
+        private final Process process;
+        private final InputStream in;
+        private final FfmpegProgressParser parser;
+        private volatile ScheduledFuture<?> future;
+        private volatile boolean finished;
+        private long nextDueAt = System.currentTimeMillis();
+
+        PollTask(String streamKey, Process process, FfmpegProgressParser parser) {
+            this.streamKey = streamKey;
+            this.process = process;
+            this.in = process.getInputStream();
+            this.parser = parser;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            if (metrics != null) {
+                metrics.recordLag(now - nextDueAt);
+            }
+
+            try {
+                byte[] buf = buffers.get();
+                int available = in.available();
+                if (metrics != null && available > 0) {
+                    metrics.recordBacklog(available);
+                }
+                while (available > 0) {
+                    int n = in.read(buf, 0, Math.min(available, buf.length));
+                    if (n < 0) {
+                        finish();
+                        return;
+                    }
+                    parser.feed(buf, 0, n);
+                    available = in.available();
+                }
+
+                // Pipe trống và process đã chết → đã đọc hết output
+                if (!process.isAlive()) {
+                    finish();
+                }
+            } catch (IOException e) {
+                if (process.isAlive()) {
+                    System.err.println("[FFMPEG] IO error reading stream for " + streamKey + ": " + e.getMessage());
+                }
+                finish();
+            } catch (Exception e) {
+                System.err.println("[FFMPEG] Unexpected error reading stream for " + streamKey + ": " + e.getMessage());
+                e.printStackTrace();
+                finish();
+            } finally {
+                nextDueAt = System.currentTimeMillis() + intervalMs;
+            }
+        }
+
+        private void finish() {
+            finished = true;
+            ScheduledFuture<?> f = future;
+            if (f != null) {
+                f.cancel(false);
+                tasks.remove(streamKey, f);
+            }
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
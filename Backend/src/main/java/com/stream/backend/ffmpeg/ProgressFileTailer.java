@@ -0,0 +1,139 @@
+package com.stream.backend.ffmpeg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Đọc output của process FFmpeg detached từ file (stdout + stderr + "-progress pipe:1"
+ * cùng ghi append vào 1 file), giống PooledOutputReader nhưng nguồn là file:
+ * mỗi chu kỳ đọc phần mới ghi thêm và đẩy vào parser.
+ *
+ * File quá maxBytes mà đã đọc hết thì cắt về 0 (FFmpeg mở file ở chế độ append nên
+ * tiếp tục ghi từ đầu, không bị lỗ).
+ */
+@Component
+public class ProgressFileTailer {
+
+    @Value("${stream.ffmpeg.detached.pollIntervalMs:500}")
+    private long intervalMs;
+
+    @Value("${stream.ffmpeg.detached.maxOutputBytes:4194304}")
+    private long maxBytes;
+
+    private ScheduledThreadPoolExecutor pool;
+    private final Map<String, ScheduledFuture<?>> tasks = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "FFmpeg-Tail-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Bắt đầu đọc file cho tới khi process exit và đã đọc hết.
+     *
+     * @param fromEnd true = bỏ qua nội dung cũ (process được nhận lại sau khi backend khởi động lại)
+     */
+    public void start(String streamKey, ProcessHandle handle, File file, FfmpegProgressParser parser,
+            boolean fromEnd) {
+        TailTask task = new TailTask(streamKey, handle, file, parser, fromEnd ? file.length() : 0);
+        ScheduledFuture<?> future = pool.scheduleWithFixedDelay(task, 0, intervalMs, TimeUnit.MILLISECONDS);
+        task.future = future;
+
+        ScheduledFuture<?> old = tasks.put(streamKey, future);
+        if (old != null) {
+            old.cancel(false);
+        }
+    }
+
+    public void stop(String streamKey) {
+        ScheduledFuture<?> f = tasks.remove(streamKey);
+        if (f != null) {
+            f.cancel(false);
+        }
+    }
+
+    public int activeTails() {
+        return tasks.size();
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private final class TailTask implements Runnable {
+
+        private final String streamKey;
+        private final ProcessHandle handle;
+        private final File file;
+        private final FfmpegProgressParser parser;
+        private final byte[] buf = new byte[8192];
+        private long position;
+        private volatile ScheduledFuture<?> future;
+
+        TailTask(String streamKey, ProcessHandle handle, File file, FfmpegProgressParser parser, long position) {
+            this.streamKey = streamKey;
+            this.handle = handle;
+            this.file = file;
+            this.parser = parser;
+            this.position = position;
+        }
+
+        @Override
+        public void run() {
+            // Kiểm tra trước khi đọc: process đã chết thì lượt đọc này là lượt cuối
+            boolean alive = handle.isAlive();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                long length = raf.length();
+                if (length < position) {
+                    // File bị cắt ở nơi khác → đọc lại từ đầu
+                    position = 0;
+                }
+                raf.seek(position);
+                int n;
+                while (position < length && (n = raf.read(buf, 0, (int) Math.min(buf.length, length - position))) > 0) {
+                    parser.feed(buf, 0, n);
+                    position += n;
+                }
+
+                if (alive && position >= maxBytes && raf.length() == position) {
+                    raf.setLength(0);
+                    position = 0;
+                }
+            } catch (IOException e) {
+                if (alive) {
+                    System.err.println("[FFMPEG] IO error tailing " + file + " for " + streamKey + ": " + e.getMessage());
+                }
+            } catch (Exception e) {
+                System.err.println("[FFMPEG] Unexpected error tailing output for " + streamKey + ": " + e.getMessage());
+            }
+
+            if (!alive) {
+                ScheduledFuture<?> f = future;
+                if (f != null) {
+                    f.cancel(false);
+                    tasks.remove(streamKey, f);
+                }
+            }
+        }
+    }
+}
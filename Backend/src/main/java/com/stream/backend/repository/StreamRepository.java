@@ -7,6 +7,7 @@ import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import com.stream.backend.entity.Stream;
 
@@ -32,4 +33,13 @@ public interface StreamRepository extends JpaRepository<Stream, Integer> {
                 )
             """)
     List<String> findAllActiveVideoLists();
+
+    /** Số stream khác vẫn có đường dẫn này trong videoList (chặn xóa file đang được dùng chung) */
+    long countByVideoListContainingAndIdNot(String path, Integer id);
+
+    /** Id các stream có đường dẫn này trong videoList (GC gắn lại ref bị thiếu) */
+    @Query("SELECT s.id FROM Stream s WHERE s.videoList LIKE CONCAT('%', :path, '%')")
+    List<Integer> findIdsByVideoListContaining(@Param("path") String path);
+
+    boolean existsByKeyStream(String keyStream);
 }
@@ -1,13 +1,16 @@
 package com.stream.backend.repository;
 
+import java.time.LocalDateTime;
 import java.util.Optional;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Transactional;
 import java.util.List;
 
 import com.stream.backend.entity.StreamSession;
@@ -25,6 +28,8 @@ public interface StreamSessionRepository extends JpaRepository<StreamSession, In
 
   boolean existsByStreamId(Integer streamId);
 
+  Optional<StreamSession> findFirstByStreamKeyStreamAndStatusIgnoreCase(String keyStream, String status);
+
   long countByStatusIgnoreCase(String status);
 
   @Query("""
@@ -32,7 +37,7 @@ public interface StreamSessionRepository extends JpaRepository<StreamSession, In
          from StreamSession ss
          join ss.stream s
          join s.owner u
-         where lower(ss.status) in ('active','scheduled','error')
+         where lower(ss.status) in ('active','starting','scheduled','error')
            and (:userId is null or u.id = :userId)
       """)
   Page<StreamSession> findActiveOrScheduledByUserId(@Param("userId") Integer userId, Pageable pageable);
@@ -61,7 +66,7 @@ public interface StreamSessionRepository extends JpaRepository<StreamSession, In
          from StreamSession ss
          join ss.stream s
          join s.owner u
-         where lower(ss.status) in ('active','scheduled','error')
+         where lower(ss.status) in ('active','starting','scheduled','error')
            and (:userId is null or u.id = :userId)
       """)
   List<StreamSession> findActiveOrScheduledByUserIdList(@Param("userId") Integer userId, Sort sort);
@@ -74,4 +79,130 @@ public interface StreamSessionRepository extends JpaRepository<StreamSession, In
         where (:status is null or lower(ss.status) = lower(:status))
       """)
   List<String> findDistinctOwnerNamesByStatus(@Param("status") String status);
+
+  /**
+   * streamId của session SCHEDULED đã tới giờ start (chỉ đụng index status + planned_start_at).
+   * status luôn được lưu dạng chữ hoa nên so sánh trực tiếp, không dùng lower().
+   */
+  @Query("""
+        select ss.stream.id
+        from StreamSession ss
+        where ss.status = 'SCHEDULED'
+          and ss.plannedStartAt <= :now
+        order by ss.plannedStartAt
+      """)
+  List<Integer> findDueScheduledStreamIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+  /** id session ACTIVE đã hết thời lượng (index status + planned_end_at) */
+  @Query("""
+        select ss.id
+        from StreamSession ss
+        where ss.status = 'ACTIVE'
+          and ss.plannedEndAt <= :now
+        order by ss.plannedEndAt
+      """)
+  List<Integer> findExpiredActiveSessionIds(@Param("now") LocalDateTime now, Pageable pageable);
+
+  /** Session SCHEDULED/ACTIVE chưa có planned_start_at (dữ liệu trước khi thêm cột) */
+  @Query("""
+        select ss
+        from StreamSession ss
+        where ss.status in ('SCHEDULED','ACTIVE')
+          and ss.plannedStartAt is null
+          and ss.stream.timeStart is not null
+      """)
+  List<StreamSession> findMissingPlannedTimes(Pageable pageable);
+
+  /**
+   * Cập nhật trạng thái restart policy. Bulk update không tăng @Version nên không
+   * làm hỏng lượt start/stop đang giữ bản session cũ.
+   */
+  @Transactional
+  @Modifying
+  @Query("""
+        update StreamSession ss
+        set ss.restartHistory = :history,
+            ss.nextRestartAt = :nextRestartAt
+        where ss.id = :id
+      """)
+  int updateRestartState(@Param("id") Integer id, @Param("history") String history,
+      @Param("nextRestartAt") LocalDateTime nextRestartAt);
+
+  /**
+   * Watchdog hết budget restart → ERROR. Chỉ đổi session còn ACTIVE (user vừa stop thì giữ nguyên);
+   * tăng @Version để lượt start/stop đang giữ bản session cũ không ghi đè trạng thái ERROR.
+   */
+  @Transactional
+  @Modifying
+  @Query("""
+        update StreamSession ss
+        set ss.status = 'ERROR',
+            ss.lastError = :lastError,
+            ss.lastErrorAt = :lastErrorAt,
+            ss.version = ss.version + 1
+        where ss.id = :id
+          and ss.status = 'ACTIVE'
+      """)
+  int markActiveAsError(@Param("id") Integer id, @Param("lastError") String lastError,
+      @Param("lastErrorAt") LocalDateTime lastErrorAt);
+
+  /**
+   * Tính lại planned_start_at / planned_end_at sau khi sửa stream (bulk update, không đụng
+   * status / @Version). Flush trước để thay đổi khác của session trong cùng transaction được
+   * ghi xuống trước, không ghi đè kết quả này lúc commit.
+   */
+  @Transactional
+  @Modifying(flushAutomatically = true)
+  @Query("""
+        update StreamSession ss
+        set ss.plannedStartAt = :plannedStartAt,
+            ss.plannedEndAt = :plannedEndAt
+        where ss.id = :id
+      """)
+  int updatePlannedTimes(@Param("id") Integer id, @Param("plannedStartAt") LocalDateTime plannedStartAt,
+      @Param("plannedEndAt") LocalDateTime plannedEndAt);
+
+  /** Lưu vị trí phát (bulk update, không tăng @Version) */
+  @Transactional
+  @Modifying
+  @Query("""
+        update StreamSession ss
+        set ss.playbackPositionMs = :positionMs
+        where ss.id = :id
+      """)
+  int updatePlaybackPosition(@Param("id") Integer id, @Param("positionMs") Long positionMs);
+
+  /** Ghi kết quả prefetch (bulk update, không tăng @Version) */
+  @Transactional
+  @Modifying
+  @Query("""
+        update StreamSession ss
+        set ss.effectiveVideoList = :videoList,
+            ss.effectiveSourceHash = :sourceHash
+        where ss.id = :id
+      """)
+  int updateEffectiveVideoList(@Param("id") Integer id, @Param("videoList") String videoList,
+      @Param("sourceHash") String sourceHash);
+
+  /** Session SCHEDULED sẽ start trước mốc until (cần prefetch) */
+  @Query("""
+        select ss
+        from StreamSession ss
+        where ss.status = 'SCHEDULED'
+          and ss.plannedStartAt <= :until
+        order by ss.plannedStartAt
+      """)
+  List<StreamSession> findScheduledStartingBefore(@Param("until") LocalDateTime until, Pageable pageable);
+
+  /**
+   * Số session còn sống (SCHEDULED / STARTING / ACTIVE) có bản prefetch trỏ vào path.
+   * Session đã dừng không giữ blob, kể cả khi cột chưa được xóa.
+   */
+  @Query("""
+        select count(ss)
+        from StreamSession ss
+        where ss.status in ('SCHEDULED','STARTING','ACTIVE')
+          and ss.effectiveVideoList like concat('%', :path, '%')
+      """)
+  long countLiveByEffectiveVideoListContaining(@Param("path") String path);
 }
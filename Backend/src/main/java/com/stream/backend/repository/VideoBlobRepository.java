@@ -0,0 +1,55 @@
+package com.stream.backend.repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.stream.backend.entity.VideoBlob;
+
+public interface VideoBlobRepository extends JpaRepository<VideoBlob, Integer> {
+
+  Optional<VideoBlob> findBySha256(String sha256);
+
+  Optional<VideoBlob> findByPath(String path);
+
+  Optional<VideoBlob> findFirstBySourceUrlOrderByIdDesc(String sourceUrl);
+
+  /** Đếm lại ref_count từ bảng ref (tự sửa nếu lệch) */
+  @Transactional
+  @Modifying
+  @Query("""
+        update VideoBlob b
+        set b.refCount = (select count(r) from VideoRef r where r.blobId = b.id),
+            b.refChangedAt = :now
+        where b.id = :id
+      """)
+  int recountRefs(@Param("id") Integer id, @Param("now") LocalDateTime now);
+
+  /** Blob không còn ai dùng, đã quá thời gian chờ */
+  @Query("""
+        select b
+        from VideoBlob b
+        where b.refCount = 0
+          and b.refChangedAt < :cutoff
+        order by b.id
+      """)
+  List<VideoBlob> findUnreferenced(@Param("cutoff") LocalDateTime cutoff, Pageable pageable);
+
+  /** Xóa dòng blob nếu vẫn 0 ref tại thời điểm xóa; trả về 1 nếu đã xóa */
+  @Transactional
+  @Modifying
+  @Query("""
+        delete from VideoBlob b
+        where b.id = :id
+          and b.refCount = 0
+          and not exists (select 1 from VideoRef r where r.blobId = b.id)
+      """)
+  int deleteIfUnreferenced(@Param("id") Integer id);
+}
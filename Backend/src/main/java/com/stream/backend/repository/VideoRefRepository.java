@@ -0,0 +1,21 @@
+package com.stream.backend.repository;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.stream.backend.entity.VideoRef;
+
+public interface VideoRefRepository extends JpaRepository<VideoRef, Integer> {
+
+  List<VideoRef> findByStreamId(Integer streamId);
+
+  @Transactional
+  @Modifying
+  @Query("delete from VideoRef r where r.streamId = :streamId and r.blobId = :blobId")
+  int deleteRef(@Param("streamId") Integer streamId, @Param("blobId") Integer blobId);
+}
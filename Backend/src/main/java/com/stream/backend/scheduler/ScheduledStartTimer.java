@@ -0,0 +1,243 @@
+package com.stream.backend.scheduler;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.stream.backend.entity.Stream;
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.service.StreamSessionService;
+import com.stream.backend.youtube.YouTubeLiveService;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hẹn giờ start cho các session SCHEDULED, thay cho việc quét bảng mỗi 10 giây.
+ *
+ * Mỗi stream có tối đa 1 timer (ScheduledThreadPoolExecutor = hàng đợi ưu tiên
+ * theo thời điểm chạy), bắn đúng timeStart; lúc rảnh không tốn gì. Timer chỉ
+ * chuyển việc sang {@link SchedulerActionExecutor}, việc start FFmpeg không chạy
+ * trên thread timer.
+ *
+ * Nạp từ DB lúc app sẵn sàng, được StreamServiceImpl đồng bộ sau mỗi lần
+ * tạo/sửa/xóa stream, và StreamScheduler đối soát định kỳ (lưới an toàn).
+ */
+@Slf4j
+@Component
+public class ScheduledStartTimer {
+
+    private record Entry(LocalDateTime timeStart, ScheduledFuture<?> future) {
+    }
+
+    private final StreamSessionRepository streamSessionRepository;
+    private final StreamSessionService streamSessionService;
+    private final YouTubeLiveService youTubeLiveService;
+    private final SchedulerActionExecutor actionExecutor;
+
+    /** streamId → timer đang chờ */
+    private final Map<Integer, Entry> timers = new ConcurrentHashMap<>();
+
+    /** Start sớm hơn timeStart bấy nhiêu giây để admission kịp giãn cách mà vẫn lên sóng đúng giờ */
+    @Value("${stream.schedule.preRollSeconds:0}")
+    private long preRollSeconds;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    public ScheduledStartTimer(
+            StreamSessionRepository streamSessionRepository,
+            StreamSessionService streamSessionService,
+            YouTubeLiveService youTubeLiveService,
+            SchedulerActionExecutor actionExecutor) {
+        this.streamSessionRepository = streamSessionRepository;
+        this.streamSessionService = streamSessionService;
+        this.youTubeLiveService = youTubeLiveService;
+        this.actionExecutor = actionExecutor;
+    }
+
+    @PostConstruct
+    void init() {
+        timer = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "Schedule-Timer");
+            t.setDaemon(true);
+            return t;
+        });
+        // Hủy/đổi lịch thì bỏ luôn khỏi hàng đợi, không để task chết nằm chờ
+        timer.setRemoveOnCancelPolicy(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        timer.shutdownNow();
+    }
+
+    /** Nạp toàn bộ session SCHEDULED lúc khởi động */
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadFromDatabase() {
+        int loaded = reconcile();
+        log.info("[SCHEDULE-TIMER] Loaded {} scheduled start(s)", loaded);
+    }
+
+    /**
+     * Đối soát timer với DB: thêm/đổi timer cho mọi session SCHEDULED.
+     * Session quá giờ mà chưa start (VD: app vừa bật lại) sẽ bắn ngay.
+     *
+     * @return số session SCHEDULED đã duyệt
+     */
+    public int reconcile() {
+        int page = 0;
+        int size = 500;
+        int count = 0;
+
+        Page<StreamSession> p;
+        do {
+            p = streamSessionRepository.findByStatusIgnoreCase(
+                    "SCHEDULED",
+                    PageRequest.of(page, size, Sort.by(Sort.Direction.ASC, "id")));
+
+            for (StreamSession session : p.getContent()) {
+                Stream stream = session.getStream();
+                if (stream == null || stream.getTimeStart() == null)
+                    continue;
+                schedule(stream.getId(), stream.getTimeStart());
+                count++;
+            }
+
+            page++;
+        } while (!p.isLast());
+
+        return count;
+    }
+
+    /**
+     * Đồng bộ timer cho 1 stream theo trạng thái trong DB. Nếu đang trong
+     * transaction thì chờ commit xong mới đọc lại, tránh đọc dữ liệu cũ.
+     */
+    public void sync(Integer streamId) {
+        if (streamId == null)
+            return;
+
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    syncNow(streamId);
+                }
+            });
+        } else {
+            syncNow(streamId);
+        }
+    }
+
+    /** Stream bị xóa → bỏ timer */
+    public void cancel(Integer streamId) {
+        Entry old = timers.remove(streamId);
+        if (old != null) {
+            old.future().cancel(false);
+            log.info("[SCHEDULE-TIMER] Cancelled streamId={}", streamId);
+        }
+    }
+
+    public int pendingTimers() {
+        return timers.size();
+    }
+
+    private void syncNow(Integer streamId) {
+        try {
+            StreamSession session = streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).orElse(null);
+            Stream stream = session != null ? session.getStream() : null;
+            if (stream == null
+                    || stream.getTimeStart() == null
+                    || !"SCHEDULED".equalsIgnoreCase(session.getStatus())) {
+                cancel(streamId);
+                return;
+            }
+            schedule(streamId, stream.getTimeStart());
+        } catch (Exception e) {
+            // Lượt đối soát định kỳ sẽ sửa lại
+            log.error("[SCHEDULE-TIMER] Sync failed for streamId={}", streamId, e);
+        }
+    }
+
+    private void schedule(Integer streamId, LocalDateTime timeStart) {
+        timers.compute(streamId, (id, old) -> {
+            if (old != null) {
+                if (old.timeStart().equals(timeStart) && !old.future().isDone()) {
+                    return old;
+                }
+                old.future().cancel(false);
+            }
+
+            long delayMs = Math.max(0, Duration.between(LocalDateTime.now(), fireAt(timeStart)).toMillis());
+            ScheduledFuture<?> future = timer.schedule(
+                    () -> actionExecutor.submit("start", id, () -> fire(id, timeStart)),
+                    delayMs, TimeUnit.MILLISECONDS);
+
+            log.debug("[SCHEDULE-TIMER] streamId={} fires in {} ms ({})", id, delayMs, timeStart);
+            return new Entry(timeStart, future);
+        });
+    }
+
+    private LocalDateTime fireAt(LocalDateTime timeStart) {
+        return timeStart.minusSeconds(Math.max(0, preRollSeconds));
+    }
+
+    private void fire(Integer streamId, LocalDateTime timeStart) {
+        Entry entry = timers.get(streamId);
+        if (entry != null && entry.timeStart().equals(timeStart)) {
+            timers.remove(streamId, entry);
+        }
+
+        StreamSession session = streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).orElse(null);
+        if (session == null || !"SCHEDULED".equalsIgnoreCase(session.getStatus())) {
+            log.debug("[SCHEDULE-TIMER] streamId={} no longer SCHEDULED, skip", streamId);
+            return;
+        }
+
+        Stream stream = session.getStream();
+        if (stream == null || stream.getTimeStart() == null)
+            return;
+
+        // Lịch đã bị đổi sang muộn hơn mà timer cũ vẫn kịp bắn → hẹn lại
+        if (fireAt(stream.getTimeStart()).isAfter(LocalDateTime.now())) {
+            schedule(streamId, stream.getTimeStart());
+            return;
+        }
+
+        log.info("[AUTO-START] sessionId={}, streamId={} (timer)", session.getId(), streamId);
+
+        try {
+            StreamSession started = streamSessionService.startScheduledSession(session.getId());
+
+            if (started != null && "ACTIVE".equalsIgnoreCase(started.getStatus())) {
+                try {
+                    youTubeLiveService.transitionBroadcast(stream, "live");
+                } catch (Exception ex) {
+                    log.warn("[AUTO-START] transition 'live' failed for streamId={} (ignored): {}",
+                            streamId, ex.getMessage());
+                }
+            } else {
+                log.warn("[AUTO-START] sessionId={} not ACTIVE (status={})",
+                        session.getId(), started != null ? started.getStatus() : "null");
+            }
+        } catch (Exception e) {
+            log.error("[AUTO-START] failed sessionId=" + session.getId(), e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.stream.backend.scheduler;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool worker chạy các hành động của scheduler (start / stop / restart) song song,
+ * tách khỏi thread @Scheduled để 1 lần start chậm không chặn watchdog hay dọn dẹp.
+ *
+ * - Tối đa maxInFlight hành động chạy cùng lúc, hàng đợi có giới hạn.
+ * - Token bucket giới hạn tốc độ bắt đầu hành động (tránh bật hàng trăm FFmpeg 1 lúc).
+ * - Cùng 1 key (VD: "start:12") đang chờ/chạy thì bỏ qua lần submit trùng.
+ * - Metric: scheduler.action.wait (chờ trong hàng + chờ token), scheduler.action.exec,
+ *   scheduler.action.rejected, scheduler.action.queued; tag action.
+ */
+@Slf4j
+@Component
+public class SchedulerActionExecutor {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${stream.scheduler.actions.maxInFlight:8}")
+    private int maxInFlight;
+
+    @Value("${stream.scheduler.actions.queueCapacity:1000}")
+    private int queueCapacity;
+
+    @Value("${stream.scheduler.actions.ratePerSecond:2}")
+    private double ratePerSecond;
+
+    @Value("${stream.scheduler.actions.burst:5}")
+    private int burst;
+
+    private ThreadPoolExecutor pool;
+    private TokenBucket tokens;
+
+    /** Key đang chờ hoặc đang chạy */
+    private final Set<String> pendingKeys = ConcurrentHashMap.newKeySet();
+
+    public SchedulerActionExecutor(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = new ThreadPoolExecutor(
+                maxInFlight, maxInFlight,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "Scheduler-Action-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        tokens = new TokenBucket(ratePerSecond, burst);
+
+        Gauge.builder("scheduler.action.queued", pool, p -> p.getQueue().size())
+                .description("Scheduler actions waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("scheduler.action.active", pool, ThreadPoolExecutor::getActiveCount)
+                .description("Scheduler actions currently running")
+                .register(meterRegistry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Đưa 1 hành động vào hàng đợi.
+     *
+     * @param action loại hành động (start, stop, restart) — dùng làm tag metric
+     * @param id     đối tượng (streamId / sessionId) để chống submit trùng
+     * @return false nếu đã có hành động cùng key đang chờ/chạy hoặc hàng đợi đầy
+     */
+    public boolean submit(String action, Object id, Runnable task) {
+        String key = action + ":" + id;
+        if (!pendingKeys.add(key)) {
+            log.debug("[SCHEDULER-ACTION] {} already pending, skip", key);
+            return false;
+        }
+
+        long queuedAt = System.nanoTime();
+        try {
+            pool.execute(() -> run(action, key, queuedAt, task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            pendingKeys.remove(key);
+            Counter.builder("scheduler.action.rejected").tag("action", action)
+                    .register(meterRegistry).increment();
+            log.warn("[SCHEDULER-ACTION] Queue full, rejected {}", key);
+            return false;
+        }
+    }
+
+    private void run(String action, String key, long queuedAt, Runnable task) {
+        try {
+            tokens.acquire();
+            Timer.builder("scheduler.action.wait").tag("action", action)
+                    .register(meterRegistry).record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+
+            long startedAt = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                Timer.builder("scheduler.action.exec").tag("action", action)
+                        .register(meterRegistry).record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            log.error("[SCHEDULER-ACTION] {} failed", key, e);
+        } finally {
+            pendingKeys.remove(key);
+        }
+    }
+
+    /** Token bucket đơn giản: nạp ratePerSecond token/giây, tối đa burst token */
+    private static final class TokenBucket {
+
+        private final double ratePerNano;
+        private final double capacity;
+        private double available;
+        private long lastRefill;
+
+        TokenBucket(double ratePerSecond, int burst) {
+            this.ratePerNano = ratePerSecond / 1_000_000_000.0;
+            this.capacity = Math.max(1, burst);
+            this.available = capacity;
+            this.lastRefill = System.nanoTime();
+        }
+
+        void acquire() throws InterruptedException {
+            if (ratePerNano <= 0)
+                return;
+
+            while (true) {
+                long waitNanos;
+                synchronized (this) {
+                    long now = System.nanoTime();
+                    available = Math.min(capacity, available + (now - lastRefill) * ratePerNano);
+                    lastRefill = now;
+                    if (available >= 1) {
+                        available -= 1;
+                        return;
+                    }
+                    waitNanos = (long) ((1 - available) / ratePerNano);
+                }
+                TimeUnit.NANOSECONDS.sleep(Math.max(waitNanos, 1_000_000L));
+            }
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.stream.backend.scheduler;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.context.SmartLifecycle;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Component;
+
+import com.stream.backend.entity.Stream;
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.ffmpeg.DetachedProcessRegistry;
+import com.stream.backend.repository.StreamRepository;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.service.FfmpegService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Đối soát 1 lần lúc khởi động, giữa process FFmpeg thực tế trên máy và session trong DB,
+ * trước khi watchdog / timer chạy (SmartLifecycle start trước khi các @Scheduled được đăng ký
+ * và trước ApplicationReadyEvent).
+ *
+ * Quét ProcessHandle.allProcesses tìm process ffmpeg đang đẩy lên rtmp://.../{streamKey}, chỉ giữ
+ * các key có trong tblstream hoặc có bản ghi PID detached (ffmpeg của app khác / instance khác /
+ * operator đẩy tay lên key lạ thì không đụng tới):
+ *
+ * - Process FfmpegService đã nhận lại (detached, có bản ghi PID) → giữ; process khác cùng key
+ *   là publisher trùng → kill.
+ * - Process không được quản lý (JVM trước chết, không đọc được output) → kill; session ACTIVE
+ *   tương ứng được restart bình thường.
+ * - Key không có session ACTIVE → kill (đẩy lên stream đã dừng).
+ * - Session ACTIVE không còn process → giao cho watchdog restart trong 1 lượt.
+ * - Session STARTING (JVM chết giữa lúc start) → ERROR để user start lại.
+ *
+ * OS không cho đọc tham số dòng lệnh của process khác (VD Windows) thì chỉ dựa vào bản ghi PID.
+ */
+@Slf4j
+@Component
+public class StartupReconciler implements SmartLifecycle {
+
+    private static final int PAGE_SIZE = 200;
+
+    private final StreamSessionRepository streamSessionRepository;
+    private final StreamRepository streamRepository;
+    private final FfmpegService ffmpegService;
+    private final StreamScheduler streamScheduler;
+    private final DetachedProcessRegistry processRegistry;
+
+    private volatile boolean running;
+
+    public StartupReconciler(
+            StreamSessionRepository streamSessionRepository,
+            StreamRepository streamRepository,
+            FfmpegService ffmpegService,
+            StreamScheduler streamScheduler,
+            DetachedProcessRegistry processRegistry) {
+        this.streamSessionRepository = streamSessionRepository;
+        this.streamRepository = streamRepository;
+        this.ffmpegService = ffmpegService;
+        this.streamScheduler = streamScheduler;
+        this.processRegistry = processRegistry;
+    }
+
+    @Override
+    public void start() {
+        running = true;
+        try {
+            reconcile();
+        } catch (Exception e) {
+            // Không chặn khởi động; watchdog vẫn là lưới an toàn
+            log.error("[RECONCILE] Startup reconciliation failed", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    void reconcile() {
+        Map<String, StreamSession> active = sessionsByKey("ACTIVE");
+        Map<String, StreamSession> starting = sessionsByKey("STARTING");
+        Map<String, List<ProcessHandle>> processes = scanFfmpegProcesses();
+
+        int killed = 0;
+        int adopted = 0;
+        List<StreamSession> toRestart = new ArrayList<>();
+
+        for (Map.Entry<String, List<ProcessHandle>> e : processes.entrySet()) {
+            String streamKey = e.getKey();
+            if (!isOurKey(streamKey, e.getValue())) {
+                log.info("[RECONCILE] Ignoring {} FFmpeg process(es) for unknown streamKey={}",
+                        e.getValue().size(), streamKey);
+                continue;
+            }
+            Long managedPid = active.containsKey(streamKey) ? ffmpegService.getPid(streamKey) : null;
+
+            for (ProcessHandle h : e.getValue()) {
+                if (managedPid != null && managedPid == h.pid())
+                    continue;
+                log.warn("[RECONCILE] Killing {} FFmpeg pid={} for streamKey={}",
+                        managedPid != null ? "duplicate" : active.containsKey(streamKey) ? "unmanaged" : "orphaned",
+                        h.pid(), streamKey);
+                kill(h);
+                killed++;
+            }
+        }
+
+        for (Map.Entry<String, StreamSession> e : active.entrySet()) {
+            if (ffmpegService.isStreamAlive(e.getKey())) {
+                adopted++;
+            } else {
+                toRestart.add(e.getValue());
+            }
+        }
+
+        for (StreamSession session : starting.values()) {
+            markInterrupted(session);
+        }
+
+        log.info("[RECONCILE] {} ACTIVE session(s): {} running, {} to restart; killed {} process(es); "
+                + "{} interrupted start(s)", active.size(), adopted, toRestart.size(), killed, starting.size());
+
+        if (!toRestart.isEmpty()) {
+            streamScheduler.recoverAfterStartup(toRestart);
+        }
+    }
+
+    private Map<String, StreamSession> sessionsByKey(String status) {
+        Map<String, StreamSession> map = new HashMap<>();
+        int page = 0;
+        Page<StreamSession> p;
+        do {
+            p = streamSessionRepository.findByStatusIgnoreCase(status,
+                    PageRequest.of(page, PAGE_SIZE, Sort.by(Sort.Direction.ASC, "id")));
+            for (StreamSession session : p.getContent()) {
+                Stream stream = session.getStream();
+                if (stream != null && stream.getKeyStream() != null && !stream.getKeyStream().isBlank()) {
+                    map.put(stream.getKeyStream(), session);
+                }
+            }
+            page++;
+        } while (!p.isLast());
+        return map;
+    }
+
+    /** Key có trong tblstream, hoặc 1 trong các process là PID detached mình đã ghi */
+    private boolean isOurKey(String streamKey, List<ProcessHandle> handles) {
+        if (streamRepository.existsByKeyStream(streamKey))
+            return true;
+        DetachedProcessRegistry.Entry entry = processRegistry.get(streamKey);
+        if (entry == null)
+            return false;
+        return processRegistry.resolve(entry)
+                .map(registered -> handles.stream().anyMatch(h -> h.pid() == registered.pid()))
+                .orElse(false);
+    }
+
+    /** streamKey → các process ffmpeg đang đẩy lên key đó (cũ nhất trước) */
+    private Map<String, List<ProcessHandle>> scanFfmpegProcesses() {
+        long self = ProcessHandle.current().pid();
+        Map<String, List<ProcessHandle>> map = new HashMap<>();
+
+        ProcessHandle.allProcesses()
+                .filter(h -> h.pid() != self)
+                .forEach(h -> {
+                    String key = rtmpKeyOf(h);
+                    if (key != null) {
+                        map.computeIfAbsent(key, k -> new ArrayList<>()).add(h);
+                    }
+                });
+
+        Comparator<ProcessHandle> oldestFirst = Comparator.comparing(
+                h -> h.info().startInstant().orElse(null),
+                Comparator.nullsLast(Comparator.naturalOrder()));
+        map.values().forEach(list -> list.sort(oldestFirst));
+        return map;
+    }
+
+    /** streamKey nếu là ffmpeg đẩy RTMP, ngược lại null */
+    static String rtmpKeyOf(ProcessHandle h) {
+        ProcessHandle.Info info = h.info();
+        String command = info.command().orElse("");
+        if (!command.toLowerCase().contains("ffmpeg"))
+            return null;
+
+        String[] args = info.arguments().orElse(null);
+        if (args == null)
+            return null;
+
+        for (int i = args.length - 1; i >= 0; i--) {
+            String a = args[i];
+            if (a.startsWith("rtmp://") || a.startsWith("rtmps://")) {
+                int slash = a.lastIndexOf('/');
+                String key = slash >= 0 ? a.substring(slash + 1) : null;
+                return key == null || key.isBlank() ? null : key;
+            }
+        }
+        return null;
+    }
+
+    private static void kill(ProcessHandle h) {
+        h.destroy();
+        try {
+            h.onExit().get(3, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            h.destroyForcibly();
+        }
+    }
+
+    private void markInterrupted(StreamSession session) {
+        try {
+            session.setStatus("ERROR");
+            session.setLastError("START_INTERRUPTED_BY_RESTART");
+            session.setLastErrorAt(LocalDateTime.now());
+            streamSessionRepository.save(session);
+        } catch (Exception e) {
+            log.warn("[RECONCILE] Cannot mark sessionId={} ERROR: {}", session.getId(), e.getMessage());
+        }
+    }
+}
@@ -2,21 +2,29 @@ package com.stream.backend.scheduler;
 
 import com.stream.backend.entity.Stream;
 import com.stream.backend.entity.StreamSession;
+import com.stream.backend.ffmpeg.FfmpegProcessDiedEvent;
+import com.stream.backend.ffmpeg.FfmpegStallDetector;
 import com.stream.backend.repository.StreamRepository;
 import com.stream.backend.repository.StreamSessionRepository;
 import com.stream.backend.service.FfmpegService;
+import com.stream.backend.service.RestartPolicyService;
 import com.stream.backend.service.StreamSessionService;
 import com.stream.backend.youtube.YouTubeLiveService;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Sort;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import java.io.File;
 import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -31,47 +39,127 @@ public class StreamScheduler {
     private final StreamRepository streamRepository;
     private final YouTubeLiveService youTubeLiveService;
     private final FfmpegService ffmpegService;
+    private final ScheduledStartTimer scheduledStartTimer;
+    private final SchedulerActionExecutor actionExecutor;
+    private final FfmpegStallDetector stallDetector;
+    private final RestartPolicyService restartPolicy;
+    private final TaskScheduler taskScheduler;
 
     private static final String VIDEO_DIR = "D:\\videos";
 
-    /**
-     * Watchdog: Số lần đã restart cho mỗi sessionId.
-     * Giới hạn tối đa MAX_WATCHDOG_RETRIES lần để tránh loop vô hạn.
-     */
-    private static final int MAX_WATCHDOG_RETRIES = 5;
-    private final ConcurrentHashMap<Integer, Integer> watchdogRetryCounts = new ConcurrentHashMap<>();
+    /** Số session tối đa xử lý mỗi tick (phần còn lại để tick sau) */
+    private static final int DUE_BATCH = 200;
+
+    /** Timer bắn đúng giờ; quá giờ bấy nhiêu giây mà còn SCHEDULED mới coi là bị sót */
+    private static final int OVERDUE_GRACE_SECONDS = 5;
+
+    /** Session đang được watchdog xử lý (tránh event và lượt quét restart trùng) */
+    private final Set<Integer> recoveringSessions = ConcurrentHashMap.newKeySet();
+
+    /** Session đã hẹn giờ restart sau backoff (tránh hẹn trùng) */
+    private final Set<Integer> delayedRestarts = ConcurrentHashMap.newKeySet();
 
     public StreamScheduler(
             StreamSessionRepository streamSessionRepository,
             StreamSessionService streamSessionService,
             StreamRepository streamRepository,
             YouTubeLiveService youTubeLiveService,
-            FfmpegService ffmpegService) {
+            FfmpegService ffmpegService,
+            ScheduledStartTimer scheduledStartTimer,
+            SchedulerActionExecutor actionExecutor,
+            FfmpegStallDetector stallDetector,
+            RestartPolicyService restartPolicy,
+            TaskScheduler taskScheduler) {
         this.streamSessionRepository = streamSessionRepository;
         this.streamSessionService = streamSessionService;
         this.streamRepository = streamRepository;
         this.youTubeLiveService = youTubeLiveService;
         this.ffmpegService = ffmpegService;
+        this.scheduledStartTimer = scheduledStartTimer;
+        this.actionExecutor = actionExecutor;
+        this.stallDetector = stallDetector;
+        this.restartPolicy = restartPolicy;
+        this.taskScheduler = taskScheduler;
     }
 
     @Scheduled(fixedDelay = 10_000)
     public void autoStartAndStop() {
         LocalDateTime now = LocalDateTime.now();
-        autoStartScheduledSessions(now);
+        autoStartOverdueSessions(now);
         autoStopExpiredSessions(now);
     }
 
     /**
-     * WATCHDOG: Phát hiện và tự động restart FFmpeg process đã chết cho session
-     * ACTIVE.
-     * Chạy mỗi 15 giây để phản ứng nhanh, tránh YouTube hiển thị "No Data".
+     * Dữ liệu cũ chưa có planned_start_at / planned_end_at → tính 1 lần lúc khởi động
+     * (entity tự tính lại mỗi lần lưu).
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void backfillPlannedTimes() {
+        int total = 0;
+        List<StreamSession> batch;
+        do {
+            batch = streamSessionRepository.findMissingPlannedTimes(PageRequest.of(0, 200));
+            for (StreamSession session : batch) {
+                session.refreshPlannedTimes();
+            }
+            streamSessionRepository.saveAll(batch);
+            total += batch.size();
+        } while (!batch.isEmpty());
+
+        if (total > 0) {
+            log.info("[SCHEDULER] Backfilled planned start/end for {} session(s)", total);
+        }
+    }
+
+    /**
+     * Start đúng giờ do ScheduledStartTimer đảm nhận; lượt quét này chỉ đối soát
+     * timer với DB (sửa DB trực tiếp, sync lỗi, ...) nên chạy thưa.
+     */
+    @Scheduled(fixedDelay = 600_000, initialDelay = 600_000)
+    public void reconcileScheduledStarts() {
+        try {
+            int count = scheduledStartTimer.reconcile();
+            log.debug("[SCHEDULE-TIMER] Reconciled {} scheduled session(s), {} timer(s) pending",
+                    count, scheduledStartTimer.pendingTimers());
+        } catch (Exception e) {
+            log.error("[SCHEDULE-TIMER] Reconcile failed", e);
+        }
+    }
+
+    /**
+     * WATCHDOG (event-driven): FFmpeg vừa tự chết → restart ngay, không đợi lượt quét.
+     * Event chỉ bắn cho process đã start OK nên không cần grace period 60 giây.
+     */
+    @Async
+    @EventListener
+    public void onFfmpegProcessDied(FfmpegProcessDiedEvent event) {
+        StreamSession session = streamSessionRepository
+                .findFirstByStreamKeyStreamAndStatusIgnoreCase(event.streamKey(), "ACTIVE")
+                .orElse(null);
+        if (session == null) {
+            log.info("[WATCHDOG] FFmpeg died for streamKey={} (exit={}) but no ACTIVE session, ignored",
+                    event.streamKey(), event.exitCode());
+            return;
+        }
+
+        log.warn("[WATCHDOG] FFmpeg died for sessionId={} (exit={}), recovering immediately",
+                session.getId(), event.exitCode());
+        checkAndRecover(session);
+    }
+
+    /**
+     * WATCHDOG (lưới an toàn): Quét định kỳ các session ACTIVE mà FFmpeg không còn
+     * sống nhưng chưa được xử lý qua event (VD: start lỗi giữa chừng, backend reload),
+     * hoặc còn sống nhưng bị stall (out_time đứng yên / chậm hơn realtime).
      *
      * Logic:
      * 1. Quét tất cả session ACTIVE
      * 2. Bỏ qua session mới start < 60 giây (đang khởi động)
-     * 3. Kiểm tra FFmpeg còn sống không (isStreamAlive + getLatestStat)
-     * 4. Nếu đã chết → restart, giới hạn tối đa 5 lần restart
-     * 5. Nếu vượt quá giới hạn → đánh dấu ERROR
+     * 3. Kiểm tra FFmpeg còn sống không (isStreamAlive) và có tiến triển không (FfmpegStallDetector)
+     *    ngay trên thread quét; còn chạy tốt thì lưu vị trí phát
+     * 4. Nếu đã chết / stall → mới giao SchedulerActionExecutor restart (lý do ghi vào lastError)
+     *    theo RestartPolicyService: chưa hết backoff thì hẹn giờ restart, hết budget trong cửa sổ
+     *    thì đánh dấu ERROR
      */
     @Scheduled(fixedDelay = 15_000)
     public void autoRecoverDeadSessions() {
@@ -85,65 +173,173 @@ public class StreamScheduler {
                     PageRequest.of(page, size, Sort.by(Sort.Direction.ASC, "id")));
 
             for (StreamSession session : p.getContent()) {
-                Stream stream = session.getStream();
-                if (stream == null)
-                    continue;
-
-                String streamKey = stream.getKeyStream();
-                if (streamKey == null || streamKey.isBlank())
-                    continue;
-
                 // Bỏ qua session mới start < 60 giây (FFmpeg đang khởi động)
                 LocalDateTime startedAt = session.getStartedAt();
                 if (startedAt != null && startedAt.plusSeconds(60).isAfter(LocalDateTime.now())) {
                     continue;
                 }
 
-                // Kiểm tra FFmpeg còn sống không
-                boolean alive = ffmpegService.isStreamAlive(streamKey);
-                if (alive) {
-                    // Process còn sống → reset retry count (đã hồi phục thành công trước đó)
-                    watchdogRetryCounts.remove(session.getId());
-                    continue;
-                }
+                checkAndRecover(session);
+            }
 
-                // FFmpeg đã chết — kiểm tra retry count
-                int retryCount = watchdogRetryCounts.getOrDefault(session.getId(), 0);
-
-                if (retryCount >= MAX_WATCHDOG_RETRIES) {
-                    // Đã retry quá nhiều → đánh dấu ERROR
-                    log.error("[WATCHDOG] Max retries ({}) exceeded for sessionId={}, marking ERROR",
-                            MAX_WATCHDOG_RETRIES, session.getId());
-                    try {
-                        session.setStatus("ERROR");
-                        session.setLastError("WATCHDOG_MAX_RETRIES_EXCEEDED");
-                        session.setLastErrorAt(LocalDateTime.now());
-                        streamSessionRepository.save(session);
-                    } catch (Exception e) {
-                        log.error("[WATCHDOG] Failed to mark ERROR for sessionId={}", session.getId(), e);
-                    }
-                    watchdogRetryCounts.remove(session.getId());
-                    continue;
-                }
+            page++;
+        } while (!p.isLast());
+    }
+
+    /**
+     * Giao 1 lượt cho watchdog các session ACTIVE không còn process (do StartupReconciler
+     * phát hiện lúc khởi động); SchedulerActionExecutor giãn nhịp nên không restart dồn cục.
+     */
+    public void recoverAfterStartup(List<StreamSession> sessions) {
+        for (StreamSession session : sessions) {
+            checkAndRecover(session);
+        }
+    }
+
+    /**
+     * Kiểm tra FFmpeg ngay trên thread gọi (isStreamAlive / stall detector chỉ đọc bộ nhớ);
+     * chỉ session thật sự cần restart mới chiếm token + worker của SchedulerActionExecutor,
+     * để start/stop đến hạn không phải xếp sau hàng trăm lượt kiểm tra session khỏe.
+     */
+    private void checkAndRecover(StreamSession session) {
+        Stream stream = session.getStream();
+        if (stream == null)
+            return;
+
+        String streamKey = stream.getKeyStream();
+        if (streamKey == null || streamKey.isBlank())
+            return;
+
+        if (recoveringSessions.contains(session.getId())) {
+            log.debug("[WATCHDOG] sessionId={} is already being recovered", session.getId());
+            return;
+        }
+
+        // Kiểm tra FFmpeg còn sống không, còn sống thì có thực sự đang chạy không
+        boolean alive = ffmpegService.isStreamAlive(streamKey);
+        String reason = null;
+        if (alive) {
+            reason = stallDetector.check(streamKey, ffmpegService.getLatestStat(streamKey),
+                    System.currentTimeMillis());
+            if (reason == null) {
+                savePlaybackPosition(session.getId(), streamKey);
+                return;
+            }
+            log.warn("[WATCHDOG] FFmpeg alive but stalled for sessionId={}: {}", session.getId(), reason);
+            saveLastError(session.getId(), reason);
+        }
+
+        String stallReason = reason;
+        actionExecutor.submit("restart", session.getId(),
+                () -> recoverDeadSession(session, streamKey, alive, stallReason));
+    }
 
-                // Restart FFmpeg
-                retryCount++;
-                watchdogRetryCounts.put(session.getId(), retryCount);
-                log.warn("[WATCHDOG] FFmpeg dead for sessionId={}, streamId={}, attempt {}/{}",
-                        session.getId(), stream.getId(), retryCount, MAX_WATCHDOG_RETRIES);
+    /**
+     * Chạy trên SchedulerActionExecutor cho session đã xác định là chết / stall.
+     *
+     * @param reason lý do stall (null nếu process đã chết)
+     */
+    private void recoverDeadSession(StreamSession session, String streamKey, boolean alive, String reason) {
+        Stream stream = session.getStream();
+        if (!recoveringSessions.add(session.getId())) {
+            log.debug("[WATCHDOG] sessionId={} is already being recovered", session.getId());
+            return;
+        }
 
+        try {
+            // Trong lúc chờ token, lượt khác (event / hẹn giờ) có thể đã restart xong
+            if (!alive && ffmpegService.isStreamAlive(streamKey)) {
+                log.debug("[WATCHDOG] sessionId={} already running again, skip restart", session.getId());
+                return;
+            }
+
+            // FFmpeg đã chết hoặc bị stall — hỏi restart policy
+            RestartPolicyService.Decision decision = restartPolicy.decide(session.getId());
+
+            if (decision.action() == RestartPolicyService.Action.GIVE_UP) {
+                // Restart quá nhiều trong cửa sổ → đánh dấu ERROR
+                log.error("[WATCHDOG] Restart budget ({} in window) exceeded for sessionId={}, marking ERROR",
+                        decision.attemptsInWindow(), session.getId());
+                // Không save bản session của lượt quét: saveLastError vừa tăng @Version nên sẽ
+                // luôn dính optimistic lock → ghi thẳng bằng bulk update
                 try {
-                    streamSessionService.restartFfmpegForActiveSession(session);
-                    log.info("[WATCHDOG] Restart OK for sessionId={}, attempt {}/{}",
-                            session.getId(), retryCount, MAX_WATCHDOG_RETRIES);
+                    int updated = streamSessionRepository.markActiveAsError(session.getId(),
+                            reason != null
+                                    ? "WATCHDOG_RESTART_BUDGET_EXCEEDED: " + reason
+                                    : "WATCHDOG_RESTART_BUDGET_EXCEEDED",
+                            LocalDateTime.now());
+                    if (updated > 0 && alive) {
+                        // Process stall vẫn còn giữ stream key → dừng hẳn
+                        stallDetector.reset(streamKey);
+                        ffmpegService.stopStream(streamKey);
+                    }
                 } catch (Exception e) {
-                    log.error("[WATCHDOG] Restart FAILED for sessionId={}, attempt {}/{}: {}",
-                            session.getId(), retryCount, MAX_WATCHDOG_RETRIES, e.getMessage());
+                    log.error("[WATCHDOG] Failed to mark ERROR for sessionId={}", session.getId(), e);
                 }
+                return;
             }
 
-            page++;
-        } while (!p.isLast());
+            if (decision.action() == RestartPolicyService.Action.WAIT) {
+                scheduleDelayedRestart(session, decision.retryAt());
+                return;
+            }
+
+            // Restart FFmpeg
+            restartPolicy.recordAttempt(session.getId());
+            int attempt = decision.attemptsInWindow() + 1;
+            int budget = restartPolicy.getMaxPerWindow();
+            log.warn("[WATCHDOG] FFmpeg {} for sessionId={}, streamId={}, attempt {}/{} in window",
+                    alive ? "stalled" : "dead", session.getId(), stream.getId(), attempt, budget);
+
+            try {
+                stallDetector.reset(streamKey);
+                streamSessionService.restartFfmpegForActiveSession(session);
+                log.info("[WATCHDOG] Restart OK for sessionId={}, attempt {}/{}",
+                        session.getId(), attempt, budget);
+            } catch (Exception e) {
+                log.error("[WATCHDOG] Restart FAILED for sessionId={}, attempt {}/{}: {}",
+                        session.getId(), attempt, budget, e.getMessage());
+            }
+        } finally {
+            recoveringSessions.remove(session.getId());
+        }
+    }
+
+    /** Chưa hết backoff → hẹn đúng lúc được restart thay vì đợi lượt quét sau */
+    private void scheduleDelayedRestart(StreamSession session, LocalDateTime retryAt) {
+        if (!delayedRestarts.add(session.getId()))
+            return;
+
+        log.info("[WATCHDOG] sessionId={} in backoff, restart scheduled at {}", session.getId(), retryAt);
+        taskScheduler.schedule(() -> {
+            delayedRestarts.remove(session.getId());
+            checkAndRecover(session);
+        }, retryAt.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /** Lưu vị trí phát để restart sau khi backend khởi động lại vẫn tiếp tục đúng chỗ */
+    private void savePlaybackPosition(Integer sessionId, String streamKey) {
+        Long position = ffmpegService.getPlaybackPositionMs(streamKey);
+        if (position == null)
+            return;
+        try {
+            streamSessionRepository.updatePlaybackPosition(sessionId, position);
+        } catch (Exception e) {
+            log.warn("[WATCHDOG] Cannot save playback position for sessionId={}: {}", sessionId, e.getMessage());
+        }
+    }
+
+    /** Ghi lý do stall vào lastError (session vẫn ACTIVE) để FE/admin thấy */
+    private void saveLastError(Integer sessionId, String reason) {
+        try {
+            streamSessionRepository.findById(sessionId).ifPresent(fresh -> {
+                fresh.setLastError(reason);
+                fresh.setLastErrorAt(LocalDateTime.now());
+                streamSessionRepository.save(fresh);
+            });
+        } catch (Exception e) {
+            log.warn("[WATCHDOG] Cannot save lastError for sessionId={}: {}", sessionId, e.getMessage());
+        }
     }
 
     /**
@@ -285,95 +481,48 @@ public class StreamScheduler {
                 deletedCount, freedBytes / (1024 * 1024), protectedCount);
     }
 
-    private void autoStartScheduledSessions(LocalDateTime now) {
-        int page = 0;
-        int size = 200;
-
-        Page<StreamSession> p;
-        do {
-            p = streamSessionRepository.findByStatusIgnoreCase(
-                    "SCHEDULED",
-                    PageRequest.of(page, size, Sort.by(Sort.Direction.ASC, "id")));
-
-            for (StreamSession session : p.getContent()) {
-                Stream stream = session.getStream();
-                if (stream == null || stream.getTimeStart() == null)
-                    continue;
-                if (stream.getTimeStart().isAfter(now))
-                    continue;
-
-                log.info("[AUTO-START] sessionId={}, streamId={}", session.getId(), stream.getId());
-
-                try {
-                    StreamSession started = streamSessionService.startScheduledSession(session.getId());
-
-                    if (started != null && "ACTIVE".equalsIgnoreCase(started.getStatus())) {
-                        try {
-                            youTubeLiveService.transitionBroadcast(stream, "live");
-                        } catch (Exception ex) {
-                            log.warn("[AUTO-START] transition 'live' failed for streamId={} (ignored): {}",
-                                    stream.getId(), ex.getMessage());
-                        }
-                    } else {
-                        log.warn("[AUTO-START] sessionId={} not ACTIVE (status={})",
-                                session.getId(), started != null ? started.getStatus() : "null");
-                    }
-
-                } catch (Exception e) {
-                    log.error("[AUTO-START] failed sessionId=" + session.getId(), e);
-                }
-            }
-
-            page++;
-        } while (!p.isLast());
-    }
-
+    /**
+     * Chỉ lấy id các session ACTIVE đã hết giờ (planned_end_at <= now), không
+     * nạp toàn bộ session ACTIVE để tính trong Java.
+     */
     private void autoStopExpiredSessions(LocalDateTime now) {
-        int page = 0;
-        int size = 200;
-
-        Page<StreamSession> p;
-        do {
-            p = streamSessionRepository.findByStatusIgnoreCase(
-                    "ACTIVE",
-                    PageRequest.of(page, size, Sort.by(Sort.Direction.ASC, "id")));
-
-            for (StreamSession session : p.getContent()) {
-                Stream stream = session.getStream();
-                if (stream == null)
-                    continue;
+        List<Integer> dueIds = streamSessionRepository.findExpiredActiveSessionIds(now, PageRequest.of(0, DUE_BATCH));
 
-                Integer duration = stream.getDuration();
-                if (duration == null)
-                    continue;
-                if (duration == -1)
-                    continue;
+        for (Integer sessionId : dueIds) {
+            StreamSession session = streamSessionRepository.findById(sessionId).orElse(null);
+            if (session == null || !"ACTIVE".equalsIgnoreCase(session.getStatus()))
+                continue;
 
-                LocalDateTime base = session.getStartedAt() != null ? session.getStartedAt() : stream.getTimeStart();
-                if (base == null)
-                    continue;
+            Stream stream = session.getStream();
+            if (stream == null)
+                continue;
 
-                LocalDateTime endTime = base.plusMinutes(duration);
-                if (endTime.isAfter(now))
-                    continue;
+            log.info("[AUTO-STOP] sessionId={}, streamId={}", session.getId(), stream.getId());
 
-                log.info("[AUTO-STOP] sessionId={}, streamId={}", session.getId(), stream.getId());
+            actionExecutor.submit("stop", session.getId(), () -> {
+                streamSessionService.stopStreamSession(session);
 
                 try {
-                    streamSessionService.stopStreamSession(session);
-
-                    try {
-                        youTubeLiveService.transitionBroadcast(stream, "complete");
-                    } catch (Exception ex) {
-                        log.warn("[AUTO-STOP] transition 'complete' failed for streamId={} (ignored): {}",
-                                stream.getId(), ex.getMessage());
-                    }
-                } catch (Exception e) {
-                    log.error("[AUTO-STOP] failed sessionId=" + session.getId(), e);
+                    youTubeLiveService.transitionBroadcast(stream, "complete");
+                } catch (Exception ex) {
+                    log.warn("[AUTO-STOP] transition 'complete' failed for streamId={} (ignored): {}",
+                            stream.getId(), ex.getMessage());
                 }
-            }
+            });
+        }
+    }
 
-            page++;
-        } while (!p.isLast());
+    /**
+     * Session SCHEDULED đã quá giờ mà timer chưa bắn (sync lỗi, sửa DB tay...)
+     * → giao lại cho timer bắn ngay.
+     */
+    private void autoStartOverdueSessions(LocalDateTime now) {
+        List<Integer> streamIds = streamSessionRepository.findDueScheduledStreamIds(
+                now.minusSeconds(OVERDUE_GRACE_SECONDS), PageRequest.of(0, DUE_BATCH));
+
+        for (Integer streamId : streamIds) {
+            log.info("[AUTO-START] streamId={} overdue, handing to timer", streamId);
+            scheduledStartTimer.sync(streamId);
+        }
     }
 }
@@ -0,0 +1,160 @@
+package com.stream.backend.scheduler;
+
+import java.io.File;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.stream.backend.download.VideoSources;
+import com.stream.backend.entity.Stream;
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.ffmpeg.MediaDurationProbe;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.service.DownloadManagerService;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Tải trước video từ URL (HTTP / Google Drive) cho các session SCHEDULED sắp tới giờ,
+ * để FFmpeg đọc file local thay vì kéo lại từ remote mỗi vòng -stream_loop.
+ *
+ * Session start trong vòng leadMinutes tới mà videoList có URL → đưa vào hàng đợi của
+ * DownloadManagerService; tải xong, kiểm tra file (dung lượng, ffprobe đọc được thời lượng)
+ * rồi ghi effective_video_list = videoList với URL thay bằng file trong kho.
+ *
+ * Lúc start, VideoSources.resolve chỉ dùng effective_video_list nếu còn khớp videoList
+ * hiện tại và file còn đủ; chưa prefetch xong / lỗi thì FFmpeg đọc thẳng URL như cũ.
+ */
+@Slf4j
+@Component
+public class VideoPrefetcher {
+
+    private static final int PAGE_SIZE = 100;
+
+    private final StreamSessionRepository streamSessionRepository;
+    private final DownloadManagerService downloadManager;
+    private final MediaDurationProbe durationProbe;
+
+    @Value("${stream.prefetch.enabled:true}")
+    private boolean enabled = true;
+
+    /** Bắt đầu tải trước timeStart bấy nhiêu phút */
+    @Value("${stream.prefetch.leadMinutes:120}")
+    private long leadMinutes = 120;
+
+    @Value("${stream.prefetch.verifyWithFfprobe:true}")
+    private boolean verifyWithFfprobe = true;
+
+    /** sessionId đang chờ tải, để lượt quét sau không xếp lại */
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+
+    public VideoPrefetcher(
+            StreamSessionRepository streamSessionRepository,
+            DownloadManagerService downloadManager,
+            MediaDurationProbe durationProbe) {
+        this.streamSessionRepository = streamSessionRepository;
+        this.downloadManager = downloadManager;
+        this.durationProbe = durationProbe;
+    }
+
+    @Scheduled(fixedDelayString = "${stream.prefetch.scanIntervalMs:60000}", initialDelay = 30_000)
+    public void scan() {
+        if (!enabled)
+            return;
+
+        LocalDateTime until = LocalDateTime.now().plusMinutes(leadMinutes);
+        List<StreamSession> due = streamSessionRepository.findScheduledStartingBefore(until,
+                PageRequest.of(0, PAGE_SIZE));
+        for (StreamSession session : due) {
+            try {
+                prefetch(session);
+            } catch (Exception e) {
+                log.warn("[PREFETCH] sessionId={} failed to queue: {}", session.getId(), e.getMessage());
+            }
+        }
+    }
+
+    void prefetch(StreamSession session) {
+        Stream stream = session.getStream();
+        if (stream == null)
+            return;
+
+        String normalized = VideoSources.normalizeList(stream.getVideoList());
+        List<String> sources = VideoSources.split(normalized);
+        if (sources.stream().noneMatch(VideoSources::isRemote)) {
+            // Không có URL (hoặc videoList đã đổi sang file local) → bỏ bản prefetch cũ
+            if (session.getEffectiveVideoList() != null) {
+                streamSessionRepository.updateEffectiveVideoList(session.getId(), null, null);
+            }
+            return;
+        }
+
+        String fingerprint = VideoSources.fingerprint(normalized);
+        String resolved = VideoSources.resolve(stream.getVideoList(), session.getEffectiveVideoList(),
+                session.getEffectiveSourceHash());
+        if (!Objects.equals(resolved, normalized))
+            return; // đã prefetch xong, file còn đủ
+
+        if (!inFlight.add(session.getId()))
+            return;
+
+        List<CompletableFuture<String>> futures = new ArrayList<>(sources.size());
+        try {
+            for (String source : sources) {
+                futures.add(VideoSources.isRemote(source)
+                        ? downloadManager.fetch(source)
+                        : CompletableFuture.completedFuture(source));
+            }
+        } catch (RuntimeException e) {
+            inFlight.remove(session.getId());
+            throw e;
+        }
+
+        log.info("[PREFETCH] sessionId={} queued {} remote source(s), timeStart={}", session.getId(),
+                sources.stream().filter(VideoSources::isRemote).count(), stream.getTimeStart());
+
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new))
+                .whenComplete((v, err) -> {
+                    try {
+                        if (err != null) {
+                            log.warn("[PREFETCH] sessionId={} download failed, will stream from URL: {}",
+                                    session.getId(), err.getMessage());
+                            return;
+                        }
+                        List<String> local = futures.stream().map(CompletableFuture::join).toList();
+                        for (int i = 0; i < local.size(); i++) {
+                            // Chỉ kiểm tra file vừa tải; đường dẫn local của user giữ nguyên như cũ
+                            if (VideoSources.isRemote(sources.get(i)) && !verify(local.get(i))) {
+                                log.warn("[PREFETCH] sessionId={} verification failed for {}, will stream from URL",
+                                        session.getId(), local.get(i));
+                                return;
+                            }
+                        }
+                        streamSessionRepository.updateEffectiveVideoList(session.getId(),
+                                String.join("\n", local), fingerprint);
+                        log.info("[PREFETCH] sessionId={} ready: {}", session.getId(), local);
+                    } catch (Exception e) {
+                        log.warn("[PREFETCH] sessionId={} failed: {}", session.getId(), e.getMessage());
+                    } finally {
+                        inFlight.remove(session.getId());
+                    }
+                });
+    }
+
+    /** File có dữ liệu và (nếu bật) ffprobe đọc được thời lượng */
+    private boolean verify(String path) {
+        File f = new File(path);
+        if (!f.isFile() || f.length() == 0)
+            return false;
+        return !verifyWithFfprobe || durationProbe.durationMs(path) > 0;
+    }
+}
@@ -1,28 +1,30 @@
 package com.stream.backend.service;
 
+import com.stream.backend.download.VideoSources;
 import com.stream.backend.entity.Stream;
 import com.stream.backend.entity.StreamSession;
 import com.stream.backend.repository.StreamRepository;
 import com.stream.backend.repository.StreamSessionRepository;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.InputStream;
-import java.net.URL;
-import java.net.URLConnection;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Service xử lý bất đồng bộ: tải video mới về VPS rồi Hot-Swap FFmpeg
  * cho luồng đang ACTIVE mà không làm treo UI.
+ *
+ * Thread @Async chỉ kiểm tra + xếp nguồn vào DownloadManagerService rồi trả về ngay;
+ * phần cập nhật DB + swap FFmpeg chạy khi tải xong, trên pool riêng "Video-Swap-N",
+ * nên lượt tải dài không giữ thread của executor @Async mặc định.
  */
 @Slf4j
 @Service
@@ -31,22 +33,45 @@ public class AsyncVideoSwapService {
     private final FfmpegService ffmpegService;
     private final StreamRepository streamRepository;
     private final StreamSessionRepository streamSessionRepository;
+    private final VideoStoreService videoStoreService;
+    private final DownloadManagerService downloadManager;
 
-    @Value("${stream.video.dir:D:\\\\videos}")
-    private String videoDir;
+    @Value("${stream.swap.threads:2}")
+    private int swapThreads = 2;
+
+    private ExecutorService swapExecutor;
 
     public AsyncVideoSwapService(
             FfmpegService ffmpegService,
             StreamRepository streamRepository,
-            StreamSessionRepository streamSessionRepository) {
+            StreamSessionRepository streamSessionRepository,
+            VideoStoreService videoStoreService,
+            DownloadManagerService downloadManager) {
         this.ffmpegService = ffmpegService;
         this.streamRepository = streamRepository;
         this.streamSessionRepository = streamSessionRepository;
+        this.videoStoreService = videoStoreService;
+        this.downloadManager = downloadManager;
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        swapExecutor = Executors.newFixedThreadPool(Math.max(1, swapThreads), r -> {
+            Thread t = new Thread(r, "Video-Swap-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        swapExecutor.shutdownNow();
     }
 
     /**
      * Tải video mới về VPS rồi tự động swap FFmpeg cho luồng đang ACTIVE.
-     * Chạy hoàn toàn trên thread nền (@Async), không block caller.
+     * Không block caller; thread @Async cũng không chờ lượt tải.
      *
      * @param streamId    ID của Stream cần swap
      * @param rawVideoUrl Link video mới (Google Drive, NAS, hoặc URL HTTP)
@@ -78,11 +103,9 @@ public class AsyncVideoSwapService {
             }
 
             // 3. Chuẩn hóa link (Google Drive → direct download URL)
-            String downloadUrl = normalizeVideoSource(rawVideoUrl);
+            String downloadUrl = VideoSources.normalize(rawVideoUrl);
 
             // 4. Xác định video mới là file local sẵn có hay cần tải về
-            String newLocalPath;
-
             if (isLocalFile(downloadUrl)) {
                 // File local hoặc NAS path → kiểm tra tồn tại
                 File localFile = new File(downloadUrl);
@@ -90,52 +113,48 @@ public class AsyncVideoSwapService {
                     log.error("[ASYNC-SWAP] File local không tồn tại: {}", downloadUrl);
                     return;
                 }
-                newLocalPath = localFile.getAbsolutePath();
-                log.info("[ASYNC-SWAP] Sử dụng file local có sẵn: {}", newLocalPath);
-            } else {
-                // URL → tải về thư mục D:\videos
-                String fileName = generateAutoFileName();
-                File destFile = new File(videoDir, fileName);
-
-                // Đảm bảo thư mục tồn tại
-                File dir = new File(videoDir);
-                if (!dir.exists()) {
-                    dir.mkdirs();
-                }
+            }
 
-                log.info("[ASYNC-SWAP] Đang tải từ {} về {}", downloadUrl, destFile.getAbsolutePath());
-                downloadFile(downloadUrl, destFile);
-                log.info("[ASYNC-SWAP] Tải hoàn tất: {} ({} MB)",
-                        destFile.getAbsolutePath(), destFile.length() / (1024 * 1024));
+            // Tải / import vào kho qua hàng đợi chung (nhiều stream cùng link chỉ tải 1 lần)
+            log.info("[ASYNC-SWAP] Đang đưa {} vào kho video", downloadUrl);
+            downloadManager.fetch(downloadUrl)
+                    .thenAcceptAsync(newLocalPath -> swapTo(streamId, streamKey, newLocalPath), swapExecutor)
+                    .exceptionally(e -> {
+                        Throwable cause = e.getCause() != null ? e.getCause() : e;
+                        log.error("[ASYNC-SWAP] ❌ Lỗi trong quá trình tải/swap video cho streamId={}: {}",
+                                streamId, cause.getMessage(), cause);
+                        return null;
+                    });
 
-                newLocalPath = destFile.getAbsolutePath();
-            }
+        } catch (Exception e) {
+            log.error("[ASYNC-SWAP] ❌ Lỗi trong quá trình tải/swap video cho streamId={}: {}",
+                    streamId, e.getMessage(), e);
+        }
+    }
 
+    /** Tải xong → lưu videoList mới và Hot-Swap FFmpeg (chạy trên swapExecutor) */
+    private void swapTo(Integer streamId, String streamKey, String newLocalPath) {
+        log.info("[ASYNC-SWAP] Video mới: {}", newLocalPath);
+
+        try {
             // 5. Kiểm tra lại session vẫn ACTIVE trước khi swap (tránh race condition)
-            session = streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).orElse(null);
+            StreamSession session = streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).orElse(null);
             if (session == null || !"ACTIVE".equalsIgnoreCase(session.getStatus())) {
                 log.warn("[ASYNC-SWAP] Stream {} không còn ACTIVE sau khi tải xong, hủy swap", streamId);
                 return;
             }
 
-            // 6. Lưu đường dẫn video mới vào Database
-            // Xóa video cũ trước nếu là file local khác file mới
-            String oldVideoList = stream.getVideoList();
-            if (oldVideoList != null && !oldVideoList.isBlank()
-                    && !oldVideoList.equals(newLocalPath) && isLocalFile(oldVideoList)) {
-                try {
-                    File oldFile = new File(oldVideoList.trim());
-                    if (oldFile.exists()) {
-                        oldFile.delete();
-                        log.info("[ASYNC-SWAP] Đã xóa video cũ: {}", oldVideoList);
-                    }
-                } catch (Exception e) {
-                    log.warn("[ASYNC-SWAP] Lỗi xóa video cũ: {}", e.getMessage());
-                }
+            // 6. Lưu đường dẫn video mới vào Database, chuyển ref kho video sang video mới
+            // (video cũ chỉ bị xóa khi không stream nào khác dùng). Đọc lại stream vì đã qua lượt tải dài.
+            Stream stream = streamRepository.findById(streamId).orElse(null);
+            if (stream == null) {
+                log.warn("[ASYNC-SWAP] Stream {} đã bị xóa trong lúc tải, hủy swap", streamId);
+                return;
             }
-
+            String oldVideoList = stream.getVideoList();
             stream.setVideoList(newLocalPath);
             streamRepository.save(stream);
+            videoStoreService.updateReferences(streamId, oldVideoList, newLocalPath);
 
             // 7. HOT-SWAP: Kill FFmpeg cũ → Start FFmpeg mới
             log.info("[ASYNC-SWAP] Đang Hot-Swap FFmpeg cho streamKey={}", streamKey);
@@ -149,6 +168,8 @@ public class AsyncVideoSwapService {
 
             log.info("[ASYNC-SWAP] ✅ Hot-Swap thành công! streamId={}, video={}", streamId, newLocalPath);
 
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (Exception e) {
             log.error("[ASYNC-SWAP] ❌ Lỗi trong quá trình tải/swap video cho streamId={}: {}",
                     streamId, e.getMessage(), e);
@@ -157,64 +178,6 @@ public class AsyncVideoSwapService {
 
     // ======================== HELPER METHODS ========================
 
-    /**
-     * Tải file từ URL về đĩa
-     */
-    private void downloadFile(String fileUrl, File destFile) throws Exception {
-        if (isLocalFile(fileUrl)) {
-            // NAS path → copy file
-            java.nio.file.Files.copy(
-                    new File(fileUrl).toPath(),
-                    destFile.toPath(),
-                    java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            return;
-        }
-
-        URL url = new URL(fileUrl);
-        URLConnection conn = url.openConnection();
-        conn.setRequestProperty("User-Agent",
-                "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36");
-        conn.setConnectTimeout(15000);
-        conn.setReadTimeout(300000); // 5 phút cho file lớn
-
-        try (InputStream in = conn.getInputStream();
-                FileOutputStream out = new FileOutputStream(destFile)) {
-
-            byte[] buffer = new byte[8192];
-            int bytesRead;
-            long totalRead = 0;
-            long lastLogTime = 0;
-
-            while ((bytesRead = in.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
-                totalRead += bytesRead;
-
-                // Log tiến trình mỗi 10 giây
-                long now = System.currentTimeMillis();
-                if (now - lastLogTime > 10000) {
-                    log.info("[ASYNC-SWAP] Đang tải... {} MB", totalRead / (1024 * 1024));
-                    lastLogTime = now;
-                }
-            }
-        }
-    }
-
-    /**
-     * Chuẩn hóa link Google Drive thành direct download URL
-     */
-    private String normalizeVideoSource(String raw) {
-        if (raw == null)
-            return null;
-        raw = raw.trim();
-
-        Pattern p = Pattern.compile("https?://drive\\.google\\.com/file/d/([^/]+)/view.*");
-        Matcher m = p.matcher(raw);
-        if (m.matches()) {
-            return "https://drive.google.com/uc?export=download&id=" + m.group(1);
-        }
-        return raw;
-    }
-
     /**
      * Kiểm tra xem đường dẫn có phải file local (không phải URL)
      */
@@ -223,13 +186,4 @@ public class AsyncVideoSwapService {
             return false;
         return !path.startsWith("http://") && !path.startsWith("https://");
     }
-
-    /**
-     * Tự sinh tên file tránh trùng: swap_HHmmss_ddMMyy.mp4
-     */
-    private String generateAutoFileName() {
-        LocalDateTime now = LocalDateTime.now();
-        DateTimeFormatter fmt = DateTimeFormatter.ofPattern("HHmmss_ddMMyy");
-        return "swap_" + now.format(fmt) + ".mp4";
-    }
 }
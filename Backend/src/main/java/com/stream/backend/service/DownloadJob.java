@@ -0,0 +1,103 @@
+package com.stream.backend.service;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * 1 lần tải / import video vào kho (xem {@link DownloadManagerService}).
+ * QUEUED → RUNNING → DONE | FAILED
+ */
+@Getter
+public class DownloadJob {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String RUNNING = "RUNNING";
+    public static final String DONE = "DONE";
+    public static final String FAILED = "FAILED";
+
+    private final String jobId;
+    /** URL (đã chuẩn hóa) hoặc đường dẫn file local */
+    private final String source;
+    private final LocalDateTime createdAt;
+
+    private volatile String status = QUEUED;
+    private volatile long bytesDone;
+    /** -1 nếu server không báo dung lượng */
+    private volatile long totalBytes = -1;
+    private volatile double bytesPerSecond;
+    /** Đường dẫn trong kho khi DONE */
+    private volatile String path;
+    private volatile String lastError;
+    private volatile LocalDateTime startedAt;
+    private volatile LocalDateTime updatedAt;
+
+    @Getter(AccessLevel.NONE)
+    private final AtomicInteger waiters = new AtomicInteger();
+
+    @Getter(AccessLevel.NONE)
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    public DownloadJob(String jobId, String source) {
+        this.jobId = jobId;
+        this.source = source;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public boolean isFinished() {
+        return DONE.equals(status) || FAILED.equals(status);
+    }
+
+    /** Số yêu cầu đang chờ chung lần tải này */
+    public int getWaiters() {
+        return waiters.get();
+    }
+
+    /** Thời gian còn lại ước tính (giây), -1 nếu chưa tính được */
+    public long getEtaSeconds() {
+        if (!RUNNING.equals(status) || totalBytes <= 0 || bytesPerSecond <= 0)
+            return -1;
+        return (long) Math.ceil(Math.max(0, totalBytes - bytesDone) / bytesPerSecond);
+    }
+
+    CompletableFuture<String> result() {
+        return result;
+    }
+
+    void addWaiter() {
+        waiters.incrementAndGet();
+    }
+
+    void markRunning() {
+        this.startedAt = LocalDateTime.now();
+        update(RUNNING, null);
+    }
+
+    void progress(long bytesDone, long totalBytes, double bytesPerSecond) {
+        this.bytesDone = bytesDone;
+        this.totalBytes = totalBytes;
+        this.bytesPerSecond = bytesPerSecond;
+        this.updatedAt = LocalDateTime.now();
+    }
+
+    void markDone(String path) {
+        this.path = path;
+        update(DONE, null);
+        result.complete(path);
+    }
+
+    void markFailed(Throwable error) {
+        update(FAILED, error.getMessage() != null ? error.getMessage() : error.getClass().getSimpleName());
+        result.completeExceptionally(error);
+    }
+
+    private void update(String status, String lastError) {
+        this.status = status;
+        this.lastError = lastError;
+        this.updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,259 @@
+package com.stream.backend.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.stream.backend.download.ContentHash;
+import com.stream.backend.download.LocalFileImporter;
+import com.stream.backend.download.RangedHttpDownloader;
+import com.stream.backend.entity.VideoBlob;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hàng đợi tải video vào kho (URL hoặc file local / NAS):
+ *
+ * - Nhiều yêu cầu cùng nguồn trong lúc đang tải → gộp vào 1 lần tải, cùng nhận kết quả.
+ * - Tối đa maxConcurrent lần tải chạy song song (không tranh đĩa / mạng với FFmpeg), còn lại xếp hàng.
+ * - Mỗi lần tải giới hạn maxBytesPerSecond.
+ * - Tiến độ (byte, tốc độ, ETA) giữ trong bộ nhớ để FE hỏi qua REST.
+ */
+@Slf4j
+@Service
+public class DownloadManagerService {
+
+    /** Job đã xong được giữ lại bao lâu để FE kịp hỏi trạng thái */
+    private static final long FINISHED_JOB_TTL_MINUTES = 60;
+
+    private final RangedHttpDownloader downloader;
+    private final LocalFileImporter fileImporter;
+    private final VideoStoreService videoStoreService;
+
+    private final Map<String, DownloadJob> jobs = new ConcurrentHashMap<>();
+
+    /** Job chưa xong theo nguồn, để gộp yêu cầu trùng */
+    private final Map<String, DownloadJob> runningBySource = new ConcurrentHashMap<>();
+
+    @Value("${stream.download.maxConcurrent:2}")
+    private int maxConcurrent = 2;
+
+    @Value("${stream.download.queueCapacity:100}")
+    private int queueCapacity = 100;
+
+    @Value("${stream.download.maxBytesPerSecond:0}")
+    private long maxBytesPerSecond;
+
+    private ThreadPoolExecutor pool;
+
+    public DownloadManagerService(
+            RangedHttpDownloader downloader,
+            LocalFileImporter fileImporter,
+            VideoStoreService videoStoreService) {
+        this.downloader = downloader;
+        this.fileImporter = fileImporter;
+        this.videoStoreService = videoStoreService;
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        int threads = Math.max(1, maxConcurrent);
+        pool = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(Math.max(1, queueCapacity)),
+                r -> {
+                    Thread t = new Thread(r, "Download-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Xếp nguồn vào hàng đợi; nguồn đang tải / đang chờ thì trả lại job đó.
+     *
+     * @param source URL đã chuẩn hóa hoặc đường dẫn file local
+     * @throws RejectedExecutionException nếu hàng đợi đầy
+     */
+    public DownloadJob submit(String source) {
+        purgeFinishedJobs();
+
+        String key = source.trim();
+        DownloadJob job = new DownloadJob(UUID.randomUUID().toString(), key);
+        job.addWaiter();
+        DownloadJob existing = runningBySource.putIfAbsent(key, job);
+        if (existing != null) {
+            existing.addWaiter();
+            log.info("[DOWNLOAD-MGR] Joined jobId={} for {} ({} waiter(s))", existing.getJobId(), key,
+                    existing.getWaiters());
+            return existing;
+        }
+
+        jobs.put(job.getJobId(), job);
+        try {
+            pool.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            runningBySource.remove(key, job);
+            jobs.remove(job.getJobId());
+            throw e;
+        }
+
+        log.info("[DOWNLOAD-MGR] Queued jobId={} for {} (running {}, queued {})", job.getJobId(), key,
+                pool.getActiveCount(), pool.getQueue().size());
+        return job;
+    }
+
+    /** submit + đường dẫn trong kho khi tải xong */
+    public CompletableFuture<String> fetch(String source) {
+        return submit(source).result();
+    }
+
+    public Optional<DownloadJob> getJob(String jobId) {
+        return Optional.ofNullable(jobId == null ? null : jobs.get(jobId));
+    }
+
+    /** Job mới nhất trước */
+    public List<DownloadJob> listJobs() {
+        purgeFinishedJobs();
+        return jobs.values().stream()
+                .sorted(Comparator.comparing(DownloadJob::getCreatedAt).reversed())
+                .toList();
+    }
+
+    private void run(DownloadJob job) {
+        job.markRunning();
+        try {
+            String source = job.getSource();
+            String path = isUrl(source) ? downloadToStore(job, source) : importLocal(job, new File(source));
+            job.markDone(path);
+            log.info("[DOWNLOAD-MGR] jobId={} DONE: {}", job.getJobId(), path);
+        } catch (Throwable e) {
+            job.markFailed(e);
+            log.warn("[DOWNLOAD-MGR] jobId={} FAILED: {}", job.getJobId(), e.getMessage());
+        } finally {
+            runningBySource.remove(job.getSource(), job);
+        }
+    }
+
+    /**
+     * File local / NAS → kho video (hard link / transferTo). Nội dung đã có trong kho thì
+     * dùng luôn blob cũ (bản vừa đưa vào bị xóa).
+     *
+     * Hash tính trên bản đã đưa vào thư mục tạm của kho (đĩa local, vừa ghi xong nên phần lớn
+     * còn trong page cache) thay vì đọc file nguồn thêm 1 lần: file NAS vài GB chỉ đọc qua mạng 1 lần.
+     */
+    private String importLocal(DownloadJob job, File localFile) throws IOException {
+        if (!localFile.isFile()) {
+            throw new IOException("File không tồn tại: " + localFile.getPath());
+        }
+        if (videoStoreService.isStorePath(localFile.getPath())) {
+            return localFile.getAbsolutePath();
+        }
+
+        long size = localFile.length();
+        job.progress(0, size, 0);
+        String ext = extensionOf(localFile.getName());
+        Path tmp = videoStoreService.tempDir().resolve("import_" + job.getJobId() + ext);
+        fileImporter.importFile(localFile.toPath(), tmp);
+        VideoBlob blob;
+        try {
+            String sha256 = ContentHash.sha256(tmp);
+            blob = videoStoreService.ingest(tmp, sha256, ext, null);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        job.progress(size, size, 0);
+        return blob.getPath();
+    }
+
+    /**
+     * URL → kho video. URL đã tải trước đó (file còn, dung lượng khớp) thì không tải lại;
+     * nội dung trùng blob có sẵn thì chỉ giữ 1 bản.
+     */
+    private String downloadToStore(DownloadJob job, String url) throws IOException {
+        long remoteSize;
+        try {
+            remoteSize = downloader.remoteSize(url);
+        } catch (IOException e) {
+            remoteSize = -1;
+        }
+        VideoBlob blob = videoStoreService.findBySourceUrl(url, remoteSize);
+        if (blob != null) {
+            log.info("[DOWNLOAD-MGR] Đã có bản tải trước của {}: {}", url, blob.getPath());
+            job.progress(blob.getSizeBytes(), blob.getSizeBytes(), 0);
+            return blob.getPath();
+        }
+
+        // Tên cố định theo URL để tải lại thì resume được
+        File destFile = videoStoreService.tempDir().resolve(generateDownloadFileName(url)).toFile();
+        long[] lastLogTime = { 0 };
+        RangedHttpDownloader.Result result = downloader.download(url, destFile, (done, total, bps) -> {
+            job.progress(done, total, bps);
+            // Log tiến trình mỗi 10 giây
+            long now = System.currentTimeMillis();
+            if (now - lastLogTime[0] > 10000) {
+                log.info("[DOWNLOAD-MGR] jobId={} {} / {} MB ({} MB/s)", job.getJobId(),
+                        done / (1024 * 1024), total > 0 ? total / (1024 * 1024) : "?",
+                        String.format("%.1f", bps / (1024 * 1024)));
+                lastLogTime[0] = now;
+            }
+        }, maxBytesPerSecond);
+        job.progress(result.bytes(), result.bytes(), result.bytesPerSecond());
+
+        log.info("[DOWNLOAD-MGR] Tốc độ tải trung bình {} MB/s ({} kết nối, resume {} MB)",
+                String.format("%.1f", result.bytesPerSecond() / (1024 * 1024)),
+                result.segments(), result.resumedBytes() / (1024 * 1024));
+
+        return videoStoreService.ingest(destFile.toPath(), result.sha256(), ".mp4", url).getPath();
+    }
+
+    private void purgeFinishedJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(FINISHED_JOB_TTL_MINUTES);
+        jobs.values().removeIf(j -> j.isFinished() && j.getUpdatedAt().isBefore(threshold));
+    }
+
+    private static boolean isUrl(String source) {
+        return source.startsWith("http://") || source.startsWith("https://");
+    }
+
+    /**
+     * Tên file tạm cho URL: swap_{sha256 URL}.mp4, cùng URL → cùng file .part để resume.
+     * Không dùng hashCode (32 bit): 2 URL trùng hash sẽ ghi chung 1 file .part.
+     */
+    private static String generateDownloadFileName(String url) {
+        return "swap_" + ContentHash.sha256(url) + ".mp4";
+    }
+
+    /** ".mp4" từ "abc.mp4" (mặc định .mp4) */
+    private static String extensionOf(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && name.length() - dot <= 6 ? name.substring(dot).toLowerCase() : ".mp4";
+    }
+}
@@ -1,5 +1,8 @@
 package com.stream.backend.service;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import com.stream.backend.entity.FfmpegStat;
 
 public interface FfmpegService {
@@ -13,9 +16,39 @@ public interface FfmpegService {
      */
     void startStream(String videoPath, String rtmpUrl, String streamKey);
 
+    /**
+     * Như {@link #startStream(String, String, String)} nhưng lượt phát đầu bắt đầu từ
+     * startOffsetMs (ms, tính trên playlist); các vòng lặp sau vẫn từ đầu.
+     */
+    void startStream(String videoPath, String rtmpUrl, String streamKey, long startOffsetMs);
+
     void stopStream(String streamKey);
 
+    /**
+     * Giống {@link #startStream} nhưng không block caller: chạy trên executor riêng có giới hạn.
+     * Các lệnh start/stop cùng streamKey (kể cả bản đồng bộ) luôn chạy tuần tự, không xen nhau.
+     */
+    CompletableFuture<Void> startStreamAsync(String videoPath, String rtmpUrl, String streamKey);
+
+    /** Bản không block của {@link #stopStream}, tuần tự theo streamKey như startStreamAsync */
+    CompletableFuture<Void> stopStreamAsync(String streamKey);
+
     FfmpegStat getLatestStat(String streamKey);
 
+    /** Thời gian từ lúc launch tới block progress đầu tiên của lần start gần nhất (ms), null nếu chưa có */
+    Long getTimeToFirstFrameMs(String streamKey);
+
+    /**
+     * Vị trí đang phát trên playlist (ms, chưa chia lấy dư cho thời lượng), còn giữ sau khi
+     * FFmpeg tự chết; null nếu chưa có hoặc đã stopStream.
+     */
+    Long getPlaybackPositionMs(String streamKey);
+
+    /** Tối đa lines dòng log FFmpeg gần nhất của streamKey (cũ → mới), còn giữ sau khi process chết */
+    List<String> getLogTail(String streamKey, int lines);
+
     boolean isStreamAlive(String streamKey);
+
+    /** PID của process FFmpeg đang quản lý cho streamKey (kể cả process được nhận lại), null nếu không có */
+    Long getPid(String streamKey);
 }
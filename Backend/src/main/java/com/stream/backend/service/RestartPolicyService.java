@@ -0,0 +1,166 @@
+package com.stream.backend.service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.repository.StreamSessionRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Chính sách restart dùng chung cho start thủ công, start theo lịch và watchdog:
+ *
+ * - Backoff mũ có jitter: delay = base × 2^n (tối đa maxDelay), lấy ngẫu nhiên trong
+ *   [delay × (1 - jitter), delay] để các stream cùng rớt không restart cùng lúc.
+ * - Budget theo cửa sổ trượt: tối đa maxPerWindow lần restart trong windowMinutes
+ *   (không phải đếm trọn đời), n = số lần trong cửa sổ.
+ * - Trạng thái (mốc các lần restart, thời điểm được restart tiếp) lưu trên
+ *   StreamSession nên không mất khi backend khởi động lại.
+ */
+@Slf4j
+@Service
+public class RestartPolicyService {
+
+    public enum Action {
+        /** Được restart ngay */
+        GO,
+        /** Chưa hết backoff, chờ tới {@link Decision#retryAt()} */
+        WAIT,
+        /** Hết budget trong cửa sổ */
+        GIVE_UP
+    }
+
+    public record Decision(Action action, LocalDateTime retryAt, int attemptsInWindow) {
+    }
+
+    @Value("${stream.restart.baseDelayMs:2000}")
+    private long baseDelayMs;
+
+    @Value("${stream.restart.maxDelayMs:120000}")
+    private long maxDelayMs;
+
+    /** 0..1: phần delay được random hóa */
+    @Value("${stream.restart.jitter:0.5}")
+    private double jitter;
+
+    @Value("${stream.restart.windowMinutes:30}")
+    private long windowMinutes;
+
+    @Value("${stream.restart.maxPerWindow:8}")
+    private int maxPerWindow;
+
+    private final StreamSessionRepository streamSessionRepository;
+
+    public RestartPolicyService(StreamSessionRepository streamSessionRepository) {
+        this.streamSessionRepository = streamSessionRepository;
+    }
+
+    /** Quyết định có restart session này bây giờ không (đọc trạng thái mới nhất từ DB) */
+    public Decision decide(Integer sessionId) {
+        StreamSession session = streamSessionRepository.findById(sessionId).orElse(null);
+        if (session == null) {
+            return new Decision(Action.GIVE_UP, null, 0);
+        }
+
+        List<Long> history = recentHistory(session.getRestartHistory(), System.currentTimeMillis());
+        if (history.size() >= maxPerWindow) {
+            return new Decision(Action.GIVE_UP, null, history.size());
+        }
+
+        LocalDateTime next = session.getNextRestartAt();
+        if (next != null && next.isAfter(LocalDateTime.now())) {
+            return new Decision(Action.WAIT, next, history.size());
+        }
+        return new Decision(Action.GO, null, history.size());
+    }
+
+    /**
+     * Ghi nhận 1 lần restart/start lỗi và tính thời điểm được thử lại.
+     *
+     * @return delay (ms) trước lần thử tiếp theo
+     */
+    public long recordAttempt(Integer sessionId) {
+        StreamSession session = streamSessionRepository.findById(sessionId).orElse(null);
+        if (session == null)
+            return backoffMs(0);
+
+        long now = System.currentTimeMillis();
+        List<Long> history = recentHistory(session.getRestartHistory(), now);
+        long delay = backoffMs(history.size());
+        history.add(now);
+
+        LocalDateTime next = LocalDateTime.now().plusNanos(delay * 1_000_000L);
+        streamSessionRepository.updateRestartState(sessionId, join(history), next);
+
+        log.debug("[RESTART-POLICY] sessionId={} attempt {} in window, next allowed in {} ms",
+                sessionId, history.size(), delay);
+        return delay;
+    }
+
+    /** Người dùng / lịch chủ động start lại → bắt đầu cửa sổ mới */
+    public void reset(Integer sessionId) {
+        if (sessionId != null) {
+            streamSessionRepository.updateRestartState(sessionId, null, null);
+        }
+    }
+
+    /** Delay có jitter cho lần thử thứ attempt (0 = lần đầu) */
+    public long backoffMs(int attempt) {
+        long delay = baseDelayMs;
+        for (int i = 0; i < attempt && delay < maxDelayMs; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxDelayMs);
+
+        double j = Math.max(0, Math.min(1, jitter));
+        long min = (long) (delay * (1 - j));
+        return min >= delay ? delay : ThreadLocalRandom.current().nextLong(min, delay + 1);
+    }
+
+    public int getMaxPerWindow() {
+        return maxPerWindow;
+    }
+
+    /** Chỉ giữ các mốc còn nằm trong cửa sổ */
+    private List<Long> recentHistory(String raw, long nowMs) {
+        List<Long> out = new ArrayList<>();
+        if (raw == null || raw.isBlank())
+            return out;
+
+        long from = nowMs - windowMinutes * 60_000L;
+        for (String part : raw.split(",")) {
+            try {
+                long t = Long.parseLong(part.trim());
+                if (t >= from)
+                    out.add(t);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return out;
+    }
+
+    private static String join(List<Long> history) {
+        return history.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /** Mốc restart dạng thời gian đọc được (cho log/API) */
+    public static List<LocalDateTime> parseHistory(String raw) {
+        if (raw == null || raw.isBlank())
+            return List.of();
+        return Arrays.stream(raw.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .map(s -> LocalDateTime.ofInstant(Instant.ofEpochMilli(Long.parseLong(s)), ZoneId.systemDefault()))
+                .collect(Collectors.toList());
+    }
+}
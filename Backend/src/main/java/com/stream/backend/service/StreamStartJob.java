@@ -0,0 +1,57 @@
+package com.stream.backend.service;
+
+import java.time.LocalDateTime;
+
+import lombok.Getter;
+
+/**
+ * Trạng thái 1 lần "Stream Ngay" chạy nền (xem {@link StreamStartJobService}).
+ * QUEUED → STARTING → ACTIVE | FAILED
+ */
+@Getter
+public class StreamStartJob {
+
+    public static final String QUEUED = "QUEUED";
+    public static final String STARTING = "STARTING";
+    public static final String ACTIVE = "ACTIVE";
+    public static final String FAILED = "FAILED";
+
+    private final String jobId;
+    private final Integer streamId;
+    private final LocalDateTime createdAt;
+
+    private volatile String status = QUEUED;
+    private volatile Integer sessionId;
+    private volatile String lastError;
+    private volatile LocalDateTime updatedAt;
+
+    public StreamStartJob(String jobId, Integer streamId) {
+        this.jobId = jobId;
+        this.streamId = streamId;
+        this.createdAt = LocalDateTime.now();
+        this.updatedAt = this.createdAt;
+    }
+
+    public boolean isFinished() {
+        return ACTIVE.equals(status) || FAILED.equals(status);
+    }
+
+    void markStarting() {
+        update(STARTING, null);
+    }
+
+    void markActive(Integer sessionId) {
+        this.sessionId = sessionId;
+        update(ACTIVE, null);
+    }
+
+    void markFailed(String error) {
+        update(FAILED, error);
+    }
+
+    private void update(String status, String lastError) {
+        this.status = status;
+        this.lastError = lastError;
+        this.updatedAt = LocalDateTime.now();
+    }
+}
@@ -0,0 +1,151 @@
+package com.stream.backend.service;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.repository.StreamRepository;
+import com.stream.backend.repository.StreamSessionRepository;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * "Stream Ngay" không block request: nhận yêu cầu, trả jobId ngay, chạy
+ * startSessionForStream trên pool riêng (có giới hạn) và lưu trạng thái job
+ * trong bộ nhớ để FE hỏi lại.
+ */
+@Slf4j
+@Service
+public class StreamStartJobService {
+
+    /** Job đã xong được giữ lại bao lâu để FE kịp hỏi trạng thái */
+    private static final long FINISHED_JOB_TTL_MINUTES = 60;
+
+    private final StreamSessionService streamSessionService;
+    private final StreamRepository streamRepository;
+    private final StreamSessionRepository streamSessionRepository;
+
+    private final Map<String, StreamStartJob> jobs = new ConcurrentHashMap<>();
+
+    /** Job đang chạy theo streamId, để bấm nhiều lần không start trùng */
+    private final Map<Integer, StreamStartJob> runningByStream = new ConcurrentHashMap<>();
+
+    @Value("${stream.session.startJob.threads:8}")
+    private int threads;
+
+    @Value("${stream.session.startJob.queueCapacity:200}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor pool;
+
+    public StreamStartJobService(
+            StreamSessionService streamSessionService,
+            StreamRepository streamRepository,
+            StreamSessionRepository streamSessionRepository) {
+        this.streamSessionService = streamSessionService;
+        this.streamRepository = streamRepository;
+        this.streamSessionRepository = streamSessionRepository;
+    }
+
+    @PostConstruct
+    void init() {
+        AtomicInteger seq = new AtomicInteger();
+        pool = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "StreamStart-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        pool.allowCoreThreadTimeOut(true);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Kiểm tra nhanh (stream tồn tại, chưa ACTIVE) rồi xếp job vào hàng đợi.
+     * Nếu stream đang có job chạy dở thì trả lại job đó.
+     *
+     * @throws RuntimeException nếu không hợp lệ
+     * @throws RejectedExecutionException nếu hàng đợi đầy
+     */
+    public StreamStartJob submit(Integer streamId) {
+        purgeFinishedJobs();
+
+        if (streamId == null || !streamRepository.existsById(streamId)) {
+            throw new RuntimeException("Stream không tồn tại");
+        }
+
+        StreamSession session = streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).orElse(null);
+        if (session != null && "ACTIVE".equalsIgnoreCase(session.getStatus())) {
+            throw new RuntimeException("Stream đang ACTIVE, không thể Stream Ngay.");
+        }
+
+        StreamStartJob job = new StreamStartJob(UUID.randomUUID().toString(), streamId);
+        StreamStartJob existing = runningByStream.putIfAbsent(streamId, job);
+        if (existing != null) {
+            return existing;
+        }
+
+        jobs.put(job.getJobId(), job);
+        try {
+            pool.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            runningByStream.remove(streamId, job);
+            jobs.remove(job.getJobId());
+            throw e;
+        }
+
+        log.info("[START-JOB] Queued jobId={} for streamId={}", job.getJobId(), streamId);
+        return job;
+    }
+
+    public Optional<StreamStartJob> getJob(String jobId) {
+        return Optional.ofNullable(jobId == null ? null : jobs.get(jobId));
+    }
+
+    private void run(StreamStartJob job) {
+        job.markStarting();
+        try {
+            StreamSession started = streamSessionService.startSessionForStream(job.getStreamId());
+            if (started != null && "ACTIVE".equalsIgnoreCase(started.getStatus())) {
+                job.markActive(started.getId());
+                log.info("[START-JOB] jobId={} ACTIVE (sessionId={})", job.getJobId(), started.getId());
+            } else {
+                String err = started != null && started.getLastError() != null
+                        ? started.getLastError()
+                        : "Session not ACTIVE";
+                job.markFailed(err);
+                log.warn("[START-JOB] jobId={} FAILED: {}", job.getJobId(), err);
+            }
+        } catch (Exception e) {
+            job.markFailed(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            log.warn("[START-JOB] jobId={} FAILED: {}", job.getJobId(), e.getMessage());
+        } finally {
+            runningByStream.remove(job.getStreamId(), job);
+        }
+    }
+
+    private void purgeFinishedJobs() {
+        LocalDateTime threshold = LocalDateTime.now().minusMinutes(FINISHED_JOB_TTL_MINUTES);
+        jobs.values().removeIf(j -> j.isFinished() && j.getUpdatedAt().isBefore(threshold));
+    }
+}
@@ -0,0 +1,349 @@
+package com.stream.backend.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.stream.backend.entity.VideoBlob;
+import com.stream.backend.entity.VideoRef;
+import com.stream.backend.repository.StreamRepository;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.repository.VideoBlobRepository;
+import com.stream.backend.repository.VideoRefRepository;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Kho video lưu theo nội dung: mỗi file nằm ở {storeDir}/{2 ký tự đầu}/{sha256}.{ext},
+ * nhiều stream tải cùng 1 video chỉ tốn 1 bản.
+ *
+ * - Stream dùng blob nào được ghi trong VideoRef; xóa video của stream = bỏ ref, không xóa file.
+ * - GC định kỳ xóa blob 0 ref đã quá gcGraceMinutes (blob mới ingest chưa kịp gắn ref không bị xóa),
+ *   Blob 0 ref mà vẫn nằm trong videoList thì gắn lại ref; còn trong effective_video_list
+ *   (bản prefetch) của session chưa dừng thì giữ lại.
+ * - File cũ nằm ngoài kho (đường dẫn rời trong videoList) vẫn xóa theo đường dẫn, nhưng chỉ khi
+ *   không stream nào khác còn dùng.
+ */
+@Slf4j
+@Service
+public class VideoStoreService {
+
+    private static final int GC_PAGE_SIZE = 100;
+
+    @Value("${stream.video.dir:D:\\\\videos}")
+    private String videoDir;
+
+    /** Trống → {stream.video.dir}/store */
+    @Value("${stream.store.dir:}")
+    private String storeDir;
+
+    @Value("${stream.store.gcGraceMinutes:60}")
+    private long gcGraceMinutes = 60;
+
+    @Value("${stream.store.tmpMaxAgeHours:48}")
+    private long tmpMaxAgeHours = 48;
+
+    private final VideoBlobRepository videoBlobRepository;
+    private final VideoRefRepository videoRefRepository;
+    private final StreamRepository streamRepository;
+    private final StreamSessionRepository streamSessionRepository;
+
+    public VideoStoreService(
+            VideoBlobRepository videoBlobRepository,
+            VideoRefRepository videoRefRepository,
+            StreamRepository streamRepository,
+            StreamSessionRepository streamSessionRepository) {
+        this.videoBlobRepository = videoBlobRepository;
+        this.videoRefRepository = videoRefRepository;
+        this.streamRepository = streamRepository;
+        this.streamSessionRepository = streamSessionRepository;
+    }
+
+    /** Thư mục gốc của kho */
+    public Path storeRoot() {
+        String dir = storeDir == null || storeDir.isBlank() ? new File(videoDir, "store").getPath() : storeDir;
+        return new File(dir).getAbsoluteFile().toPath().normalize();
+    }
+
+    /** Thư mục tạm (cùng filesystem với kho, move vào kho là rename) */
+    public Path tempDir() throws IOException {
+        return Files.createDirectories(storeRoot().resolve("tmp"));
+    }
+
+    public boolean isStorePath(String path) {
+        if (path == null || path.isBlank() || path.startsWith("http://") || path.startsWith("https://"))
+            return false;
+        Path p = new File(path.trim()).getAbsoluteFile().toPath().normalize();
+        return p.startsWith(storeRoot()) && !p.startsWith(storeRoot().resolve("tmp"));
+    }
+
+    /** Blob có hash này, nếu file vẫn còn trên đĩa */
+    public VideoBlob findByHash(String sha256) {
+        return videoBlobRepository.findBySha256(sha256)
+                .filter(b -> new File(b.getPath()).isFile())
+                .orElse(null);
+    }
+
+    /** Blob đã tải từ URL này, nếu file vẫn còn và dung lượng khớp expectedSize (bỏ qua nếu < 0) */
+    public VideoBlob findBySourceUrl(String url, long expectedSize) {
+        return videoBlobRepository.findFirstBySourceUrlOrderByIdDesc(url)
+                .filter(b -> new File(b.getPath()).isFile())
+                .filter(b -> expectedSize < 0 || b.getSizeBytes() == expectedSize)
+                .orElse(null);
+    }
+
+    /**
+     * Đưa file (đã biết sha256) vào kho. Trùng nội dung với blob có sẵn thì xóa file vào và
+     * trả blob cũ.
+     *
+     * @param file      file nằm trong tempDir() (sẽ bị move / xóa)
+     * @param extension VD ".mp4"
+     * @param sourceUrl URL gốc hoặc null
+     */
+    public VideoBlob ingest(Path file, String sha256, String extension, String sourceUrl) throws IOException {
+        VideoBlob existing = findByHash(sha256);
+        if (existing != null) {
+            Files.deleteIfExists(file);
+            log.info("[VIDEO-STORE] Dedup {} → blob {} ({})", file.getFileName(), existing.getId(), existing.getPath());
+            return existing;
+        }
+
+        String ext = extension == null || extension.isBlank() ? ".mp4" : extension;
+        Path target = storeRoot().resolve(sha256.substring(0, 2)).resolve(sha256 + ext);
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        long size = Files.size(target);
+
+        VideoBlob blob = videoBlobRepository.findBySha256(sha256).orElse(null);
+        if (blob != null) {
+            // Dòng DB còn nhưng file đã mất → trỏ lại vào file vừa đưa vào
+            blob.setPath(target.toString());
+            blob.setSizeBytes(size);
+            return videoBlobRepository.save(blob);
+        }
+
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            blob = videoBlobRepository.save(VideoBlob.builder()
+                    .sha256(sha256)
+                    .sizeBytes(size)
+                    .path(target.toString())
+                    .sourceUrl(sourceUrl)
+                    .createdAt(now)
+                    .refChangedAt(now)
+                    .build());
+        } catch (DataIntegrityViolationException e) {
+            // Lượt ingest khác cùng nội dung vừa ghi trước; file đích giống hệt nên dùng chung
+            blob = videoBlobRepository.findBySha256(sha256).orElseThrow(() -> e);
+        }
+        log.info("[VIDEO-STORE] Stored blob {} ({} MB) at {}", blob.getId(), size / (1024 * 1024), target);
+        return blob;
+    }
+
+    /**
+     * Đồng bộ ref của stream theo videoList mới và dọn file rời không còn dùng.
+     * Gọi mỗi khi videoList của stream đổi (newVideoList = null khi xóa video).
+     */
+    public void updateReferences(Integer streamId, String oldVideoList, String newVideoList) {
+        if (streamId == null)
+            return;
+
+        Set<String> newPaths = paths(newVideoList);
+
+        // 1. Ref theo các đường dẫn trong kho của videoList mới
+        Set<Integer> wanted = new HashSet<>();
+        for (String path : newPaths) {
+            if (isStorePath(path)) {
+                videoBlobRepository.findByPath(normalize(path)).ifPresentOrElse(
+                        b -> wanted.add(b.getId()),
+                        () -> log.warn("[VIDEO-STORE] {} is inside the store but has no blob record", path));
+            }
+        }
+
+        List<VideoRef> current = videoRefRepository.findByStreamId(streamId);
+        Set<Integer> have = new HashSet<>();
+        LocalDateTime now = LocalDateTime.now();
+        for (VideoRef ref : current) {
+            have.add(ref.getBlobId());
+            if (!wanted.contains(ref.getBlobId())) {
+                videoRefRepository.deleteRef(streamId, ref.getBlobId());
+                videoBlobRepository.recountRefs(ref.getBlobId(), now);
+                log.info("[VIDEO-STORE] streamId={} released blob {}", streamId, ref.getBlobId());
+            }
+        }
+        for (Integer blobId : wanted) {
+            if (have.contains(blobId))
+                continue;
+            try {
+                videoRefRepository.save(VideoRef.builder().streamId(streamId).blobId(blobId).createdAt(now).build());
+            } catch (DataIntegrityViolationException e) {
+                // Ref đã được thêm song song
+            }
+            videoBlobRepository.recountRefs(blobId, now);
+        }
+
+        // 2. File rời ngoài kho: xóa nếu không còn trong videoList mới và không stream nào khác dùng
+        for (String path : paths(oldVideoList)) {
+            if (newPaths.contains(path) || !isLocalFile(path) || isStorePath(path))
+                continue;
+            deleteLooseFile(streamId, path);
+        }
+    }
+
+    private void deleteLooseFile(Integer streamId, String path) {
+        try {
+            if (streamRepository.countByVideoListContainingAndIdNot(path, streamId) > 0) {
+                log.info("[VIDEO-STORE] Keeping {} (still used by another stream)", path);
+                return;
+            }
+            File f = new File(path);
+            if (!f.exists()) {
+                log.info("[VIDEO-STORE] Old video file not found (may already deleted): {}", path);
+            } else if (f.delete()) {
+                log.info("[VIDEO-STORE] Deleted old video file: {}", path);
+            } else {
+                log.warn("[VIDEO-STORE] Failed to delete old video file: {}", path);
+            }
+        } catch (Exception e) {
+            log.error("[VIDEO-STORE] Error deleting old video file: {}", path, e);
+        }
+    }
+
+    /** Xóa blob 0 ref đã quá thời gian chờ + file tạm bỏ dở quá lâu */
+    @Scheduled(fixedDelayString = "${stream.store.gcIntervalMs:3600000}", initialDelay = 300_000)
+    public void gc() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(gcGraceMinutes);
+        int deleted = 0;
+        long freed = 0;
+        Set<Integer> skipped = new HashSet<>();
+
+        List<VideoBlob> page;
+        do {
+            page = videoBlobRepository.findUnreferenced(cutoff, PageRequest.of(0, GC_PAGE_SIZE + skipped.size()));
+            boolean progress = false;
+            for (VideoBlob blob : page) {
+                if (skipped.contains(blob.getId()))
+                    continue;
+                progress = true;
+
+                // Lưới an toàn: videoList vẫn trỏ vào blob → ref bị thiếu, gắn lại thay vì xóa
+                List<Integer> streamIds = streamRepository.findIdsByVideoListContaining(blob.getPath());
+                if (!streamIds.isEmpty()) {
+                    relink(blob, streamIds);
+                    skipped.add(blob.getId());
+                    continue;
+                }
+                // Bản prefetch của session chưa dừng không có ref, chỉ giữ lại tới khi session dừng
+                if (streamSessionRepository.countLiveByEffectiveVideoListContaining(blob.getPath()) > 0) {
+                    log.info("[VIDEO-STORE] Blob {} has 0 refs but is in a live session's prefetched list, keeping",
+                            blob.getId());
+                    skipped.add(blob.getId());
+                    continue;
+                }
+                if (videoBlobRepository.deleteIfUnreferenced(blob.getId()) == 0) {
+                    skipped.add(blob.getId());
+                    continue;
+                }
+                try {
+                    if (Files.deleteIfExists(Path.of(blob.getPath()))) {
+                        freed += blob.getSizeBytes();
+                    }
+                    deleted++;
+                } catch (IOException e) {
+                    log.warn("[VIDEO-STORE] Cannot delete blob file {}: {}", blob.getPath(), e.getMessage());
+                }
+            }
+            if (!progress)
+                break;
+        } while (page.size() >= GC_PAGE_SIZE);
+
+        int tmpDeleted = cleanTemp();
+        if (deleted > 0 || tmpDeleted > 0) {
+            log.info("[VIDEO-STORE] GC: deleted {} blob(s) ({} MB), {} stale temp file(s)",
+                    deleted, freed / (1024 * 1024), tmpDeleted);
+        }
+    }
+
+    /** Tạo VideoRef còn thiếu cho các stream có blob trong videoList */
+    private void relink(VideoBlob blob, List<Integer> streamIds) {
+        LocalDateTime now = LocalDateTime.now();
+        for (Integer streamId : streamIds) {
+            try {
+                videoRefRepository.save(VideoRef.builder().streamId(streamId).blobId(blob.getId()).createdAt(now).build());
+            } catch (DataIntegrityViolationException e) {
+                // Ref đã được thêm song song
+            }
+        }
+        videoBlobRepository.recountRefs(blob.getId(), now);
+        log.warn("[VIDEO-STORE] Blob {} had 0 refs but is in the videoList of stream(s) {}, re-linked",
+                blob.getId(), streamIds);
+    }
+
+    private int cleanTemp() {
+        Path tmp = storeRoot().resolve("tmp");
+        if (!Files.isDirectory(tmp))
+            return 0;
+        long cutoff = System.currentTimeMillis() - tmpMaxAgeHours * 3_600_000L;
+        int n = 0;
+        try (Stream<Path> files = Files.list(tmp)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                try {
+                    if (Files.isRegularFile(p) && Files.getLastModifiedTime(p).toMillis() < cutoff) {
+                        Files.delete(p);
+                        n++;
+                    }
+                } catch (IOException e) {
+                    log.warn("[VIDEO-STORE] Cannot delete temp file {}: {}", p, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("[VIDEO-STORE] Cannot list {}: {}", tmp, e.getMessage());
+        }
+        return n;
+    }
+
+    private static Set<String> paths(String videoList) {
+        Set<String> out = new LinkedHashSet<>();
+        if (videoList == null || videoList.isBlank())
+            return out;
+        for (String line : videoList.split("\\r?\\n")) {
+            line = line.trim();
+            if (!line.isEmpty()) {
+                out.add(line);
+            }
+        }
+        return out;
+    }
+
+    private static String normalize(String path) {
+        return new File(path.trim()).getAbsoluteFile().toPath().normalize().toString();
+    }
+
+    /** Đường dẫn tuyệt đối Windows (C:\...) hoặc Unix (/...), không phải URL */
+    private static boolean isLocalFile(String path) {
+        if (path == null || path.isBlank())
+            return false;
+        return !path.startsWith("http://")
+                && !path.startsWith("https://")
+                && (path.matches("^[a-zA-Z]:\\\\.*") || path.startsWith("/"));
+    }
+}
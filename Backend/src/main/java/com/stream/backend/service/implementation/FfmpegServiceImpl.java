@@ -2,14 +2,37 @@ package com.stream.backend.service.implementation;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import com.stream.backend.entity.FfmpegStat;
+import com.stream.backend.ffmpeg.DetachedProcessRegistry;
+import com.stream.backend.ffmpeg.EncodeCapacityManager;
+import com.stream.backend.ffmpeg.EncodeProfile;
+import com.stream.backend.ffmpeg.FfmpegCpuBudget;
+import com.stream.backend.ffmpeg.FfmpegLogBuffer;
+import com.stream.backend.ffmpeg.FfmpegOutputReader;
+import com.stream.backend.ffmpeg.FfmpegProcess;
+import com.stream.backend.ffmpeg.FfmpegProcessDiedEvent;
+import com.stream.backend.ffmpeg.FfmpegProgressParser;
+import com.stream.backend.ffmpeg.FfmpegStartAdmission;
+import com.stream.backend.ffmpeg.KeyedSerialExecutor;
+import com.stream.backend.ffmpeg.ProgressFileTailer;
 import com.stream.backend.service.FfmpegService;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 
 @Service
@@ -24,18 +47,197 @@ public class FfmpegServiceImpl implements FfmpegService {
     @Value("${stream.ffmpeg.preferCopy:true}")
     private boolean preferCopy;
 
+    /**
+     * Detached: FFmpeg chạy trong session riêng (Linux: setsid), output ghi ra file,
+     * PID lưu lại; backend tắt/khởi động lại (deploy, devtools reload) không kill
+     * process mà lần khởi động sau nhận lại.
+     */
+    @Value("${stream.ffmpeg.detached.enabled:false}")
+    private boolean detachedMode;
+
     /** lưu process theo streamKey */
-    private final Map<String, Process> processMap = new ConcurrentHashMap<>();
+    private final Map<String, FfmpegProcess> processMap = new ConcurrentHashMap<>();
 
     /** snapshot realtime cho FE */
     private final Map<String, FfmpegStat> statMap = new ConcurrentHashMap<>();
 
+    /** time-to-first-frame (ms) của lần start gần nhất theo streamKey */
+    private final Map<String, Long> timeToFirstFrameMap = new ConcurrentHashMap<>();
+
+    /**
+     * Vị trí phát hiện tại trong playlist (ms) = offset lúc start + out_time.
+     * Không xóa khi process tự chết để watchdog restart tiếp từ đây; chỉ xóa khi stopStream.
+     */
+    private final Map<String, Long> positionMap = new ConcurrentHashMap<>();
+
+    /** Giới hạn trên thời gian chờ block progress đầu tiên khi start */
+    @Value("${stream.ffmpeg.startTimeoutMs:20000}")
+    private long startTimeoutMs;
+
+    @Value("${stream.ffmpeg.control.threads:16}")
+    private int controlThreads;
+
+    @Value("${stream.ffmpeg.control.queueCapacity:1000}")
+    private int controlQueueCapacity;
+
+    /** Executor cho start/stop (có giới hạn thread + hàng đợi) */
+    private ThreadPoolExecutor controlPool;
+    private KeyedSerialExecutor controlExecutor;
+
+    private final ApplicationEventPublisher eventPublisher;
+    private final FfmpegOutputReader outputReader;
+    private final MeterRegistry meterRegistry;
+    private final FfmpegStartAdmission startAdmission;
+    private final EncodeCapacityManager encodeCapacity;
+    private final FfmpegCpuBudget cpuBudget;
+    private final DetachedProcessRegistry detachedRegistry;
+    private final ProgressFileTailer fileTailer;
+    private final FfmpegLogBuffer logBuffer;
+
+    /** Có lệnh setsid (Linux) để tách FFmpeg khỏi process group của JVM */
+    private boolean hasSetsid;
+
+    public FfmpegServiceImpl(
+            ApplicationEventPublisher eventPublisher,
+            FfmpegOutputReader outputReader,
+            MeterRegistry meterRegistry,
+            FfmpegStartAdmission startAdmission,
+            EncodeCapacityManager encodeCapacity,
+            FfmpegCpuBudget cpuBudget,
+            DetachedProcessRegistry detachedRegistry,
+            ProgressFileTailer fileTailer,
+            FfmpegLogBuffer logBuffer) {
+        this.eventPublisher = eventPublisher;
+        this.outputReader = outputReader;
+        this.meterRegistry = meterRegistry;
+        this.startAdmission = startAdmission;
+        this.encodeCapacity = encodeCapacity;
+        this.cpuBudget = cpuBudget;
+        this.detachedRegistry = detachedRegistry;
+        this.fileTailer = fileTailer;
+        this.logBuffer = logBuffer;
+    }
+
+    @PostConstruct
+    void initControlExecutor() {
+        AtomicInteger seq = new AtomicInteger();
+        controlPool = new ThreadPoolExecutor(
+                controlThreads, controlThreads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(controlQueueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "FFmpeg-Control-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                });
+        controlPool.allowCoreThreadTimeOut(true);
+        controlExecutor = new KeyedSerialExecutor(controlPool);
+
+        hasSetsid = new File("/usr/bin/setsid").exists() || new File("/bin/setsid").exists();
+        adoptDetachedProcesses();
+    }
+
+    /**
+     * Nhận lại các process detached do lần chạy trước để lại: dựng lại processMap,
+     * giữ slot encode, đọc tiếp progress từ file. Process đã chết thì bỏ bản ghi,
+     * watchdog sẽ restart session tương ứng như bình thường.
+     */
+    private void adoptDetachedProcesses() {
+        for (DetachedProcessRegistry.Entry entry : detachedRegistry.list()) {
+            String streamKey = entry.streamKey();
+            ProcessHandle handle = detachedRegistry.resolve(entry).orElse(null);
+            if (handle == null) {
+                System.out.println("[FFMPEG] Detached process for " + streamKey + " (pid=" + entry.pid()
+                        + ") is gone, dropping record");
+                detachedRegistry.remove(streamKey);
+                continue;
+            }
+
+            FfmpegProcess fp = FfmpegProcess.adopted(handle, entry.mode());
+            processMap.put(streamKey, fp);
+            logBuffer.append(streamKey, "=== adopted " + entry.mode() + " pid=" + entry.pid() + " ===");
+            statMap.put(streamKey, FfmpegStat.empty(System.currentTimeMillis()));
+            positionMap.put(streamKey, entry.startOffsetMs());
+
+            if (EncodeCapacityManager.MODE_ENCODE.equals(entry.mode())) {
+                encodeCapacity.adoptEncode(streamKey);
+            } else {
+                encodeCapacity.registerCopy(streamKey);
+            }
+
+            // Process đã chạy ổn định từ trước → không phân loại lỗi khởi động nữa
+            ProgressListener listener = new ProgressListener(streamKey, System.nanoTime(), entry.startOffsetMs());
+            listener.ready.complete(0L);
+            fileTailer.start(streamKey, handle, new File(entry.outputFile()), new FfmpegProgressParser(listener), true);
+            watchProcessExit(streamKey, fp);
+
+            System.out.println("[FFMPEG] Adopted detached " + entry.mode() + " process for " + streamKey
+                    + " (pid=" + entry.pid() + ")");
+        }
+    }
+
     @Override
     public void startStream(String videoPath, String rtmpUrl, String streamKey) {
+        startStream(videoPath, rtmpUrl, streamKey, 0);
+    }
+
+    @Override
+    public void startStream(String videoPath, String rtmpUrl, String streamKey, long startOffsetMs) {
+        join(startStreamAsync(videoPath, rtmpUrl, streamKey, startOffsetMs));
+    }
 
+    @Override
+    public CompletableFuture<Void> startStreamAsync(String videoPath, String rtmpUrl, String streamKey) {
+        return startStreamAsync(videoPath, rtmpUrl, streamKey, 0);
+    }
+
+    private CompletableFuture<Void> startStreamAsync(String videoPath, String rtmpUrl, String streamKey,
+            long startOffsetMs) {
         if (streamKey == null || streamKey.isBlank()) {
-            throw new RuntimeException("STREAM_KEY_EMPTY");
+            return CompletableFuture.failedFuture(new RuntimeException("STREAM_KEY_EMPTY"));
         }
+        return controlExecutor.submit(streamKey, () -> {
+            doStartStream(videoPath, rtmpUrl, streamKey, Math.max(0, startOffsetMs));
+            return null;
+        });
+    }
+
+    @Override
+    public void stopStream(String streamKey) {
+        join(stopStreamAsync(streamKey));
+    }
+
+    @Override
+    public CompletableFuture<Void> stopStreamAsync(String streamKey) {
+        if (streamKey == null || streamKey.isBlank()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return controlExecutor.submit(streamKey, () -> {
+            doStopStream(streamKey);
+            positionMap.remove(streamKey);
+            logBuffer.release(streamKey);
+            return null;
+        });
+    }
+
+    /** Chờ kết quả async, trả lại RuntimeException gốc cho caller đồng bộ */
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException(cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Luôn chạy trên controlExecutor, tuần tự theo streamKey nên start/stop cùng key
+     * không bao giờ xen nhau.
+     */
+    private void doStartStream(String videoPath, String rtmpUrl, String streamKey, long startOffsetMs) {
 
         if (videoPath == null || videoPath.isBlank()) {
             throw new RuntimeException("Video path is empty.");
@@ -74,22 +276,37 @@ public class FfmpegServiceImpl implements FfmpegService {
 
         String fullRtmp = rtmpUrl.endsWith("/") ? (rtmpUrl + streamKey) : (rtmpUrl + "/" + streamKey);
 
-        stopStream(streamKey); // đảm bảo không chạy trùng
+        doStopStream(streamKey); // đảm bảo không chạy trùng
 
         // init stat để FE không null
-        FfmpegStat init = new FfmpegStat();
-        init.updatedAt = System.currentTimeMillis();
-        statMap.put(streamKey, init);
+        statMap.put(streamKey, FfmpegStat.empty(System.currentTimeMillis()));
+        positionMap.put(streamKey, startOffsetMs);
+        if (startOffsetMs > 0) {
+            System.out.println("[FFMPEG] Resuming " + streamKey + " at " + startOffsetMs + " ms");
+        }
 
+        // Chờ tới lượt (giới hạn số process đang start, giãn cách + jitter, CPU)
         // 1) thử copy trước (nếu bật)
         if (preferCopy) {
-            boolean started = startCopyStream(actualInput, fullRtmp, streamKey, isConcat);
+            FfmpegStartAdmission.Ticket ticket = startAdmission.admit(streamKey);
+            boolean started;
+            try {
+                started = startCopyStream(actualInput, fullRtmp, streamKey, isConcat, startOffsetMs);
+            } finally {
+                ticket.close();
+            }
             if (started)
                 return;
         }
 
-        // 2) fallback encode (nếu encode fail -> throw)
-        startEncodeStream(actualInput, fullRtmp, streamKey, isConcat);
+        // 2) fallback encode (nếu encode fail -> throw). Giữ slot encode trước khi xin lượt start:
+        // encode chờ slot không chiếm chỗ của các lần start copy
+        FfmpegStartAdmission.Ticket ticket = startAdmission.admitEncode(streamKey, encodeCapacity);
+        try {
+            startEncodeStream(actualInput, fullRtmp, streamKey, isConcat, startOffsetMs);
+        } finally {
+            ticket.close();
+        }
     }
 
     /**
@@ -97,7 +314,8 @@ public class FfmpegServiceImpl implements FfmpegService {
      * Return true nếu process start OK; nếu fail thì return false để fallback
      * encode.
      */
-    private boolean startCopyStream(String videoPath, String fullRtmp, String streamKey, boolean isConcat) {
+    private boolean startCopyStream(String videoPath, String fullRtmp, String streamKey, boolean isConcat,
+            long startOffsetMs) {
         try {
             List<String> cmd = new ArrayList<>();
             cmd.add(ffmpegPath);
@@ -107,6 +325,9 @@ public class FfmpegServiceImpl implements FfmpegService {
             cmd.add("-stream_loop");
             cmd.add("-1");
 
+            // Resume: chỉ seek lượt phát đầu, các vòng lặp sau vẫn bắt đầu từ 0
+            addSeek(cmd, startOffsetMs);
+
             if (isConcat) {
                 cmd.add("-f");
                 cmd.add("concat");
@@ -135,51 +356,38 @@ public class FfmpegServiceImpl implements FfmpegService {
             cmd.add("-stats_period");
             cmd.add("1");
 
-            cmd.add(fullRtmp);
+            // CPU: số thread + (Linux) taskset/nice/ionice
+            FfmpegCpuBudget.Allocation cpu = cpuBudget.allocate(streamKey, EncodeCapacityManager.MODE_COPY);
+            cmd.add("-threads");
+            cmd.add(String.valueOf(cpu.threads()));
 
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.redirectErrorStream(true);
-            pb.redirectInput(ProcessBuilder.Redirect.PIPE);
-
-            Process process = pb.start();
-            processMap.put(streamKey, process);
-
-            // Đợi một chút để process khởi động hoàn toàn trên Windows
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-
-            // Bắt đầu đọc progress trong daemon thread (sẽ detect lỗi trong readProgress)
-            Thread progressThread = new Thread(() -> readProgress(streamKey, process), "FFmpeg-Progress-" + streamKey);
-            progressThread.setDaemon(true); // Daemon thread để không giữ JVM
-            progressThread.start();
+            cmd.add(fullRtmp);
 
-            // Kiểm tra process còn sống sau khi start (không đọc stream để tránh conflict)
-            assertProcessStartedOk(streamKey, process, 2000);
+            launch(streamKey, cmd, cpu, EncodeCapacityManager.MODE_COPY, startOffsetMs);
 
+            encodeCapacity.registerCopy(streamKey);
             System.out.println("[FFMPEG] Started COPY stream: " + streamKey);
             return true;
 
         } catch (RuntimeException e) {
             // FAIL runtime -> fallback encode
             System.out.println("[FFMPEG] COPY start failed, fallback to ENCODE. Reason: " + e.getMessage());
-            stopStream(streamKey);
+            doStopStream(streamKey);
             return false;
 
         } catch (IOException e) {
             System.out.println("[FFMPEG] COPY start failed, fallback to ENCODE. Reason: " + e.getMessage());
-            stopStream(streamKey);
+            doStopStream(streamKey);
             return false;
         }
     }
 
     /**
-     * Encode fallback: 720p30, superfast, VBV.
+     * Encode fallback: 720p30, superfast, VBV. Slot encode đã được giữ qua admitEncode.
      * Nếu fail -> throw để session chuyển ERROR.
      */
-    private void startEncodeStream(String videoPath, String fullRtmp, String streamKey, boolean isConcat) {
+    private void startEncodeStream(String videoPath, String fullRtmp, String streamKey, boolean isConcat,
+            long startOffsetMs) {
         try {
             List<String> cmd = new ArrayList<>();
             cmd.add(ffmpegPath);
@@ -189,6 +397,9 @@ public class FfmpegServiceImpl implements FfmpegService {
             cmd.add("-stream_loop");
             cmd.add("-1");
 
+            // Resume: chỉ seek lượt phát đầu, các vòng lặp sau vẫn bắt đầu từ 0
+            addSeek(cmd, startOffsetMs);
+
             if (isConcat) {
                 cmd.add("-f");
                 cmd.add("concat");
@@ -199,52 +410,8 @@ public class FfmpegServiceImpl implements FfmpegService {
             cmd.add("-i");
             cmd.add(videoPath);
 
-            // VIDEO
-            cmd.add("-vf");
-            cmd.add("scale=1280:720:flags=bilinear");
-
-            cmd.add("-c:v");
-            cmd.add("libx264");
-            cmd.add("-preset");
-            cmd.add("superfast");
-            cmd.add("-profile:v");
-            cmd.add("high");
-            cmd.add("-level");
-            cmd.add("4.1");
-            cmd.add("-pix_fmt");
-            cmd.add("yuv420p");
-
-            // GOP 2s
-            cmd.add("-g");
-            cmd.add("60");
-            cmd.add("-keyint_min");
-            cmd.add("60");
-            cmd.add("-sc_threshold");
-            cmd.add("0");
-
-            // VBV
-            cmd.add("-b:v");
-            cmd.add("3000k");
-            cmd.add("-maxrate");
-            cmd.add("3000k");
-            cmd.add("-bufsize");
-            cmd.add("6000k");
-
-            // CFR
-            cmd.add("-r");
-            cmd.add("30");
-            cmd.add("-vsync");
-            cmd.add("cfr");
-
-            // AUDIO
-            cmd.add("-c:a");
-            cmd.add("aac");
-            cmd.add("-b:a");
-            cmd.add("128k");
-            cmd.add("-ar");
-            cmd.add("44100");
-            cmd.add("-ac");
-            cmd.add("2");
+            // VIDEO + AUDIO (profile dùng chung với benchmark)
+            cmd.addAll(EncodeProfile.codecArgs());
 
             // OUTPUT
             cmd.add("-f");
@@ -257,320 +424,244 @@ public class FfmpegServiceImpl implements FfmpegService {
             cmd.add("pipe:1");
             cmd.add("-nostats");
 
-            cmd.add(fullRtmp);
+            // CPU: giới hạn thread libx264 + (Linux) taskset/nice/ionice
+            FfmpegCpuBudget.Allocation cpu = cpuBudget.allocate(streamKey, EncodeCapacityManager.MODE_ENCODE);
+            cmd.add("-threads");
+            cmd.add(String.valueOf(cpu.threads()));
 
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            pb.redirectErrorStream(true);
-            pb.redirectInput(ProcessBuilder.Redirect.PIPE);
-
-            Process process = pb.start();
-            processMap.put(streamKey, process);
-
-            // Đợi một chút để process khởi động hoàn toàn trên Windows
-            try {
-                Thread.sleep(100);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-
-            // Bắt đầu đọc progress trong daemon thread (sẽ detect lỗi trong readProgress)
-            Thread progressThread = new Thread(() -> readProgress(streamKey, process), "FFmpeg-Progress-" + streamKey);
-            progressThread.setDaemon(true); // Daemon thread để không giữ JVM
-            progressThread.start();
+            cmd.add(fullRtmp);
 
-            // Kiểm tra process còn sống sau khi start (không đọc stream để tránh conflict)
-            assertProcessStartedOk(streamKey, process, 2000);
+            launch(streamKey, cmd, cpu, EncodeCapacityManager.MODE_ENCODE, startOffsetMs);
 
             System.out.println("[FFMPEG] Started ENCODE stream: " + streamKey);
 
         } catch (IOException e) {
-            stopStream(streamKey);
+            doStopStream(streamKey);
             throw new RuntimeException("Failed to start FFmpeg ENCODE", e);
         } catch (RuntimeException e) {
-            stopStream(streamKey);
+            doStopStream(streamKey);
             throw e;
         }
     }
 
-    private void readProgress(String streamKey, Process process) {
-        FfmpegStat stat = new FfmpegStat();
-        long startTime = System.currentTimeMillis();
-        boolean earlyErrorDetected = false;
-        BufferedReader br = null;
-        InputStream is = null;
-
-        // Throttle log và stats update mỗi 30 giây
-        final long LOG_INTERVAL_MS = 30_000;
-        long lastLogTime = 0;
+    private static void addSeek(List<String> cmd, long startOffsetMs) {
+        if (startOffsetMs > 0) {
+            cmd.add("-ss");
+            cmd.add(String.format(Locale.US, "%.3f", startOffsetMs / 1000.0));
+        }
+    }
 
-        try {
-            // Lấy InputStream từ process
-            is = process.getInputStream();
-            if (is == null) {
-                System.err.println("[FFMPEG] Cannot get input stream for " + streamKey);
-                return;
+    /**
+     * Start process, đọc progress (pipe hoặc file nếu detached), đợi block progress đầu tiên
+     * (= đã mở RTMP và đẩy frame) hoặc lỗi/exit sớm, rồi mới theo dõi exit để fallback/retry
+     * lúc start không bị watchdog chen vào.
+     */
+    private void launch(String streamKey, List<String> cmd, FfmpegCpuBudget.Allocation cpu, String mode,
+            long startOffsetMs) throws IOException {
+        List<String> full = cpu.wrap(cmd);
+        ProcessBuilder pb;
+        File outputFile = null;
+
+        if (detachedMode) {
+            // Không đọc stdin (không còn ai gửi 'q'), dừng bằng SIGTERM
+            full.add(full.indexOf(ffmpegPath) + 1, "-nostdin");
+            if (hasSetsid) {
+                full.add(0, "setsid");
+                full.add(1, "-w");
             }
 
-            // Sử dụng UTF-8 encoding để đảm bảo đọc đúng trên Windows
-            // Sử dụng buffer size lớn hơn để tránh block trên Windows
-            br = new BufferedReader(
-                    new InputStreamReader(is, java.nio.charset.StandardCharsets.UTF_8),
-                    8192);
-
-            String line;
-            long lastReadTime = System.currentTimeMillis();
-
-            // Đọc stream cho đến khi process kết thúc hoặc stream đóng
-            while (process.isAlive() || br.ready()) {
-                try {
-                    // Kiểm tra nếu có dữ liệu sẵn (non-blocking check)
-                    if (br.ready()) {
-                        line = br.readLine();
-                        if (line == null) {
-                            // Stream đã đóng
-                            break;
-                        }
-                        lastReadTime = System.currentTimeMillis();
-                    } else {
-                        // Nếu không có dữ liệu, đợi một chút rồi kiểm tra lại
-                        // Tránh busy-wait nhưng vẫn responsive
-                        Thread.sleep(50);
-
-                        // Nếu process đã chết và không có dữ liệu trong 1 giây, thoát
-                        if (!process.isAlive() && (System.currentTimeMillis() - lastReadTime) > 1000) {
-                            break;
-                        }
-                        continue;
-                    }
-
-                    // Không log mỗi dòng để tránh treo CMD
-                    // Chỉ log khi có lỗi sớm (ở trên) hoặc progress (ở dưới)
-
-                    // Detect lỗi sớm trong vài giây đầu
-                    if (!earlyErrorDetected && (System.currentTimeMillis() - startTime) < 3000) {
-                        String low = line.toLowerCase();
-                        if (low.contains("error opening output")
-                                || low.contains("error opening output files")
-                                || low.contains("no such file or directory")
-                                || low.contains("i/o error")
-                                || low.contains("connection refused")
-                                || low.contains("failed to resolve hostname")
-                                || low.contains("server returned 4")
-                                || low.contains("server returned 5")
-                                || low.contains("cannot find")
-                                || low.contains("invalid argument")) {
-                            earlyErrorDetected = true;
-                            System.err.println("[FFMPEG] Early error detected for " + streamKey + ": " + line);
-                        }
-                    }
+            outputFile = detachedRegistry.outputFile(streamKey);
+            new FileOutputStream(outputFile).close(); // bắt đầu file mới
 
-                    // Parse STATS line (luôn parse để có data mới nhất, nhưng chỉ log/update mỗi
-                    // 30s)
-                    if (line.contains("frame=") && line.contains("fps=")) {
-                        parseStatsLineInto(stat, line);
-                        stat.updatedAt = System.currentTimeMillis();
-                        // Chỉ update statMap mỗi 30 giây
-                        long now = System.currentTimeMillis();
-                        if (now - lastLogTime >= LOG_INTERVAL_MS) {
-                            statMap.put(streamKey, cloneStat(stat));
-                            System.out.println("[FFMPEG] " + streamKey + " | frame=" + stat.frame
-                                    + " fps=" + String.format("%.1f", stat.fps)
-                                    + " speed=" + stat.speed + " time=" + stat.time);
-                            lastLogTime = now;
-                        }
-                        continue;
-                    }
+            pb = new ProcessBuilder(full);
+            pb.redirectErrorStream(true);
+            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(outputFile));
+            pb.redirectInput(ProcessBuilder.Redirect.from(nullDevice()));
+        } else {
+            pb = new ProcessBuilder(full);
+            pb.redirectErrorStream(true);
+            pb.redirectInput(ProcessBuilder.Redirect.PIPE);
+        }
 
-                    // Parse PROGRESS: key=value
-                    if (!line.contains("="))
-                        continue;
-
-                    String[] kv = line.split("=", 2);
-                    if (kv.length != 2)
-                        continue;
-
-                    String key = kv[0].trim();
-                    String val = kv[1].trim();
-
-                    switch (key) {
-                        case "frame" -> stat.frame = parseLong(val);
-                        case "stream_0_0_fps" -> stat.fps = parseDouble(val);
-                        case "stream_0_0_q" -> stat.q = parseDouble(val);
-                        case "bitrate" -> stat.bitrate = val;
-                        case "speed" -> stat.speed = val;
-                        case "out_time" -> stat.time = val;
-                        case "total_size" -> stat.size = humanBytes(parseLong(val));
-                        case "out_time_us" -> stat.outTimeMs = parseLong(val) / 1000L; // us -> ms
-                        case "out_time_ms" -> stat.outTimeMs = parseLong(val) / 1000L; // treat as us -> ms
-                        case "progress" -> {
-                            if ((stat.fps == null || stat.fps == 0.0)
-                                    && stat.frame != null && stat.outTimeMs != null && stat.outTimeMs > 0) {
-                                stat.fps = stat.frame / (stat.outTimeMs / 1000.0);
-                            }
-                            stat.updatedAt = System.currentTimeMillis();
-                            // Chỉ update statMap mỗi 30 giây
-                            long now = System.currentTimeMillis();
-                            if (now - lastLogTime >= LOG_INTERVAL_MS) {
-                                statMap.put(streamKey, cloneStat(stat));
-                                System.out.println("[FFMPEG] " + streamKey + " | frame=" + stat.frame
-                                        + " fps=" + String.format("%.1f", stat.fps != null ? stat.fps : 0.0)
-                                        + " speed=" + stat.speed + " time=" + stat.time);
-                                lastLogTime = now;
-                            }
-                        }
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
+        long startNanos = System.nanoTime();
+        Process process = pb.start();
+        FfmpegProcess fp = FfmpegProcess.started(process, detachedMode, mode);
+        processMap.put(streamKey, fp);
+        logBuffer.append(streamKey, "=== launch " + mode + " pid=" + fp.pid() + " offset=" + startOffsetMs + "ms ===");
+
+        // Bắt đầu đọc progress (sẽ detect lỗi trong ProgressListener)
+        ProgressListener listener = new ProgressListener(streamKey, startNanos, startOffsetMs);
+        FfmpegProgressParser parser = new FfmpegProgressParser(listener);
+        if (detachedMode) {
+            detachedRegistry.register(streamKey, process.toHandle(), mode, outputFile, startOffsetMs, full);
+            fileTailer.start(streamKey, process.toHandle(), outputFile, parser, false);
+        } else {
+            outputReader.start(streamKey, process, parser);
+        }
 
-            // Đọc phần còn lại nếu có (khi process đã chết nhưng stream vẫn còn dữ liệu)
-            if (br.ready()) {
-                while ((line = br.readLine()) != null) {
-                    System.out.println("[FFMPEG] " + line);
-                }
-            }
+        awaitFirstProgress(streamKey, fp, listener, mode);
+        watchProcessExit(streamKey, fp);
+    }
 
-        } catch (IOException e) {
-            // Chỉ log nếu process vẫn còn sống (có thể là lỗi thực sự)
-            if (process.isAlive()) {
-                System.err.println("[FFMPEG] IO error reading stream for " + streamKey + ": " + e.getMessage());
-            }
-        } catch (Exception e) {
-            System.err.println("[FFMPEG] Unexpected error reading stream for " + streamKey + ": " + e.getMessage());
-            e.printStackTrace();
-        } finally {
-            // Đóng resources một cách an toàn
-            if (br != null) {
-                try {
-                    br.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-            if (is != null) {
-                try {
-                    is.close();
-                } catch (IOException e) {
-                    // Ignore
-                }
-            }
-            // Cleanup maps
-            processMap.remove(streamKey);
-            statMap.remove(streamKey);
-        }
+    private static File nullDevice() {
+        return new File(System.getProperty("os.name", "").toLowerCase().contains("win") ? "NUL" : "/dev/null");
     }
 
-    private static void parseStatsLineInto(FfmpegStat stat, String line) {
-        try {
-            Long frame = extractLongAfter(line, "frame=");
-            if (frame != null)
-                stat.frame = frame;
+    /**
+     * Nhận kết quả từ parser: cập nhật statMap mỗi khi có snapshot mới,
+     * mỗi 30 giây ghi 1 dòng tóm tắt vào FfmpegLogBuffer (không in console để tránh treo CMD).
+     * Mọi dòng log của FFmpeg cũng vào FfmpegLogBuffer.
+     *
+     * Đồng thời báo "ready" cho luồng start: hoàn thành với time-to-first-frame (ms)
+     * ở block progress=continue đầu tiên, hoặc fail nếu trước đó gặp dòng lỗi nghiêm trọng.
+     */
+    private final class ProgressListener implements FfmpegProgressParser.Listener {
 
-            Double fps = extractDoubleAfter(line, "fps=");
-            if (fps != null)
-                stat.fps = fps;
+        private static final long LOG_INTERVAL_MS = 30_000;
 
-            Double q = extractDoubleAfter(line, "q=");
-            if (q != null)
-                stat.q = q;
+        private final String streamKey;
+        private final long startNanos;
+        private final long startOffsetMs;
+        private final CompletableFuture<Long> ready = new CompletableFuture<>();
+        private long lastLogTime;
 
-            String bitrate = extractTokenAfter(line, "bitrate=");
-            if (bitrate != null)
-                stat.bitrate = bitrate;
+        ProgressListener(String streamKey, long startNanos, long startOffsetMs) {
+            this.streamKey = streamKey;
+            this.startNanos = startNanos;
+            this.startOffsetMs = startOffsetMs;
+        }
 
-            String speed = extractTokenAfter(line, "speed=");
-            if (speed != null)
-                stat.speed = speed;
+        @Override
+        public void onBlock(boolean end) {
+            if (!end && !ready.isDone()) {
+                ready.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+            }
+        }
+
+        @Override
+        public void onProgress(FfmpegStat stat) {
+            statMap.put(streamKey, stat);
+            if (stat.getOutTimeUs() >= 0) {
+                positionMap.put(streamKey, startOffsetMs + stat.getOutTimeUs() / 1000);
+            }
 
-            String time = extractTokenAfter(line, "time=");
-            if (time != null)
-                stat.time = time;
+            long now = stat.getUpdatedAt();
+            if (now - lastLogTime >= LOG_INTERVAL_MS) {
+                logBuffer.append(streamKey, "[progress] frame=" + stat.getFrame()
+                        + " fps=" + String.format("%.1f", stat.getFps())
+                        + " speed=" + stat.getSpeed() + " time=" + stat.getTime());
+                lastLogTime = now;
+            }
+        }
 
-            String size = extractTokenAfter(line, "size=");
-            if (size != null)
-                stat.size = size;
+        @Override
+        public void onLogLine(byte[] buf, int off, int len) {
+            logBuffer.append(streamKey, buf, off, len);
 
-        } catch (Exception ignored) {
+            // Chỉ phân loại lỗi trong lúc đang start (chỉ lúc này mới tạo String)
+            if (ready.isDone()) {
+                return;
+            }
+            String line = new String(buf, off, len, java.nio.charset.StandardCharsets.UTF_8);
+            if (isFatalStartupLine(line)) {
+                System.err.println("[FFMPEG] Early error detected for " + streamKey + ": " + line);
+                ready.completeExceptionally(new RuntimeException("FFMPEG_START_FAILED: " + line.trim()));
+            }
         }
     }
 
-    private static String extractTokenAfter(String line, String key) {
-        int i = line.indexOf(key);
-        if (i < 0)
-            return null;
-        String tail = line.substring(i + key.length()).trim();
-        if (tail.isEmpty())
-            return null;
-        int sp = tail.indexOf(' ');
-        return (sp < 0) ? tail : tail.substring(0, sp).trim();
+    private static boolean isFatalStartupLine(String line) {
+        String low = line.toLowerCase();
+        return low.contains("error opening output")
+                || low.contains("error opening output files")
+                || low.contains("no such file or directory")
+                || low.contains("i/o error")
+                || low.contains("connection refused")
+                || low.contains("failed to resolve hostname")
+                || low.contains("server returned 4")
+                || low.contains("server returned 5")
+                || low.contains("cannot find")
+                || low.contains("invalid argument");
     }
 
-    private static Long extractLongAfter(String line, String key) {
-        String t = extractTokenAfter(line, key);
-        if (t == null)
-            return null;
-        try {
-            return Long.parseLong(t.trim());
-        } catch (Exception e) {
-            return null;
-        }
-    }
+    /**
+     * Start xong ngay khi có block progress đầu tiên thay vì luôn chờ cố định 2 giây.
+     * Fail nếu FFmpeg báo lỗi nghiêm trọng, exit sớm, hoặc quá startTimeoutMs mà chưa có progress.
+     */
+    private void awaitFirstProgress(String streamKey, FfmpegProcess process, ProgressListener listener, String mode) {
+        process.onExit().thenAccept(p -> listener.ready.completeExceptionally(
+                new RuntimeException("FFMPEG_START_FAILED: Process exited early with code=" + p.exitCode())));
 
-    private static Double extractDoubleAfter(String line, String key) {
-        String t = extractTokenAfter(line, key);
-        if (t == null)
-            return null;
         try {
-            return Double.parseDouble(t.trim());
-        } catch (Exception e) {
-            return null;
+            long ttffMs = listener.ready.get(startTimeoutMs, TimeUnit.MILLISECONDS);
+            timeToFirstFrameMap.put(streamKey, ttffMs);
+            Timer.builder("ffmpeg.start.ttff")
+                    .tag("mode", mode)
+                    .description("Time from FFmpeg launch to its first progress block")
+                    .register(meterRegistry)
+                    .record(ttffMs, TimeUnit.MILLISECONDS);
+            System.out.println("[FFMPEG] First progress for " + streamKey + " (" + mode + ") after " + ttffMs + " ms");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new RuntimeException("FFMPEG_START_FAILED: " + cause.getMessage(), cause);
+        } catch (TimeoutException e) {
+            throw new RuntimeException("FFMPEG_START_TIMEOUT: no progress after " + startTimeoutMs + " ms");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("FFMPEG_START_INTERRUPTED");
         }
     }
 
-    private static FfmpegStat cloneStat(FfmpegStat s) {
-        FfmpegStat c = new FfmpegStat();
-        c.frame = s.frame;
-        c.fps = s.fps;
-        c.q = s.q;
-        c.size = s.size;
-        c.bitrate = s.bitrate;
-        c.time = s.time;
-        c.speed = s.speed;
-        c.outTimeMs = s.outTimeMs;
-        c.updatedAt = s.updatedAt;
-        return c;
+    /**
+     * Đăng ký callback khi process kết thúc (event-driven, không poll).
+     * Nếu process đã chết trước khi đăng ký thì callback chạy ngay.
+     */
+    private void watchProcessExit(String streamKey, FfmpegProcess process) {
+        process.onExit().thenAccept(p -> onProcessExit(streamKey, p));
     }
 
-    private static String humanBytes(long bytes) {
-        if (bytes < 1024)
-            return bytes + "B";
-        double kib = bytes / 1024.0;
-        if (kib < 1024)
-            return String.format(java.util.Locale.US, "%.0fKiB", kib);
-        double mib = kib / 1024.0;
-        if (mib < 1024)
-            return String.format(java.util.Locale.US, "%.1fMiB", mib);
-        double gib = mib / 1024.0;
-        return String.format(java.util.Locale.US, "%.2fGiB", gib);
+    /**
+     * Process kết thúc: nếu vẫn còn trong processMap nghĩa là không phải do stopStream
+     * (stopStream luôn remove trước khi kill) → FFmpeg tự chết, bắn event cho watchdog.
+     */
+    private void onProcessExit(String streamKey, FfmpegProcess process) {
+        if (!processMap.remove(streamKey, process)) {
+            return;
+        }
+        detachedRegistry.remove(streamKey);
+        statMap.remove(streamKey);
+        encodeCapacity.release(streamKey);
+        cpuBudget.release(streamKey);
+
+        int exitCode = process.exitCode();
+        logBuffer.append(streamKey, "=== exited unexpectedly, code=" + exitCode + " ===");
+        logBuffer.flushAsync(streamKey);
+        System.err.println("[FFMPEG] Process died unexpectedly for " + streamKey + ", exit code=" + exitCode);
+        eventPublisher.publishEvent(new FfmpegProcessDiedEvent(streamKey, exitCode, System.currentTimeMillis()));
     }
 
-    @Override
-    public void stopStream(String streamKey) {
+    private void doStopStream(String streamKey) {
         if (streamKey == null || streamKey.isBlank())
             return;
 
-        Process process = processMap.get(streamKey); // Lấy nhưng chưa remove ngay
+        encodeCapacity.release(streamKey);
+        cpuBudget.release(streamKey);
+
+        FfmpegProcess process = processMap.get(streamKey); // Lấy nhưng chưa remove ngay
         if (process == null) {
             // Đã được remove rồi hoặc không tồn tại
             statMap.remove(streamKey);
             return;
         }
 
-        // Remove khỏi map để readProgress biết đã stop
+        // Remove khỏi map để onProcessExit biết đã stop
         processMap.remove(streamKey);
         statMap.remove(streamKey);
+        detachedRegistry.remove(streamKey);
+        fileTailer.stop(streamKey);
 
         if (!process.isAlive()) {
             // Process đã chết rồi
@@ -578,17 +669,8 @@ public class FfmpegServiceImpl implements FfmpegService {
         }
 
         try {
-            // Gửi lệnh 'q' để FFmpeg dừng gracefully
-            OutputStream os = process.getOutputStream();
-            if (os != null) {
-                try {
-                    os.write("q\n".getBytes(java.nio.charset.StandardCharsets.UTF_8));
-                    os.flush();
-                    os.close(); // Đóng stream sau khi gửi lệnh
-                } catch (IOException e) {
-                    // Nếu không thể gửi lệnh, sẽ force kill ở dưới
-                }
-            }
+            // Gửi lệnh 'q' (detached: SIGTERM) để FFmpeg dừng gracefully
+            process.requestStop();
 
             // Đợi process kết thúc trong 5 giây
             boolean terminated = process.waitFor(5, TimeUnit.SECONDS);
@@ -620,28 +702,35 @@ public class FfmpegServiceImpl implements FfmpegService {
         return statMap.get(streamKey);
     }
 
+    @Override
+    public Long getTimeToFirstFrameMs(String streamKey) {
+        return streamKey == null ? null : timeToFirstFrameMap.get(streamKey);
+    }
+
+    @Override
+    public Long getPlaybackPositionMs(String streamKey) {
+        return streamKey == null ? null : positionMap.get(streamKey);
+    }
+
+    @Override
+    public List<String> getLogTail(String streamKey, int lines) {
+        return logBuffer.tail(streamKey, lines);
+    }
+
     @Override
     public boolean isStreamAlive(String streamKey) {
         if (streamKey == null || streamKey.isBlank())
             return false;
-        Process p = processMap.get(streamKey);
+        FfmpegProcess p = processMap.get(streamKey);
         return p != null && p.isAlive();
     }
 
-    private static long parseLong(String v) {
-        try {
-            return Long.parseLong(v.trim());
-        } catch (Exception e) {
-            return 0L;
-        }
-    }
-
-    private static double parseDouble(String v) {
-        try {
-            return Double.parseDouble(v.trim());
-        } catch (Exception e) {
-            return 0.0;
-        }
+    @Override
+    public Long getPid(String streamKey) {
+        if (streamKey == null)
+            return null;
+        FfmpegProcess p = processMap.get(streamKey);
+        return p != null && p.isAlive() ? p.pid() : null;
     }
 
     private static boolean isUrl(String s) {
@@ -655,75 +744,27 @@ public class FfmpegServiceImpl implements FfmpegService {
         return s != null && !isUrl(s);
     }
 
-    /**
-     * Kiểm tra process còn sống sau khi start.
-     * KHÔNG đọc từ stream để tránh conflict với readProgress trên Windows.
-     * readProgress sẽ tự detect lỗi từ output của FFmpeg.
-     */
-    private void assertProcessStartedOk(String streamKey, Process process, long waitMs) {
-        long end = System.currentTimeMillis() + waitMs;
-        long checkInterval = 50; // ms
-
-        try {
-            // Chỉ kiểm tra process còn sống, không đọc stream
-            while (System.currentTimeMillis() < end) {
-                if (!process.isAlive()) {
-                    // Process đã chết sớm - lấy exit code nếu có thể
-                    try {
-                        int code = process.exitValue();
-                        throw new RuntimeException("FFMPEG_START_FAILED: Process exited early with code=" + code);
-                    } catch (IllegalThreadStateException e) {
-                        // Process chưa kết thúc hoàn toàn, nhưng isAlive() trả về false
-                        // Có thể là race condition, đợi thêm một chút
-                        Thread.sleep(100);
-                        if (!process.isAlive()) {
-                            int code = process.exitValue();
-                            throw new RuntimeException("FFMPEG_START_FAILED: Process exited early with code=" + code);
-                        }
-                    }
-                }
-                Thread.sleep(checkInterval);
-            }
-
-            // Kiểm tra lại một lần nữa sau khi hết thời gian chờ
-            if (!process.isAlive()) {
-                try {
-                    int code = process.exitValue();
-                    throw new RuntimeException("FFMPEG_START_FAILED: Process exited with code=" + code);
-                } catch (IllegalThreadStateException e) {
-                    // Process vẫn đang chạy (race condition), coi như OK
-                }
-            }
-
-        } catch (RuntimeException re) {
-            throw re;
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            // Nếu bị interrupt, kiểm tra process một lần nữa
-            if (!process.isAlive()) {
-                try {
-                    int code = process.exitValue();
-                    throw new RuntimeException("FFMPEG_START_FAILED: Process exited with code=" + code);
-                } catch (IllegalThreadStateException ignored) {
-                    // Process vẫn đang chạy, coi như OK
-                }
-            }
-        } catch (Exception e) {
-            throw new RuntimeException("FFMPEG_START_CHECK_ERROR: " + e.getMessage(), e);
-        }
-    }
-
     @PreDestroy
     public void cleanup() {
-        System.out.println("[FFMPEG-CLEANUP] Spring Boot context is closing/reloading. Force killing all active FFmpeg processes...");
-        for (Map.Entry<String, Process> entry : processMap.entrySet()) {
-            Process p = entry.getValue();
-            if (p != null && p.isAlive()) {
+        if (detachedMode) {
+            // Process detached tiếp tục stream, lần khởi động sau sẽ nhận lại qua PID
+            long detached = processMap.values().stream().filter(FfmpegProcess::isDetached).count();
+            System.out.println("[FFMPEG-CLEANUP] Context closing, leaving " + detached
+                    + " detached FFmpeg process(es) running for adoption on next start");
+        } else {
+            System.out.println("[FFMPEG-CLEANUP] Spring Boot context is closing/reloading. Force killing all active FFmpeg processes...");
+        }
+        for (Map.Entry<String, FfmpegProcess> entry : processMap.entrySet()) {
+            FfmpegProcess p = entry.getValue();
+            if (p != null && !p.isDetached() && p.isAlive()) {
                 System.out.println("[FFMPEG-CLEANUP] Killing FFmpeg for streamKey: " + entry.getKey());
                 p.destroyForcibly();
             }
         }
         processMap.clear();
         statMap.clear();
+        if (controlPool != null) {
+            controlPool.shutdownNow();
+        }
     }
 }
@@ -1,6 +1,6 @@
 package com.stream.backend.service.implementation;
 
-import java.io.File;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -17,9 +17,11 @@ import com.stream.backend.entity.StreamSession;
 import com.stream.backend.repository.MemberRepository;
 import com.stream.backend.repository.StreamRepository;
 import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.scheduler.ScheduledStartTimer;
 import com.stream.backend.service.AsyncVideoSwapService;
 import com.stream.backend.service.FfmpegService;
 import com.stream.backend.service.StreamService;
+import com.stream.backend.service.VideoStoreService;
 import com.stream.backend.youtube.YouTubeLiveService;
 
 import lombok.extern.slf4j.Slf4j;
@@ -35,6 +37,8 @@ public class StreamServiceImpl implements StreamService {
     private final YouTubeLiveService youTubeLiveService;
     private final FfmpegService ffmpegService;
     private final AsyncVideoSwapService asyncVideoSwapService;
+    private final ScheduledStartTimer scheduledStartTimer;
+    private final VideoStoreService videoStoreService;
 
     public StreamServiceImpl(
             StreamRepository streamRepository,
@@ -42,7 +46,9 @@ public class StreamServiceImpl implements StreamService {
             MemberRepository memberRepository,
             YouTubeLiveService youTubeLiveService,
             FfmpegService ffmpegService,
-            AsyncVideoSwapService asyncVideoSwapService) {
+            AsyncVideoSwapService asyncVideoSwapService,
+            ScheduledStartTimer scheduledStartTimer,
+            VideoStoreService videoStoreService) {
 
         this.streamRepository = streamRepository;
         this.streamSessionRepository = streamSessionRepository;
@@ -50,6 +56,8 @@ public class StreamServiceImpl implements StreamService {
         this.youTubeLiveService = youTubeLiveService;
         this.ffmpegService = ffmpegService;
         this.asyncVideoSwapService = asyncVideoSwapService;
+        this.scheduledStartTimer = scheduledStartTimer;
+        this.videoStoreService = videoStoreService;
     }
 
     @Override
@@ -85,6 +93,7 @@ public class StreamServiceImpl implements StreamService {
 
 
         Stream saved = streamRepository.save(stream);
+        videoStoreService.updateReferences(saved.getId(), null, saved.getVideoList());
 
 
         if (isStreamComplete(saved)) {
@@ -112,6 +121,9 @@ public class StreamServiceImpl implements StreamService {
             }
         }
 
+        // Hẹn giờ start (chạy sau khi commit)
+        scheduledStartTimer.sync(saved.getId());
+
         return saved;
     }
 
@@ -172,7 +184,11 @@ public class StreamServiceImpl implements StreamService {
             if ("ACTIVE".equalsIgnoreCase(ss.getStatus())) {
                 String streamKey = existingStream.getKeyStream();
                 if (streamKey != null && !streamKey.isBlank()) {
-                    ffmpegService.stopStream(streamKey);
+                    // Không giữ transaction chờ FFmpeg dừng (tối đa ~7 giây)
+                    ffmpegService.stopStreamAsync(streamKey).exceptionally(e -> {
+                        log.error("[DELETE-STREAM] Failed to stop FFmpeg for streamKey={}", streamKey, e);
+                        return null;
+                    });
                 }
                 try {
                     youTubeLiveService.transitionBroadcast(existingStream, "complete");
@@ -183,6 +199,8 @@ public class StreamServiceImpl implements StreamService {
         }
 
         streamRepository.delete(existingStream);
+        videoStoreService.updateReferences(existingStream.getId(), null, null);
+        scheduledStartTimer.cancel(existingStream.getId());
     }
 
     @Override
@@ -225,6 +243,8 @@ public class StreamServiceImpl implements StreamService {
             }
 
             Stream saved = streamRepository.save(existing);
+            refreshSessionPlan(id);
+            scheduledStartTimer.sync(id);
             return saved;
         }
 
@@ -235,17 +255,9 @@ public class StreamServiceImpl implements StreamService {
             boolean newVideoIsEmpty = newVideoList == null || newVideoList.trim().isEmpty();
             String oldVideoList = existing.getVideoList();
 
-            if (newVideoIsEmpty) {
-                if (oldVideoList != null && !oldVideoList.isBlank()) {
-                    deleteOldVideoFiles(oldVideoList, null);
-                }
-                existing.setVideoList(null);
-            } else {
-                if (oldVideoList != null && !oldVideoList.isBlank() && !oldVideoList.equals(newVideoList)) {
-                    deleteOldVideoFiles(oldVideoList, newVideoList);
-                }
-                existing.setVideoList(newVideoList);
-            }
+            // Ref kho video theo videoList mới; file cũ chỉ bị xóa khi không stream nào khác dùng
+            videoStoreService.updateReferences(id, oldVideoList, newVideoIsEmpty ? null : newVideoList);
+            existing.setVideoList(newVideoIsEmpty ? null : newVideoList);
 
 
             existing.setTimeStart(stream.getTimeStart());
@@ -276,17 +288,9 @@ public class StreamServiceImpl implements StreamService {
 
             String oldVideoList = existing.getVideoList();
 
-            if (newVideoIsEmpty) {
-                if (oldVideoList != null && !oldVideoList.isBlank()) {
-                    deleteOldVideoFiles(oldVideoList, null);
-                }
-                existing.setVideoList(null);
-            } else {
-                if (oldVideoList != null && !oldVideoList.isBlank() && !oldVideoList.equals(newVideoList)) {
-                    deleteOldVideoFiles(oldVideoList, newVideoList);
-                }
-                existing.setVideoList(newVideoList);
-            }
+            // Ref kho video theo videoList mới; file cũ chỉ bị xóa khi không stream nào khác dùng
+            videoStoreService.updateReferences(id, oldVideoList, newVideoIsEmpty ? null : newVideoList);
+            existing.setVideoList(newVideoIsEmpty ? null : newVideoList);
 
 
             existing.setTimeStart(stream.getTimeStart());
@@ -345,66 +349,26 @@ public class StreamServiceImpl implements StreamService {
         }
 
         Stream saved = streamRepository.save(existing);
+        refreshSessionPlan(id);
+        scheduledStartTimer.sync(id);
 
         return saved;
     }
 
     /**
-     * Xóa file video cũ khi cập nhật videoList mới
-     * Chỉ xóa file local, không xóa URL
-     */
-    private void deleteOldVideoFiles(String oldVideoList, String newVideoList) {
-        if (oldVideoList == null || oldVideoList.isBlank()) {
-            return;
-        }
-
-        String[] oldPaths = oldVideoList.split("\\r?\\n");
-        for (String videoPath : oldPaths) {
-            videoPath = videoPath.trim();
-            if (videoPath.isEmpty())
-                continue;
-
-            // Kiểm tra nếu video cũ cũng có trong video mới → không xóa
-            if (newVideoList != null && newVideoList.contains(videoPath)) {
-                log.info("[UPDATE-STREAM] Skipping delete (same video): {}", videoPath);
-                continue;
-            }
-
-            // Chỉ xóa file local (không phải URL)
-            if (isLocalFile(videoPath)) {
-                try {
-                    File videoFile = new File(videoPath);
-                    if (videoFile.exists()) {
-                        boolean deleted = videoFile.delete();
-                        if (deleted) {
-                            log.info("[UPDATE-STREAM] Deleted old video file: {}", videoPath);
-                        } else {
-                            log.warn("[UPDATE-STREAM] Failed to delete old video file: {}", videoPath);
-                        }
-                    } else {
-                        log.info("[UPDATE-STREAM] Old video file not found (may already deleted): {}", videoPath);
-                    }
-                } catch (Exception e) {
-                    log.error("[UPDATE-STREAM] Error deleting old video file: {}", videoPath, e);
-                }
-            } else {
-                log.info("[UPDATE-STREAM] Skipping URL (not local file): {}", videoPath);
-            }
-        }
-    }
-
-    /**
-     * Kiểm tra xem đường dẫn có phải là file local không
+     * timeStart/duration đổi mà session không được lưu lại thì planned_start_at /
+     * planned_end_at sẽ cũ → tính lại tường minh. Dùng bulk update: session ACTIVE có thể vừa
+     * bị watchdog tăng @Version, save cả entity sẽ làm hỏng cả lượt sửa của user.
      */
-    private boolean isLocalFile(String path) {
-        if (path == null || path.isBlank()) {
-            return false;
-        }
-        // Kiểm tra Windows path (C:\...) hoặc Unix path (/...)
-        // Không phải URL (http://, https://)
-        return !path.startsWith("http://")
-                && !path.startsWith("https://")
-                && (path.matches("^[a-zA-Z]:\\\\.*") || path.startsWith("/"));
+    private void refreshSessionPlan(Integer streamId) {
+        streamSessionRepository.findTopByStreamIdOrderByIdDesc(streamId).ifPresent(ss -> {
+            Stream stream = ss.getStream();
+            LocalDateTime plannedStart = stream != null ? stream.getTimeStart() : null;
+            LocalDateTime plannedEnd = StreamSession.plannedEndOf(
+                    ss.getStartedAt() != null ? ss.getStartedAt() : plannedStart,
+                    stream != null ? stream.getDuration() : null);
+            streamSessionRepository.updatePlannedTimes(ss.getId(), plannedStart, plannedEnd);
+        });
     }
 
     private Sort parseSort(String sort) {
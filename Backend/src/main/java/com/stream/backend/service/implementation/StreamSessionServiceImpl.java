@@ -1,15 +1,22 @@
 package com.stream.backend.service.implementation;
 
+import com.stream.backend.download.VideoSources;
 import com.stream.backend.entity.Stream;
 import com.stream.backend.entity.StreamSession;
 import com.stream.backend.repository.StreamRepository;
 import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.ffmpeg.MediaDurationProbe;
 import com.stream.backend.service.FfmpegService;
+import com.stream.backend.service.RestartPolicyService;
 import com.stream.backend.service.StreamSessionService;
+import com.stream.backend.service.VideoStoreService;
 import com.stream.backend.youtube.YouTubeLiveService;
 
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
@@ -21,8 +28,10 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.io.File;
 
 import lombok.extern.slf4j.Slf4j;
@@ -32,23 +41,41 @@ import lombok.extern.slf4j.Slf4j;
 public class StreamSessionServiceImpl implements StreamSessionService {
 
     private static final int FFMPEG_MAX_RETRY = 3;
-    private static final long FFMPEG_RETRY_DELAY_MS = 5000;
+    private static final int UPDATE_MAX_ATTEMPTS = 3;
+
+    /** Trạng thái trung gian giữa lúc claim và lúc FFmpeg start xong */
+    private static final String STATUS_STARTING = "STARTING";
 
     private final StreamSessionRepository streamSessionRepository;
     private final StreamRepository streamRepository;
     private final FfmpegService ffmpegService;
     private final YouTubeLiveService youTubeLiveService;
+    private final TransactionTemplate transactionTemplate;
+    private final RestartPolicyService restartPolicy;
+    private final MediaDurationProbe durationProbe;
+    private final VideoStoreService videoStoreService;
+
+    /** streamId đang trong quá trình start (claim → FFmpeg → ghi kết quả) */
+    private final Set<Integer> startingStreamIds = ConcurrentHashMap.newKeySet();
 
     public StreamSessionServiceImpl(
             StreamSessionRepository streamSessionRepository,
             StreamRepository streamRepository,
             FfmpegService ffmpegService,
-            YouTubeLiveService youTubeLiveService) {
+            YouTubeLiveService youTubeLiveService,
+            PlatformTransactionManager transactionManager,
+            RestartPolicyService restartPolicy,
+            MediaDurationProbe durationProbe,
+            VideoStoreService videoStoreService) {
 
         this.streamSessionRepository = streamSessionRepository;
         this.streamRepository = streamRepository;
         this.ffmpegService = ffmpegService;
         this.youTubeLiveService = youTubeLiveService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.restartPolicy = restartPolicy;
+        this.durationProbe = durationProbe;
+        this.videoStoreService = videoStoreService;
     }
 
     @Override
@@ -133,8 +160,11 @@ public class StreamSessionServiceImpl implements StreamSessionService {
                 .orElseThrow(() -> new RuntimeException("StreamSession not found with id = " + streamSessionId));
     }
 
+    /**
+     * Dừng FFmpeg và gọi YouTube ngoài transaction, sau đó mới ghi STOPPED
+     * (transaction ngắn, đọc lại bản mới nhất và retry nếu bị ghi đè).
+     */
     @Override
-    @Transactional
     public StreamSession stopStreamSession(StreamSession session) {
 
         if (session == null)
@@ -161,132 +191,164 @@ public class StreamSessionServiceImpl implements StreamSessionService {
             System.err.println("[STOP] transition complete failed (ignored): " + ex.getMessage());
         }
 
-        session.setStatus("STOPPED");
-        session.setStoppedAt(LocalDateTime.now());
-        streamSessionRepository.save(session);
+        StreamSession stopped = updateSession(session.getId(), ss -> {
+            ss.setStatus("STOPPED");
+            ss.setStoppedAt(LocalDateTime.now());
+        });
+
+        // Bản prefetch không còn dùng → bỏ để GC kho video thu hồi blob
+        try {
+            streamSessionRepository.updateEffectiveVideoList(session.getId(), null, null);
+        } catch (Exception e) {
+            log.warn("[STOP] Cannot clear prefetched video list for sessionId={}: {}", session.getId(),
+                    e.getMessage());
+        }
 
-        return session;
+        return stopped != null ? stopped : session;
     }
 
     @Override
-    @Transactional
     public StreamSession startSessionForStream(Integer streamId) {
-        Stream stream = streamRepository.findById(streamId)
-                .orElseThrow(() -> new RuntimeException("Stream không tồn tại"));
+        StreamSession session = claim(() -> {
+            Stream stream = streamRepository.findById(streamId)
+                    .orElseThrow(() -> new RuntimeException("Stream không tồn tại"));
 
-        StreamSession session = streamSessionRepository
-                .findTopByStreamIdOrderByIdDesc(streamId)
-                .orElse(null);
+            StreamSession ss = streamSessionRepository
+                    .findTopByStreamIdOrderByIdDesc(streamId)
+                    .orElse(null);
 
-        if (session != null && "ACTIVE".equalsIgnoreCase(session.getStatus())) {
-            throw new RuntimeException("Stream đang ACTIVE, không thể Stream Ngay.");
-        }
+            if (ss != null && isBusy(ss)) {
+                throw new RuntimeException("Stream đang ACTIVE, không thể Stream Ngay.");
+            }
 
-        if (session == null) {
-            session = new StreamSession();
-            session.setStream(stream);
-        }
+            if (ss == null) {
+                ss = new StreamSession();
+                ss.setStream(stream);
+            }
 
-        session.setSpecification("Manual start");
-        session.setStartedAt(null);
-        session.setStoppedAt(null);
-        session.setLastError(null);
-        session.setLastErrorAt(null);
-        streamSessionRepository.save(session);
+            ss.setSpecification("Manual start");
+            ss.setStartedAt(null);
+            ss.setStoppedAt(null);
+            return ss;
+        });
 
+        Stream stream = session.getStream();
         String streamKey = stream.getKeyStream();
-        if (streamKey == null || streamKey.isBlank()) {
-            markError(session, "STREAM_KEY_EMPTY");
-            return session;
-        }
-
-        String videoSource = resolveVideoSources(stream);
-
-        String lastMsg = "FFMPEG_START_FAILED";
-        for (int attempt = 1; attempt <= FFMPEG_MAX_RETRY; attempt++) {
-            try {
-                ffmpegService.startStream(videoSource, null, streamKey);
-
-                session.setStatus("ACTIVE");
-                session.setStartedAt(LocalDateTime.now());
-                session.setStoppedAt(null);
-                session.setLastError(null);
-                session.setLastErrorAt(null);
-                streamSessionRepository.save(session);
-
-                log.info("[RETRY] Manual stream started OK on attempt {}/{} for streamId={}",
-                        attempt, FFMPEG_MAX_RETRY, streamId);
-                return session;
-
-            } catch (Exception e) {
-                lastMsg = e.getMessage() != null ? e.getMessage() : "FFMPEG_START_FAILED";
-                log.warn("[RETRY] Manual start attempt {}/{} failed for streamId={}: {}",
-                        attempt, FFMPEG_MAX_RETRY, streamId, lastMsg);
+        try {
+            if (streamKey == null || streamKey.isBlank()) {
+                return recordError(session, "STREAM_KEY_EMPTY");
+            }
 
-                if (attempt < FFMPEG_MAX_RETRY) {
-                    try {
-                        Thread.sleep(FFMPEG_RETRY_DELAY_MS);
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        break;
-                    }
-                }
+            String lastMsg = launchWithRetry(session.getId(), resolveVideoSources(session, stream), streamKey, "Manual",
+                    "streamId=" + streamId);
+            if (lastMsg == null) {
+                return recordActive(session, streamKey);
             }
-        }
 
-        markError(session, lastMsg);
-        throw new RuntimeException("Không thể bắt đầu stream (đã retry " + FFMPEG_MAX_RETRY + " lần): " + lastMsg);
+            recordError(session, lastMsg);
+            throw new RuntimeException("Không thể bắt đầu stream (đã thử lại nhiều lần): " + lastMsg);
+        } finally {
+            startingStreamIds.remove(stream.getId());
+        }
     }
 
     @Override
-    @Transactional
     public StreamSession startScheduledSession(Integer streamSessionId) {
-        StreamSession session = streamSessionRepository.findById(streamSessionId)
-                .orElseThrow(() -> new RuntimeException("StreamSession not found"));
+        StreamSession session = claim(() -> {
+            StreamSession ss = streamSessionRepository.findById(streamSessionId)
+                    .orElseThrow(() -> new RuntimeException("StreamSession not found"));
 
-        if (!"SCHEDULED".equalsIgnoreCase(session.getStatus())) {
-            throw new RuntimeException("Session is not SCHEDULED");
-        }
+            if (!"SCHEDULED".equalsIgnoreCase(ss.getStatus())) {
+                throw new RuntimeException("Session is not SCHEDULED");
+            }
+
+            ss.setSpecification("Auto start");
+            return ss;
+        });
 
         Stream stream = session.getStream();
+        String streamKey = stream.getKeyStream();
+        try {
+            if (streamKey == null || streamKey.isBlank()) {
+                recordError(session, "STREAM_KEY_EMPTY");
+                throw new RuntimeException("Stream key trống");
+            }
 
-        session.setSpecification("Auto start");
-        session.setLastError(null);
-        session.setLastErrorAt(null);
-        streamSessionRepository.save(session);
+            String lastMsg = launchWithRetry(session.getId(), resolveVideoSources(session, stream), streamKey, "Scheduled",
+                    "sessionId=" + streamSessionId);
+            if (lastMsg == null) {
+                return recordActive(session, streamKey);
+            }
 
-        String streamKey = stream.getKeyStream();
-        if (streamKey == null || streamKey.isBlank()) {
-            markError(session, "STREAM_KEY_EMPTY");
-            throw new RuntimeException("Stream key trống");
+            // scheduler không cần throw, chỉ cần lưu ERROR
+            return recordError(session, lastMsg);
+        } finally {
+            startingStreamIds.remove(stream.getId());
+        }
+    }
+
+    /**
+     * Bước "claim": transaction ngắn, chuyển session sang STARTING và tăng version.
+     * Hai luồng (user / scheduler / watchdog) cùng claim thì luồng commit sau sẽ
+     * dính optimistic lock và bị từ chối, không ai phải giữ lock trong lúc start FFmpeg.
+     */
+    private StreamSession claim(Supplier<StreamSession> loader) {
+        Integer[] streamIdHolder = new Integer[1];
+        try {
+            return transactionTemplate.execute(txStatus -> {
+                StreamSession ss = loader.get();
+
+                Integer streamId = ss.getStream().getId();
+                if (!startingStreamIds.add(streamId)) {
+                    throw new RuntimeException("Stream đang được khởi động, vui lòng chờ.");
+                }
+                streamIdHolder[0] = streamId;
+
+                ss.setStatus(STATUS_STARTING);
+                ss.setLastError(null);
+                ss.setLastErrorAt(null);
+                return streamSessionRepository.saveAndFlush(ss);
+            });
+        } catch (RuntimeException e) {
+            if (streamIdHolder[0] != null) {
+                startingStreamIds.remove(streamIdHolder[0]);
+            }
+            if (e instanceof ObjectOptimisticLockingFailureException) {
+                throw new RuntimeException("Stream đang được xử lý bởi thao tác khác, vui lòng thử lại.");
+            }
+            throw e;
         }
+    }
 
-        String videoSource = resolveVideoSources(stream);
+    /**
+     * Start FFmpeg (ngoài transaction) có retry; trả về null nếu OK, ngược lại là lỗi cuối cùng.
+     * Start thủ công / theo lịch là ý định mới nên mở cửa sổ restart mới; khoảng chờ giữa
+     * các lần thử lấy từ RestartPolicyService (backoff mũ + jitter).
+     */
+    private String launchWithRetry(Integer sessionId, String videoSource, String streamKey, String kind,
+            String target) {
+        restartPolicy.reset(sessionId);
+        // Phát mới từ đầu playlist
+        streamSessionRepository.updatePlaybackPosition(sessionId, 0L);
 
         String lastMsg = "FFMPEG_START_FAILED";
         for (int attempt = 1; attempt <= FFMPEG_MAX_RETRY; attempt++) {
             try {
                 ffmpegService.startStream(videoSource, null, streamKey);
 
-                session.setStatus("ACTIVE");
-                session.setStartedAt(LocalDateTime.now());
-                session.setStoppedAt(null);
-                session.setLastError(null);
-                session.setLastErrorAt(null);
-                streamSessionRepository.save(session);
-
-                log.info("[RETRY] Scheduled stream started OK on attempt {}/{} for sessionId={}",
-                        attempt, FFMPEG_MAX_RETRY, streamSessionId);
-                return session;
+                log.info("[RETRY] {} stream started OK on attempt {}/{} for {}",
+                        kind, attempt, FFMPEG_MAX_RETRY, target);
+                return null;
 
             } catch (Exception e) {
                 lastMsg = e.getMessage() != null ? e.getMessage() : "FFMPEG_START_FAILED";
-                log.warn("[RETRY] Scheduled start attempt {}/{} failed for sessionId={}: {}",
-                        attempt, FFMPEG_MAX_RETRY, streamSessionId, lastMsg);
+                long delayMs = restartPolicy.recordAttempt(sessionId);
+                log.warn("[RETRY] {} start attempt {}/{} failed for {}: {}",
+                        kind, attempt, FFMPEG_MAX_RETRY, target, lastMsg);
 
                 if (attempt < FFMPEG_MAX_RETRY) {
                     try {
-                        Thread.sleep(FFMPEG_RETRY_DELAY_MS);
+                        Thread.sleep(delayMs);
                     } catch (InterruptedException ie) {
                         Thread.currentThread().interrupt();
                         break;
@@ -294,24 +356,79 @@ public class StreamSessionServiceImpl implements StreamSessionService {
                 }
             }
         }
+        return lastMsg;
+    }
 
-        markError(session, lastMsg);
-        // scheduler không cần throw, để transaction commit và lưu ERROR
-        return session;
-
+    /**
+     * Ghi ACTIVE dựa trên version lúc claim. Nếu trong lúc start đã có người khác
+     * sửa session (VD: user bấm Stop) thì bỏ kết quả và dừng FFmpeg vừa bật.
+     */
+    private StreamSession recordActive(StreamSession claimed, String streamKey) {
+        claimed.setStatus("ACTIVE");
+        claimed.setStartedAt(LocalDateTime.now());
+        claimed.setStoppedAt(null);
+        claimed.setLastError(null);
+        claimed.setLastErrorAt(null);
+        try {
+            return streamSessionRepository.save(claimed);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            log.warn("[START] sessionId={} changed while starting, stopping FFmpeg for streamKey={}",
+                    claimed.getId(), streamKey);
+            try {
+                ffmpegService.stopStream(streamKey);
+            } catch (Exception ex) {
+                log.error("[START] Cannot stop FFmpeg after lost race for streamKey={}", streamKey, ex);
+            }
+            return streamSessionRepository.findById(claimed.getId()).orElse(claimed);
+        }
     }
 
-    private String normalizeVideoSource(String raw) {
-        if (raw == null)
-            return null;
-        raw = raw.trim();
+    /** Ghi ERROR; nếu session đã bị thao tác khác thay đổi thì giữ nguyên trạng thái mới đó */
+    private StreamSession recordError(StreamSession claimed, String msg) {
+        claimed.setStatus("ERROR");
+        claimed.setLastError(msg);
+        claimed.setLastErrorAt(LocalDateTime.now());
+        try {
+            return streamSessionRepository.save(claimed);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            log.warn("[START] sessionId={} changed while starting, not overwriting with ERROR ({})",
+                    claimed.getId(), msg);
+            return streamSessionRepository.findById(claimed.getId()).orElse(claimed);
+        }
+    }
 
-        Pattern p = Pattern.compile("https?://drive\\.google\\.com/file/d/([^/]+)/view.*");
-        Matcher m = p.matcher(raw);
-        if (m.matches()) {
-            return "https://drive.google.com/uc?export=download&id=" + m.group(1);
+    /**
+     * Đọc lại bản mới nhất rồi ghi (mỗi lần save là 1 transaction ngắn);
+     * nếu đụng version với thao tác khác thì đọc lại và thử thêm.
+     */
+    private StreamSession updateSession(Integer sessionId, Consumer<StreamSession> change) {
+        for (int attempt = 1; ; attempt++) {
+            StreamSession fresh = streamSessionRepository.findById(sessionId).orElse(null);
+            if (fresh == null)
+                return null;
+
+            change.accept(fresh);
+            try {
+                return streamSessionRepository.save(fresh);
+            } catch (ObjectOptimisticLockingFailureException e) {
+                if (attempt >= UPDATE_MAX_ATTEMPTS)
+                    throw e;
+                log.debug("[SESSION] Version conflict on sessionId={}, retry {}/{}",
+                        sessionId, attempt, UPDATE_MAX_ATTEMPTS);
+            }
         }
-        return raw;
+    }
+
+    /**
+     * ACTIVE, hoặc STARTING mà thực sự đang có luồng start trong JVM này
+     * (STARTING còn sót lại sau khi app tắt giữa chừng thì cho claim lại).
+     */
+    private boolean isBusy(StreamSession session) {
+        if ("ACTIVE".equalsIgnoreCase(session.getStatus()))
+            return true;
+        return STATUS_STARTING.equalsIgnoreCase(session.getStatus())
+                && session.getStream() != null
+                && startingStreamIds.contains(session.getStream().getId());
     }
 
     @Override
@@ -329,22 +446,13 @@ public class StreamSessionServiceImpl implements StreamSessionService {
         return streamSessionRepository.findAllByOptionalStatusAndOwnerName(s, o, pageable);
     }
 
-    private void markError(StreamSession session, String msg) {
-        session.setStatus("ERROR");
-        session.setLastError(msg);
-        session.setLastErrorAt(LocalDateTime.now());
-        streamSessionRepository.save(session);
-    }
-
-    private String resolveVideoSources(Stream stream) {
-        if (stream.getVideoList() != null && !stream.getVideoList().isBlank()) {
-            return Arrays.stream(stream.getVideoList().split("\\r?\\n"))
-                    .map(String::trim)
-                    .filter(s -> !s.isEmpty())
-                    .map(this::normalizeVideoSource)
-                    .collect(java.util.stream.Collectors.joining("\n"));
-        }
-        return null;
+    /**
+     * Nguồn cho FFmpeg: bản local đã được VideoPrefetcher tải về nếu còn khớp videoList,
+     * chưa prefetch xong thì dùng thẳng URL.
+     */
+    private String resolveVideoSources(StreamSession session, Stream stream) {
+        return VideoSources.resolve(stream.getVideoList(), session.getEffectiveVideoList(),
+                session.getEffectiveSourceHash());
     }
 
     @Override
@@ -388,34 +496,8 @@ public class StreamSessionServiceImpl implements StreamSessionService {
             log.info("[DELETE-VIDEO] No video path for streamId={}, sessionId={}", managedStream.getId(),
                     managedSession.getId());
         } else {
-            // Xóa file video dựa vào đường dẫn
-            String[] videoPaths = videoList.split("\\r?\\n");
-            for (String videoPath : videoPaths) {
-                videoPath = videoPath.trim();
-                if (videoPath.isEmpty())
-                    continue;
-
-                // Chỉ xóa file local (không phải URL)
-                if (isLocalFile(videoPath)) {
-                    try {
-                        File videoFile = new File(videoPath);
-                        if (videoFile.exists()) {
-                            boolean deleted = videoFile.delete();
-                            if (deleted) {
-                                log.info("[DELETE-VIDEO] Deleted video file: {}", videoPath);
-                            } else {
-                                log.warn("[DELETE-VIDEO] Failed to delete video file: {}", videoPath);
-                            }
-                        } else {
-                            log.info("[DELETE-VIDEO] Video file not found (may already deleted): {}", videoPath);
-                        }
-                    } catch (Exception e) {
-                        log.error("[DELETE-VIDEO] Error deleting video file: {}", videoPath, e);
-                    }
-                } else {
-                    log.info("[DELETE-VIDEO] Skipping URL (not local file): {}", videoPath);
-                }
-            }
+            // Bỏ ref kho video; file rời chỉ bị xóa khi không stream nào khác dùng
+            videoStoreService.updateReferences(managedStream.getId(), videoList, null);
         }
 
         // --- XÓA FILE CONCAT .TXT ---
@@ -466,17 +548,6 @@ public class StreamSessionServiceImpl implements StreamSessionService {
         log.info("[DELETE-VIDEO] Reset stream to NONE state: streamId={}, sessionId={}", streamId, sessionId);
     }
 
-    private boolean isLocalFile(String path) {
-        if (path == null || path.isBlank()) {
-            return false;
-        }
-        // Kiểm tra nếu là đường dẫn Windows (C:\...) hoặc Unix (/...)
-        // và không phải là URL (http://, https://)
-        return !path.startsWith("http://")
-                && !path.startsWith("https://")
-                && (path.matches("^[a-zA-Z]:\\\\.*") || path.startsWith("/"));
-    }
-
     @Override
     public Map<String, Object> getAdminStats() {
         long totalStreams = streamRepository.count();
@@ -527,15 +598,44 @@ public class StreamSessionServiceImpl implements StreamSessionService {
             throw new RuntimeException("Stream key trống cho sessionId=" + session.getId());
         }
 
-        String videoSource = resolveVideoSources(stream);
+        String videoSource = resolveVideoSources(freshSession, stream);
         if (videoSource == null || videoSource.isBlank()) {
             throw new RuntimeException("Video source trống cho sessionId=" + session.getId());
         }
 
+        long offsetMs = resumeOffsetMs(freshSession, streamKey, videoSource);
+
         // Restart FFmpeg — startStream sẽ tự stopStream trước nếu cần
-        ffmpegService.startStream(videoSource, null, streamKey);
+        ffmpegService.startStream(videoSource, null, streamKey, offsetMs);
 
-        log.info("[WATCHDOG] FFmpeg restarted OK for sessionId={}, streamId={}, streamKey={}",
-                session.getId(), stream.getId(), streamKey);
+        log.info("[WATCHDOG] FFmpeg restarted OK for sessionId={}, streamId={}, streamKey={}, offset={} ms",
+                session.getId(), stream.getId(), streamKey, offsetMs);
+    }
+
+    /**
+     * Vị trí tiếp tục phát: lấy từ progress của process vừa chết (hoặc giá trị đã lưu trong DB
+     * nếu backend vừa khởi động lại), chia lấy dư cho tổng thời lượng playlist vì FFmpeg chạy
+     * -stream_loop -1. Không đo được thời lượng thì phát lại từ đầu cho an toàn.
+     */
+    private long resumeOffsetMs(StreamSession session, String streamKey, String videoSource) {
+        Long position = ffmpegService.getPlaybackPositionMs(streamKey);
+        if (position == null) {
+            position = session.getPlaybackPositionMs();
+        }
+        if (position == null || position <= 0) {
+            return 0;
+        }
+
+        List<String> paths = Arrays.stream(videoSource.split("\\r?\\n"))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .toList();
+        long totalMs = durationProbe.playlistDurationMs(paths);
+        if (totalMs <= 0) {
+            log.warn("[WATCHDOG] Unknown playlist duration for sessionId={}, restarting from beginning",
+                    session.getId());
+            return 0;
+        }
+        return position % totalMs;
     }
 }
@@ -0,0 +1,66 @@
+package com.stream.backend.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class LocalFileImporterTest {
+
+    @TempDir
+    Path tmp;
+
+    private final LocalFileImporter importer = new LocalFileImporter();
+
+    private Path source() throws IOException {
+        byte[] data = new byte[300_000];
+        new Random(7).nextBytes(data);
+        Path src = tmp.resolve("nas/source.mp4");
+        Files.createDirectories(src.getParent());
+        return Files.write(src, data);
+    }
+
+    @Test
+    void hardLinksOnSameFilesystem() throws IOException {
+        Path src = source();
+        Path dest = tmp.resolve("videos/a.mp4");
+
+        LocalFileImporter.Result r = importer.importFile(src, dest);
+
+        assertEquals(LocalFileImporter.Method.LINK, r.method());
+        assertTrue(Files.isSameFile(src, dest));
+        // Xóa bản trong thư mục video không ảnh hưởng file gốc
+        Files.delete(dest);
+        assertTrue(Files.exists(src));
+    }
+
+    @Test
+    void transfersWhenLinkDisabled() throws IOException {
+        ReflectionTestUtils.setField(importer, "hardLink", false);
+        Path src = source();
+        Path dest = tmp.resolve("videos/b.mp4");
+
+        LocalFileImporter.Result r = importer.importFile(src, dest);
+
+        assertEquals(LocalFileImporter.Method.TRANSFER, r.method());
+        assertFalse(Files.isSameFile(src, dest));
+        assertArrayEquals(Files.readAllBytes(src), Files.readAllBytes(dest));
+        assertFalse(Files.exists(tmp.resolve("videos/b.mp4.import")));
+    }
+
+    @Test
+    void sameFileIsNoop() throws IOException {
+        Path src = source();
+
+        assertEquals(LocalFileImporter.Method.NONE, importer.importFile(src, src).method());
+    }
+}
@@ -0,0 +1,188 @@
+package com.stream.backend.download;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+class RangedHttpDownloaderTest {
+
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @TempDir
+    Path tmp;
+
+    private final byte[] content = new byte[200_000];
+    private final AtomicLong servedBytes = new AtomicLong();
+    private final AtomicBoolean supportRange = new AtomicBoolean(true);
+    /** Cắt kết nối 1 lần khi phục vụ range không bắt đầu từ 0 */
+    private final AtomicBoolean dropOnce = new AtomicBoolean(false);
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final RangedHttpDownloader downloader = new RangedHttpDownloader(objectMapper);
+    private HttpServer server;
+    private String url;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        new Random(42).nextBytes(content);
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/video.mp4", this::serve);
+        server.start();
+        url = "http://127.0.0.1:" + server.getAddress().getPort() + "/video.mp4";
+
+        ReflectionTestUtils.setField(downloader, "segments", 4);
+        ReflectionTestUtils.setField(downloader, "minSegmentBytes", 1024L);
+        ReflectionTestUtils.setField(downloader, "bufferBytes", 4096);
+        ReflectionTestUtils.setField(downloader, "maxRetries", 3);
+        ReflectionTestUtils.setField(downloader, "stateSaveIntervalMs", 100L);
+        ReflectionTestUtils.invokeMethod(downloader, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+        ReflectionTestUtils.invokeMethod(downloader, "shutdown");
+    }
+
+    private void serve(HttpExchange ex) throws IOException {
+        String range = ex.getRequestHeaders().getFirst("Range");
+        Matcher m = range == null ? null : RANGE.matcher(range);
+        ex.getResponseHeaders().add("ETag", "\"v1\"");
+
+        if (supportRange.get() && m != null && m.matches()) {
+            int from = Integer.parseInt(m.group(1));
+            int to = Math.min(Integer.parseInt(m.group(2)), content.length - 1);
+            int len = to - from + 1;
+            ex.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+            ex.sendResponseHeaders(206, len);
+            try (OutputStream os = ex.getResponseBody()) {
+                if (from > 0 && len > 1 && dropOnce.compareAndSet(true, false)) {
+                    os.write(content, from, len / 2);
+                    servedBytes.addAndGet(len / 2);
+                    os.flush();
+                    throw new IOException("simulated drop");
+                }
+                os.write(content, from, len);
+                servedBytes.addAndGet(len);
+            }
+        } else {
+            ex.sendResponseHeaders(200, content.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(content);
+                servedBytes.addAndGet(content.length);
+            }
+        }
+    }
+
+    @Test
+    void downloadsInParallelSegments() throws IOException {
+        File dest = tmp.resolve("out.mp4").toFile();
+
+        RangedHttpDownloader.Result r = downloader.download(url, dest);
+
+        assertEquals(4, r.segments());
+        assertEquals(content.length, r.bytes());
+        assertEquals(ContentHash.sha256(dest.toPath()), r.sha256());
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+        assertFalse(new File(dest.getPath() + ".part.json").exists());
+    }
+
+    @Test
+    void fallsBackToSingleStreamWithoutRange() throws IOException {
+        supportRange.set(false);
+        File dest = tmp.resolve("single.mp4").toFile();
+
+        RangedHttpDownloader.Result r = downloader.download(url, dest);
+
+        assertEquals(1, r.segments());
+        assertEquals(ContentHash.sha256(dest.toPath()), r.sha256());
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    void resumesFromSidecarState() throws IOException {
+        File dest = tmp.resolve("resume.mp4").toFile();
+        int half = content.length / 2;
+
+        // Lần trước đã tải xong nửa đầu
+        File part = new File(dest.getPath() + ".part");
+        byte[] partial = new byte[content.length];
+        System.arraycopy(content, 0, partial, 0, half);
+        Files.write(part.toPath(), partial);
+        RangedHttpDownloader.State state = new RangedHttpDownloader.State(url, content.length, "\"v1\"", null,
+                List.of(new RangedHttpDownloader.SegmentState(0, half - 1, half),
+                        new RangedHttpDownloader.SegmentState(half, content.length - 1, 0)));
+        objectMapper.writeValue(new File(dest.getPath() + ".part.json"), state);
+
+        RangedHttpDownloader.Result r = downloader.download(url, dest);
+
+        assertEquals(half, r.resumedBytes());
+        assertTrue(servedBytes.get() <= content.length - half + 1, "served " + servedBytes.get());
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    void ignoresSidecarOfAnotherUrl() throws IOException {
+        File dest = tmp.resolve("other.mp4").toFile();
+        int half = content.length / 2;
+
+        // File .part của URL khác trùng tên (cùng dung lượng, không có ETag khác biệt)
+        Files.write(new File(dest.getPath() + ".part").toPath(), new byte[content.length]);
+        RangedHttpDownloader.State state = new RangedHttpDownloader.State(url + "?other", content.length,
+                "\"v1\"", null,
+                List.of(new RangedHttpDownloader.SegmentState(0, half - 1, half),
+                        new RangedHttpDownloader.SegmentState(half, content.length - 1, 0)));
+        objectMapper.writeValue(new File(dest.getPath() + ".part.json"), state);
+
+        RangedHttpDownloader.Result r = downloader.download(url, dest);
+
+        assertEquals(0, r.resumedBytes());
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    void retriesDroppedSegmentFromLastByte() throws IOException {
+        dropOnce.set(true);
+        File dest = tmp.resolve("retry.mp4").toFile();
+
+        downloader.download(url, dest);
+
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+
+    @Test
+    void bandwidthLimitAppliesAcrossSegments() throws IOException {
+        File dest = tmp.resolve("slow.mp4").toFile();
+
+        RangedHttpDownloader.Result r = downloader.download(url, dest, null, 100_000);
+
+        // 200 KB ở 100 KB/s, 4 đoạn chia chung 1 giới hạn
+        assertTrue(r.elapsedMs() >= 1500, "elapsed " + r.elapsedMs());
+        assertArrayEquals(content, Files.readAllBytes(dest.toPath()));
+    }
+}
@@ -0,0 +1,45 @@
+package com.stream.backend.download;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VideoSourcesTest {
+
+    @TempDir
+    Path tmp;
+
+    @Test
+    void normalizesDriveLinksAndBlankLines() {
+        String list = " https://drive.google.com/file/d/abc123/view?usp=sharing \n\n/videos/a.mp4\r\n";
+
+        assertEquals("https://drive.google.com/uc?export=download&id=abc123\n/videos/a.mp4",
+                VideoSources.normalizeList(list));
+        assertNull(VideoSources.normalizeList("  \n "));
+    }
+
+    @Test
+    void resolveUsesPrefetchedCopyOnlyWhileItMatches() throws IOException {
+        String videoList = "https://host/a.mp4";
+        Path local = Files.writeString(tmp.resolve("a.mp4"), "x");
+        String fp = VideoSources.fingerprint(VideoSources.normalizeList(videoList));
+
+        assertEquals(local.toString(), VideoSources.resolve(videoList, local.toString(), fp));
+
+        // videoList đã đổi → bản prefetch cũ không còn dùng
+        assertEquals("https://host/b.mp4", VideoSources.resolve("https://host/b.mp4", local.toString(), fp));
+
+        // File prefetch bị xóa → quay về URL
+        Files.delete(local);
+        assertEquals(videoList, VideoSources.resolve(videoList, local.toString(), fp));
+
+        // Chưa prefetch
+        assertEquals(videoList, VideoSources.resolve(videoList, null, null));
+    }
+}
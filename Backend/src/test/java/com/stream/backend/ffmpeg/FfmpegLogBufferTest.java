@@ -0,0 +1,84 @@
+package com.stream.backend.ffmpeg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class FfmpegLogBufferTest {
+
+    private static final String KEY = "abcd-efgh";
+
+    private final FfmpegLogBuffer buffer = new FfmpegLogBuffer();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(buffer, "lines", 10);
+        ReflectionTestUtils.setField(buffer, "lineBytes", 80);
+        ReflectionTestUtils.setField(buffer, "dir", System.getProperty("java.io.tmpdir") + "/ffmpeg-log-test");
+        ReflectionTestUtils.setField(buffer, "flushIntervalMs", 60_000L);
+        ReflectionTestUtils.setField(buffer, "maxFileBytes", 1_000_000L);
+        ReflectionTestUtils.setField(buffer, "maxFiles", 1);
+        ReflectionTestUtils.invokeMethod(buffer, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(buffer, "shutdown");
+    }
+
+    @Test
+    void keepsOnlyLastLinesInOrder() {
+        for (int i = 0; i < 25; i++) {
+            buffer.append(KEY, "line " + i);
+        }
+
+        List<String> tail = buffer.tail(KEY, 100);
+
+        assertEquals(10, tail.size());
+        assertTrue(tail.get(0).endsWith("line 15"));
+        assertTrue(tail.get(9).endsWith("line 24"));
+    }
+
+    @Test
+    void truncatesLongLinesAndCopiesCallerBuffer() {
+        byte[] buf = "x".repeat(200).getBytes(StandardCharsets.UTF_8);
+        buffer.append(KEY, buf, 0, buf.length);
+        buf[0] = 'y';
+
+        String line = buffer.tail(KEY, 1).get(0);
+
+        assertTrue(line.endsWith("x".repeat(80)));
+        assertTrue(!line.contains("y"));
+    }
+
+    @Test
+    void releaseDropsRing() {
+        buffer.append(KEY, "line");
+
+        buffer.release(KEY);
+
+        assertTrue(buffer.tail(KEY, 10).isEmpty());
+    }
+
+    @Test
+    void rejectsKeysUnsafeForFileNames() {
+        buffer.append("../etc/passwd", "line");
+
+        assertTrue(buffer.tail("../etc/passwd", 10).isEmpty());
+        assertFalse(FfmpegLogBuffer.isValidKey("a/b"));
+        assertTrue(FfmpegLogBuffer.isValidKey("abcd-efgh_12"));
+    }
+
+    @Test
+    void unknownKeyHasNoLines() {
+        assertTrue(buffer.tail("missing", 10).isEmpty());
+    }
+}
@@ -0,0 +1,107 @@
+package com.stream.backend.ffmpeg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.stream.backend.entity.FfmpegStat;
+
+class FfmpegProgressParserTest {
+
+    private final List<FfmpegStat> stats = new ArrayList<>();
+    private final List<String> logs = new ArrayList<>();
+
+    private final FfmpegProgressParser parser = new FfmpegProgressParser(new FfmpegProgressParser.Listener() {
+        @Override
+        public void onProgress(FfmpegStat stat) {
+            stats.add(stat);
+        }
+
+        @Override
+        public void onLogLine(byte[] buf, int off, int len) {
+            logs.add(new String(buf, off, len, StandardCharsets.UTF_8));
+        }
+    });
+
+    private void feed(String s) {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        // cắt nhỏ để kiểm tra dòng bị chia giữa 2 lần read()
+        for (int off = 0; off < b.length; off += 7) {
+            parser.feed(b, off, Math.min(7, b.length - off));
+        }
+    }
+
+    private static String block(long frame, long outTimeUs, long size) {
+        return "frame=" + frame + "\n"
+                + "fps=29.97\n"
+                + "stream_0_0_q=-1.0\n"
+                + "bitrate=2875.3kbits/s\n"
+                + "total_size=" + size + "\n"
+                + "out_time_us=" + outTimeUs + "\n"
+                + "out_time_ms=" + outTimeUs + "\n"
+                + "out_time=00:00:05.000000\n"
+                + "dup_frames=0\n"
+                + "drop_frames=2\n"
+                + "speed=1.01x\n"
+                + "progress=continue\n";
+    }
+
+    @Test
+    void parsesProgressBlockIntoSnapshot() {
+        feed(block(150, 5_000_000, 1_800_000));
+
+        assertEquals(1, stats.size());
+        FfmpegStat s = stats.get(0);
+        assertEquals(150, s.getFrame());
+        assertEquals(29.97, s.getFps(), 1e-9);
+        assertEquals(-1.0, s.getQ(), 1e-9);
+        assertEquals(2875.3, s.getBitrateKbps(), 1e-9);
+        assertEquals(1.01, s.getSpeedRatio(), 1e-9);
+        assertEquals(1_800_000, s.getTotalSize());
+        assertEquals(5_000_000, s.getOutTimeUs());
+        assertEquals(5000, s.getOutTimeMs());
+        assertEquals(2, s.getDropFrames());
+        assertEquals("2875.3kbits/s", s.getBitrate());
+        assertEquals("1.01x", s.getSpeed());
+        assertEquals("00:00:05.000000", s.getTime());
+        assertEquals("1.7MiB", s.getSize());
+    }
+
+    @Test
+    void publishesOnlyWhenBlockChanges() {
+        feed(block(150, 5_000_000, 1_800_000));
+        feed(block(150, 5_000_000, 1_800_000));
+        feed(block(180, 6_000_000, 2_100_000));
+
+        assertEquals(3, parser.blocks());
+        assertEquals(2, stats.size());
+        assertEquals(180, stats.get(1).getFrame());
+    }
+
+    @Test
+    void handlesNotAvailableValuesAndStatsLines() {
+        feed("frame=0\nfps=0.00\nbitrate=N/A\ntotal_size=N/A\nout_time_us=N/A\nspeed=N/A\nprogress=continue\n");
+        feed("frame=   60 fps= 30 q=-1.0 size=    1024kB time=00:00:02.00 bitrate=4194.3kbits/s speed=   1x    \r");
+
+        assertEquals(1, stats.size());
+        FfmpegStat s = stats.get(0);
+        assertEquals(-1, s.getBitrateKbps(), 1e-9);
+        assertEquals(-1, s.getTotalSize());
+        assertEquals(-1, s.getOutTimeUs());
+        assertEquals(null, s.getSpeed());
+        assertTrue(logs.isEmpty());
+    }
+
+    @Test
+    void forwardsLogLinesWithCrAndLfTerminators() {
+        feed("Input #0, mov,mp4, from 'a.mp4':\r\n[tcp @ 0x1] Connection to tcp://a.b:1935?tcp_nodelay=0 failed: Connection refused\n");
+
+        assertEquals(2, logs.size());
+        assertTrue(logs.get(1).contains("Connection refused"));
+    }
+}
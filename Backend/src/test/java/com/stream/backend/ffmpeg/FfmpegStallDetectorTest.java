@@ -0,0 +1,69 @@
+package com.stream.backend.ffmpeg;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.stream.backend.entity.FfmpegStat;
+
+class FfmpegStallDetectorTest {
+
+    private static final String KEY = "abcd-efgh";
+
+    private final FfmpegStallDetector detector = new FfmpegStallDetector(30, 0.9, 60);
+
+    private static FfmpegStat stat(long outTimeSec, long updatedAt) {
+        return new FfmpegStat(outTimeSec * 30, 30, -1, 3000, 1.0, outTimeSec * 1000, outTimeSec * 1_000_000L,
+                0, 0, updatedAt);
+    }
+
+    @Test
+    void realtimeProgressIsHealthy() {
+        long t = 1_000_000;
+        for (int i = 0; i < 10; i++) {
+            long now = t + i * 15_000L;
+            assertNull(detector.check(KEY, stat(i * 15L, now), now));
+        }
+    }
+
+    @Test
+    void noNewSnapshotIsStall() {
+        long t = 1_000_000;
+        assertNull(detector.check(KEY, stat(100, t), t));
+        String reason = detector.check(KEY, stat(100, t), t + 31_000);
+        assertNotNull(reason);
+        assertTrue(reason.startsWith(FfmpegStallDetector.REASON_NO_PROGRESS));
+    }
+
+    @Test
+    void sustainedSubRealtimeIsStall() {
+        long t = 1_000_000;
+        assertNull(detector.check(KEY, stat(0, t), t));
+        // 0.5x: 15s thực chỉ được 7.5s media
+        long out = 0;
+        String reason = null;
+        for (int i = 1; i <= 5 && reason == null; i++) {
+            long now = t + i * 15_000L;
+            out += 7;
+            reason = detector.check(KEY, stat(out, now), now);
+            if (i < 4) {
+                assertNull(reason);
+            }
+        }
+        assertNotNull(reason);
+        assertTrue(reason.startsWith(FfmpegStallDetector.REASON_SLOW_SPEED));
+    }
+
+    @Test
+    void shortSlowdownRecovers() {
+        long t = 1_000_000;
+        assertNull(detector.check(KEY, stat(0, t), t));
+        assertNull(detector.check(KEY, stat(5, t + 15_000), t + 15_000));
+        assertNull(detector.check(KEY, stat(25, t + 30_000), t + 30_000));
+        assertNull(detector.check(KEY, stat(40, t + 45_000), t + 45_000));
+        assertNull(detector.check(KEY, stat(55, t + 60_000), t + 60_000));
+        assertNull(detector.check(KEY, stat(70, t + 75_000), t + 75_000));
+    }
+}
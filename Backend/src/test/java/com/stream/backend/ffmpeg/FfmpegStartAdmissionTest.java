@@ -0,0 +1,65 @@
+package com.stream.backend.ffmpeg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FfmpegStartAdmissionTest {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final FfmpegStartAdmission admission = new FfmpegStartAdmission(registry);
+    private final EncodeCapacityManager capacity = new EncodeCapacityManager(registry);
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(admission, "maxStarting", 1);
+        ReflectionTestUtils.setField(admission, "minGapMs", 0L);
+        ReflectionTestUtils.setField(admission, "jitterMs", 0L);
+        ReflectionTestUtils.setField(admission, "maxCpuLoad", 0.0);
+        ReflectionTestUtils.setField(admission, "timeoutMs", 500L);
+        ReflectionTestUtils.invokeMethod(admission, "init");
+
+        ReflectionTestUtils.setField(capacity, "configuredSlots", 1);
+        ReflectionTestUtils.setField(capacity, "queueWaitMs", 5_000L);
+        ReflectionTestUtils.invokeMethod(capacity, "init");
+    }
+
+    @Test
+    void copyStartIsAdmittedWhileEncodeWaitsForSlot() throws Exception {
+        capacity.acquireEncode("busy");
+
+        // Encode xếp hàng chờ slot, chưa giữ lượt start
+        CompletableFuture<FfmpegStartAdmission.Ticket> encode =
+                CompletableFuture.supplyAsync(() -> admission.admitEncode("enc", capacity));
+        while (capacity.getEncodeQueued() == 0) {
+            Thread.sleep(10);
+        }
+
+        FfmpegStartAdmission.Ticket copy = admission.admit("copy");
+        assertNotNull(copy);
+        copy.close();
+
+        capacity.release("busy");
+        FfmpegStartAdmission.Ticket ticket = encode.get(5, TimeUnit.SECONDS);
+        assertEquals(1, capacity.getEncodeInUse());
+        ticket.close();
+    }
+
+    @Test
+    void encodeSlotIsReturnedWhenAdmissionTimesOut() {
+        FfmpegStartAdmission.Ticket held = admission.admit("other");
+
+        assertThrows(RuntimeException.class, () -> admission.admitEncode("enc", capacity));
+        assertEquals(0, capacity.getEncodeInUse());
+        held.close();
+    }
+}
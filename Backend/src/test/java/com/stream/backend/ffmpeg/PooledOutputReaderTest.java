@@ -0,0 +1,85 @@
+package com.stream.backend.ffmpeg;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.stream.backend.entity.FfmpegStat;
+
+class PooledOutputReaderTest {
+
+    private final ScheduledExecutorService pool = Executors.newScheduledThreadPool(1);
+
+    @AfterEach
+    void tearDown() {
+        pool.shutdownNow();
+    }
+
+    /** Process đã thoát, output có sẵn trong pipe */
+    private static Process exitedProcess(String output) {
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        InputStream in = new ByteArrayInputStream(bytes);
+        return new Process() {
+            @Override
+            public OutputStream getOutputStream() {
+                return OutputStream.nullOutputStream();
+            }
+
+            @Override
+            public InputStream getInputStream() {
+                return in;
+            }
+
+            @Override
+            public InputStream getErrorStream() {
+                return InputStream.nullInputStream();
+            }
+
+            @Override
+            public int waitFor() {
+                return 0;
+            }
+
+            @Override
+            public int exitValue() {
+                return 0;
+            }
+
+            @Override
+            public void destroy() {
+            }
+
+            @Override
+            public boolean isAlive() {
+                return false;
+            }
+        };
+    }
+
+    @Test
+    void finishedProcessIsRemovedAfterFirstPoll() throws InterruptedException {
+        PooledOutputReader reader = new PooledOutputReader(pool, 20);
+        FfmpegProgressParser parser = new FfmpegProgressParser(new FfmpegProgressParser.Listener() {
+            @Override
+            public void onProgress(FfmpegStat stat) {
+            }
+
+            @Override
+            public void onLogLine(byte[] buf, int off, int len) {
+            }
+        });
+
+        reader.start("abcd-efgh", exitedProcess("frame=1\nprogress=end\n"), parser);
+        Thread.sleep(200);
+
+        assertEquals(0, reader.activeReaders());
+    }
+}
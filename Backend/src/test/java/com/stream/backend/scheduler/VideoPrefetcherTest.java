@@ -0,0 +1,88 @@
+package com.stream.backend.scheduler;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.stream.backend.download.VideoSources;
+import com.stream.backend.entity.Stream;
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.ffmpeg.MediaDurationProbe;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.service.DownloadManagerService;
+
+class VideoPrefetcherTest {
+
+    @TempDir
+    Path tmp;
+
+    private final StreamSessionRepository repository = mock(StreamSessionRepository.class);
+    private final DownloadManagerService downloadManager = mock(DownloadManagerService.class);
+    private final MediaDurationProbe durationProbe = mock(MediaDurationProbe.class);
+    private final VideoPrefetcher prefetcher = new VideoPrefetcher(repository, downloadManager, durationProbe);
+
+    private StreamSession session(String videoList) {
+        Stream stream = new Stream();
+        stream.setId(3);
+        stream.setVideoList(videoList);
+        stream.setTimeStart(LocalDateTime.now().plusMinutes(30));
+        StreamSession ss = new StreamSession();
+        ss.setId(9);
+        ss.setStatus("SCHEDULED");
+        ss.setStream(stream);
+        return ss;
+    }
+
+    @Test
+    void rewritesRemoteSourcesToVerifiedLocalCopies() throws IOException {
+        String videoList = "https://drive.google.com/file/d/xyz/view\n/videos/intro.mp4";
+        String url = "https://drive.google.com/uc?export=download&id=xyz";
+        Path local = Files.writeString(tmp.resolve("blob.mp4"), "data");
+        when(repository.findScheduledStartingBefore(any(), any())).thenReturn(List.of(session(videoList)));
+        when(downloadManager.fetch(url)).thenReturn(CompletableFuture.completedFuture(local.toString()));
+        when(durationProbe.durationMs(local.toString())).thenReturn(60_000L);
+
+        prefetcher.scan();
+
+        verify(repository).updateEffectiveVideoList(9, local + "\n/videos/intro.mp4",
+                VideoSources.fingerprint(url + "\n/videos/intro.mp4"));
+    }
+
+    @Test
+    void keepsUrlWhenVerificationFails() throws IOException {
+        Path local = Files.writeString(tmp.resolve("broken.mp4"), "data");
+        when(repository.findScheduledStartingBefore(any(), any()))
+                .thenReturn(List.of(session("https://host/a.mp4")));
+        when(downloadManager.fetch("https://host/a.mp4"))
+                .thenReturn(CompletableFuture.completedFuture(local.toString()));
+        when(durationProbe.durationMs(anyString())).thenReturn(-1L);
+
+        prefetcher.scan();
+
+        verify(repository, never()).updateEffectiveVideoList(eq(9), anyString(), anyString());
+    }
+
+    @Test
+    void skipsSessionsWithoutRemoteSources() {
+        when(repository.findScheduledStartingBefore(any(), any()))
+                .thenReturn(List.of(session("/videos/a.mp4")));
+
+        prefetcher.scan();
+
+        verify(downloadManager, never()).fetch(anyString());
+    }
+}
@@ -0,0 +1,102 @@
+package com.stream.backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.stream.backend.download.LocalFileImporter;
+import com.stream.backend.download.RangedHttpDownloader;
+import com.stream.backend.entity.VideoBlob;
+
+class DownloadManagerServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private final RangedHttpDownloader downloader = mock(RangedHttpDownloader.class);
+    private final VideoStoreService store = mock(VideoStoreService.class);
+    private final DownloadManagerService manager = new DownloadManagerService(downloader,
+            mock(LocalFileImporter.class), store);
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() throws Exception {
+        ReflectionTestUtils.setField(manager, "maxConcurrent", 1);
+        manager.init();
+
+        when(downloader.remoteSize(anyString())).thenReturn(-1L);
+        when(store.tempDir()).thenReturn(tmp);
+        when(downloader.download(anyString(), any(File.class), any(), anyLong())).thenAnswer(inv -> {
+            release.await(5, TimeUnit.SECONDS);
+            return new RangedHttpDownloader.Result(10, 1, 10, 1, 0, "ab" + inv.getArgument(0).hashCode());
+        });
+        when(store.ingest(any(), anyString(), anyString(), anyString())).thenAnswer(inv -> VideoBlob.builder()
+                .path("/store/" + inv.getArgument(3).hashCode() + ".mp4").build());
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        manager.shutdown();
+    }
+
+    @Test
+    void coalescesSameSourceIntoOneTransfer() throws Exception {
+        DownloadJob first = manager.submit("http://host/a.mp4");
+        DownloadJob second = manager.submit("http://host/a.mp4");
+
+        CompletableFuture<String> joined = manager.fetch("http://host/a.mp4");
+
+        assertSame(first, second);
+        assertEquals(3, first.getWaiters());
+
+        release.countDown();
+        String path = joined.get(5, TimeUnit.SECONDS);
+
+        assertEquals(first.getPath(), path);
+        verify(downloader, times(1)).download(eq("http://host/a.mp4"), any(File.class), any(), anyLong());
+    }
+
+    @Test
+    void queuesBeyondConcurrencyLimit() throws Exception {
+        DownloadJob a = manager.submit("http://host/a.mp4");
+        DownloadJob b = manager.submit("http://host/b.mp4");
+
+        waitFor(() -> DownloadJob.RUNNING.equals(a.getStatus()));
+        assertEquals(DownloadJob.QUEUED, b.getStatus());
+
+        release.countDown();
+        CompletableFuture.allOf(a.result(), b.result()).get(5, TimeUnit.SECONDS);
+        assertEquals(DownloadJob.DONE, b.getStatus());
+        assertEquals(2, manager.listJobs().size());
+    }
+
+    private static void waitFor(java.util.function.BooleanSupplier cond) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!cond.getAsBoolean() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(cond.getAsBoolean());
+    }
+}
@@ -0,0 +1,85 @@
+package com.stream.backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.stream.backend.entity.StreamSession;
+import com.stream.backend.repository.StreamSessionRepository;
+
+class RestartPolicyServiceTest {
+
+    private final StreamSessionRepository repository = mock(StreamSessionRepository.class);
+    private final RestartPolicyService policy = new RestartPolicyService(repository);
+    private final StreamSession session = new StreamSession();
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(policy, "baseDelayMs", 1000L);
+        ReflectionTestUtils.setField(policy, "maxDelayMs", 8000L);
+        ReflectionTestUtils.setField(policy, "jitter", 0.5);
+        ReflectionTestUtils.setField(policy, "windowMinutes", 10L);
+        ReflectionTestUtils.setField(policy, "maxPerWindow", 3);
+
+        session.setId(1);
+        when(repository.findById(1)).thenReturn(Optional.of(session));
+    }
+
+    @Test
+    void backoffGrowsExponentiallyWithJitterAndCap() {
+        for (int i = 0; i < 50; i++) {
+            long d0 = policy.backoffMs(0);
+            long d2 = policy.backoffMs(2);
+            long d9 = policy.backoffMs(9);
+            assertTrue(d0 >= 500 && d0 <= 1000, "attempt 0: " + d0);
+            assertTrue(d2 >= 2000 && d2 <= 4000, "attempt 2: " + d2);
+            assertTrue(d9 >= 4000 && d9 <= 8000, "capped: " + d9);
+        }
+    }
+
+    @Test
+    void oldRestartsFallOutOfWindow() {
+        long now = System.currentTimeMillis();
+        long old = now - 11 * 60_000L;
+        session.setRestartHistory(old + "," + old + "," + old + "," + (now - 1000));
+
+        RestartPolicyService.Decision d = policy.decide(1);
+
+        assertEquals(RestartPolicyService.Action.GO, d.action());
+        assertEquals(1, d.attemptsInWindow());
+    }
+
+    @Test
+    void budgetExhaustedInWindowGivesUp() {
+        long now = System.currentTimeMillis();
+        session.setRestartHistory((now - 3000) + "," + (now - 2000) + "," + (now - 1000));
+
+        assertEquals(RestartPolicyService.Action.GIVE_UP, policy.decide(1).action());
+    }
+
+    @Test
+    void waitsUntilBackoffElapsed() {
+        session.setNextRestartAt(LocalDateTime.now().plusSeconds(30));
+
+        assertEquals(RestartPolicyService.Action.WAIT, policy.decide(1).action());
+    }
+
+    @Test
+    void recordAttemptPersistsHistoryAndNextTime() {
+        long delay = policy.recordAttempt(1);
+
+        assertTrue(delay >= 500 && delay <= 1000);
+        verify(repository).updateRestartState(eq(1), any(String.class), any(LocalDateTime.class));
+    }
+}
@@ -0,0 +1,129 @@
+package com.stream.backend.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.stream.backend.download.ContentHash;
+import com.stream.backend.entity.VideoBlob;
+import com.stream.backend.entity.VideoRef;
+import com.stream.backend.repository.StreamRepository;
+import com.stream.backend.repository.StreamSessionRepository;
+import com.stream.backend.repository.VideoBlobRepository;
+import com.stream.backend.repository.VideoRefRepository;
+
+class VideoStoreServiceTest {
+
+    @TempDir
+    Path tmp;
+
+    private final VideoBlobRepository blobs = mock(VideoBlobRepository.class);
+    private final VideoRefRepository refs = mock(VideoRefRepository.class);
+    private final StreamRepository streams = mock(StreamRepository.class);
+    private final VideoStoreService store = new VideoStoreService(blobs, refs, streams,
+            mock(StreamSessionRepository.class));
+
+    @BeforeEach
+    void setUp() {
+        ReflectionTestUtils.setField(store, "videoDir", tmp.toString());
+        ReflectionTestUtils.setField(store, "storeDir", "");
+        when(blobs.save(any(VideoBlob.class))).thenAnswer(inv -> {
+            VideoBlob b = inv.getArgument(0);
+            if (b.getId() == null) {
+                b.setId(1);
+            }
+            return b;
+        });
+    }
+
+    private Path tempFile(String name, String content) throws IOException {
+        return Files.writeString(store.tempDir().resolve(name), content);
+    }
+
+    @Test
+    void ingestMovesIntoHashPathAndDedupsSameContent() throws IOException {
+        Path first = tempFile("a.part", "same video");
+        String sha = ContentHash.sha256(first);
+        when(blobs.findBySha256(sha)).thenReturn(Optional.empty());
+
+        VideoBlob blob = store.ingest(first, sha, ".mp4", "http://x/a.mp4");
+
+        Path stored = Path.of(blob.getPath());
+        assertEquals(store.storeRoot().resolve(sha.substring(0, 2)).resolve(sha + ".mp4"), stored);
+        assertTrue(Files.isRegularFile(stored));
+        assertFalse(Files.exists(first));
+        assertTrue(store.isStorePath(blob.getPath()));
+
+        // Lần 2 cùng nội dung → dùng blob cũ, file mới bị xóa
+        when(blobs.findBySha256(sha)).thenReturn(Optional.of(blob));
+        Path second = tempFile("b.part", "same video");
+        VideoBlob again = store.ingest(second, sha, ".mp4", null);
+
+        assertEquals(blob.getPath(), again.getPath());
+        assertFalse(Files.exists(second));
+    }
+
+    @Test
+    void updateReferencesAddsNewAndReleasesOldRefs() {
+        String oldPath = store.storeRoot().resolve("aa/old.mp4").toString();
+        String newPath = store.storeRoot().resolve("bb/new.mp4").toString();
+        when(blobs.findByPath(newPath)).thenReturn(Optional.of(VideoBlob.builder().id(2).path(newPath).build()));
+        when(refs.findByStreamId(7)).thenReturn(List.of(VideoRef.builder().streamId(7).blobId(1).build()));
+
+        store.updateReferences(7, oldPath, newPath);
+
+        verify(refs).deleteRef(7, 1);
+        verify(blobs).recountRefs(eq(1), any());
+        verify(refs).save(any(VideoRef.class));
+        verify(blobs).recountRefs(eq(2), any());
+        // File trong kho không bị xóa theo đường dẫn, chỉ GC
+        verify(streams, never()).countByVideoListContainingAndIdNot(anyString(), any());
+    }
+
+    @Test
+    void looseFileKeptWhileAnotherStreamUsesIt() throws IOException {
+        Path loose = Files.writeString(tmp.resolve("shared.mp4"), "x");
+        when(refs.findByStreamId(any())).thenReturn(List.of());
+        when(streams.countByVideoListContainingAndIdNot(loose.toString(), 7)).thenReturn(1L);
+
+        store.updateReferences(7, loose.toString(), null);
+        assertTrue(Files.exists(loose));
+
+        when(streams.countByVideoListContainingAndIdNot(loose.toString(), 7)).thenReturn(0L);
+        store.updateReferences(7, loose.toString(), null);
+        assertFalse(Files.exists(loose));
+    }
+
+    @Test
+    void gcRelinksBlobStillInVideoList() throws IOException {
+        Path file = Files.writeString(Files.createDirectories(store.storeRoot().resolve("cc")).resolve("c.mp4"), "x");
+        VideoBlob blob = VideoBlob.builder().id(3).path(file.toString()).sizeBytes(1L).build();
+        when(blobs.findUnreferenced(any(), any())).thenReturn(List.of(blob));
+        when(streams.findIdsByVideoListContaining(file.toString())).thenReturn(List.of(7));
+
+        store.gc();
+
+        verify(refs).save(any(VideoRef.class));
+        verify(blobs).recountRefs(eq(3), any());
+        verify(blobs, never()).deleteIfUnreferenced(any());
+        assertTrue(Files.exists(file));
+    }
+}
@@ -42,6 +42,9 @@ const translateError = (code) => {
   if (c.startsWith("FFMPEG_START_FAILED")) return "FFmpeg không khởi động được.";
   if (c === "Failed to start FFmpeg ENCODE") return "Không thể mã hóa video.";
   if (c.startsWith("FFMPEG_START_CHECK_ERROR")) return "Lỗi kiểm tra FFmpeg.";
+  if (c.startsWith("ENCODE_CAPACITY_EXHAUSTED")) return "Máy chủ đã hết slot mã hóa video, vui lòng thử lại sau.";
+  if (c === "START_INTERRUPTED_BY_RESTART") return "Máy chủ khởi động lại khi stream đang bắt đầu, vui lòng Stream lại.";
+  if (c.startsWith("WATCHDOG_RESTART_BUDGET_EXCEEDED")) return "Stream bị lỗi và tự khởi động lại quá nhiều lần.";
   return `Lỗi: ${c}`;
 };
 
@@ -282,8 +285,24 @@ const Stream = () => {
     if (!window.confirm(`Stream ngay luồng: "${stream.name}"?`)) return;
 
     try {
+      // BE trả 202 + jobId ngay, FFmpeg start ở nền → hỏi lại trạng thái job
       const res = await axiosClient.post(`/stream-sessions/start/${stream.id}`);
-      alert(res.message || "Đã bắt đầu stream.");
+      const jobId = res.jobId;
+      let job = res.job;
+
+      for (let i = 0; jobId && i < 60 && !["ACTIVE", "FAILED"].includes(job?.status); i++) {
+        await new Promise((r) => setTimeout(r, 2000));
+        const poll = await axiosClient.get(`/stream-sessions/start-jobs/${jobId}`);
+        job = poll.job;
+      }
+
+      if (job?.status === "FAILED") {
+        alert(`Không thể bắt đầu stream: ${job.lastError || "Lỗi không xác định"}`);
+      } else if (job?.status === "ACTIVE") {
+        alert("Đã bắt đầu stream.");
+      } else {
+        alert(res.message || "Đang bắt đầu stream, vui lòng kiểm tra lại sau.");
+      }
       await fetchAll();
     } catch (err) {
       console.error(err);
@@ -66,7 +66,8 @@ const StreamSession = () => {
 
   const buildStatText = (stat) => {
     if (!stat) return "-";
-    const fps = stat.fps != null ? Number(stat.fps).toFixed(1) : "-";
+    // BE trả -1 khi FFmpeg chưa báo số liệu (N/A)
+    const fps = stat.fps != null && stat.fps >= 0 ? Number(stat.fps).toFixed(1) : "-";
     const bitrate = stat.bitrate ?? "-";
     const speed = stat.speed ?? "-";
     return `fps=${fps} bitrate=${bitrate} speed=${speed}`;